@@ -0,0 +1,36 @@
+package de.janno.discord.bot.dice;
+
+import de.janno.discord.connector.api.message.EmbedDefinition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a roll with the cached compiled expression with a roll that compiles the expression every time, like before
+ * the cache. The dice expressions are rolled by the dice parser in both cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiceParserHelperBenchmark {
+
+    private final DiceParserHelper diceParserHelper = new DiceParserHelper();
+
+    @Param({"2d20k1", "6x[3d6]", "1d20=20?Critical:Hit@Attack", "1d6&2d10&3d4"})
+    public String expression;
+
+    @Benchmark
+    public EmbedDefinition rollCached() {
+        return diceParserHelper.rollWithOptionalLabel(expression, "@");
+    }
+
+    @Benchmark
+    public EmbedDefinition rollCompileEveryTime() {
+        return diceParserHelper.rollCompiled(diceParserHelper.compile(expression, "@"), null);
+    }
+
+    @Benchmark
+    public DiceParserHelper.CompiledExpression compileOnly() {
+        return diceParserHelper.compile(expression, "@");
+    }
+}
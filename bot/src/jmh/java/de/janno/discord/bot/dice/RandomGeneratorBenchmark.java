@@ -0,0 +1,66 @@
+package de.janno.discord.bot.dice;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+/**
+ * Compares the shared synchronized {@link Sfc64Random} with the {@link ThreadLocalSfc64Random} when many threads roll at
+ * the same time. The JDK {@link ThreadLocalRandom} is the baseline without contention. The pool benchmarks compare a
+ * pool of 100 dice rolled one by one with the bulk fill of the {@link BoundedRandom}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class RandomGeneratorBenchmark {
+
+    private final RandomGenerator shared = new Sfc64Random();
+    private final RandomGenerator threadLocal = new ThreadLocalSfc64Random();
+    private final BoundedRandom boundedRandom = new BoundedRandom(threadLocal);
+
+    @Benchmark
+    public int sharedSfc64() {
+        return shared.nextInt(6);
+    }
+
+    @Benchmark
+    public int threadLocalSfc64() {
+        return threadLocal.nextInt(6);
+    }
+
+    @Benchmark
+    public int jdkThreadLocalRandom() {
+        return ThreadLocalRandom.current().nextInt(6);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int sharedSfc64SingleThread() {
+        return shared.nextInt(6);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int threadLocalSfc64SingleThread() {
+        return threadLocal.nextInt(6);
+    }
+
+    @Benchmark
+    public int[] poolOneByOne() {
+        int[] results = new int[100];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = threadLocal.nextInt(10) + 1;
+        }
+        return results;
+    }
+
+    @Benchmark
+    public int[] poolBulkFill() {
+        int[] results = new int[100];
+        boundedRandom.fill(results, 10);
+        return results;
+    }
+}
@@ -0,0 +1,77 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.collect.ImmutableList;
+import de.janno.discord.bot.command.ButtonIdLabelAndDiceExpression;
+import de.janno.discord.bot.command.customDice.CustomDiceConfig;
+import de.janno.discord.bot.command.poolTarget.PoolTargetStateData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the encode and decode time of the YAML and the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MapperBenchmark {
+
+    private final CustomDiceConfig config = new CustomDiceConfig(123L, IntStream.range(1, 26)
+            .mapToObj(i -> new ButtonIdLabelAndDiceExpression(i + "_button", "Attack " + i, i + "d6+" + i))
+            .collect(ImmutableList.toImmutableList()));
+    private final PoolTargetStateData stateData = new PoolTargetStateData(15, 8, true);
+
+    private String yamlConfig;
+    private String binaryConfig;
+    private String yamlState;
+    private String binaryState;
+
+    @Setup
+    public void setup() {
+        yamlConfig = Mapper.serializedObjectAsYaml(config);
+        binaryConfig = Mapper.serializedObject(config);
+        yamlState = Mapper.serializedObjectAsYaml(stateData);
+        binaryState = Mapper.serializedObject(stateData);
+    }
+
+    @Benchmark
+    public String encodeConfigYaml() {
+        return Mapper.serializedObjectAsYaml(config);
+    }
+
+    @Benchmark
+    public String encodeConfigBinary() {
+        return Mapper.serializedObject(config);
+    }
+
+    @Benchmark
+    public CustomDiceConfig decodeConfigYaml() {
+        return Mapper.deserializeObject(yamlConfig, CustomDiceConfig.class);
+    }
+
+    @Benchmark
+    public CustomDiceConfig decodeConfigBinary() {
+        return Mapper.deserializeObject(binaryConfig, CustomDiceConfig.class);
+    }
+
+    @Benchmark
+    public String encodeStateYaml() {
+        return Mapper.serializedObjectAsYaml(stateData);
+    }
+
+    @Benchmark
+    public String encodeStateBinary() {
+        return Mapper.serializedObject(stateData);
+    }
+
+    @Benchmark
+    public PoolTargetStateData decodeStateYaml() {
+        return Mapper.deserializeObject(yamlState, PoolTargetStateData.class);
+    }
+
+    @Benchmark
+    public PoolTargetStateData decodeStateBinary() {
+        return Mapper.deserializeObject(binaryState, PoolTargetStateData.class);
+    }
+}
@@ -0,0 +1,66 @@
+package de.janno.discord.bot.persistance;
+
+import de.janno.discord.bot.command.Config;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the h2 and the memory mapped implementation with the workload of the button clicks: reading and updating the
+ * state of a message and replacing a button message with a new one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class MessageDataDAOBenchmark {
+
+    private static final int MESSAGE_COUNT = 10_000;
+    private static final long CHANNEL_ID = 1L;
+    private static final String CONFIG = Mapper.serializedObject(new Config(null));
+
+    private final AtomicLong nextMessageId = new AtomicLong(MESSAGE_COUNT);
+    @Param({"h2", "mapped"})
+    public String implementation;
+    private MessageDataDAO messageDataDAO;
+
+    @Setup
+    public void setup() throws IOException {
+        Path directory = Files.createTempDirectory("message-data-benchmark");
+        messageDataDAO = switch (implementation) {
+            case "h2" -> new MessageDataDAOImpl("jdbc:h2:file:" + directory.resolve("dice_config"), null, null, 50, Duration.ofMillis(5));
+            case "mapped" -> new MappedMessageDataDAO(directory.resolve("message_data.log"), Duration.ofSeconds(1));
+            default -> throw new IllegalArgumentException(implementation);
+        };
+        for (long messageId = 0; messageId < MESSAGE_COUNT; messageId++) {
+            messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, CHANNEL_ID, messageId, "testCommand", "Config", CONFIG));
+        }
+    }
+
+    @Benchmark
+    public boolean readAndUpdateState() {
+        long messageId = ThreadLocalRandom.current().nextLong(MESSAGE_COUNT);
+        Optional<MessageDataDTO> messageData = messageDataDAO.getDataForMessage(CHANNEL_ID, messageId);
+        return messageData.isPresent() && messageDataDAO.updateCommandConfigOfMessage(CHANNEL_ID, messageId,
+                messageData.get().getVersion(), messageData.get().getVersion() + 1, "testState", "state");
+    }
+
+    @Benchmark
+    public int replaceButtonMessage() {
+        long messageId = nextMessageId.getAndIncrement();
+        UUID configUUID = UUID.randomUUID();
+        messageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, CHANNEL_ID, messageId, "testCommand", "Config", CONFIG));
+        messageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, CHANNEL_ID, messageId + 1_000_000_000L, "testCommand", "Config", CONFIG));
+        int messageCount = messageDataDAO.getAllMessageIdsForConfig(configUUID).size();
+        messageDataDAO.deleteDataForMessage(CHANNEL_ID, messageId);
+        return messageCount;
+    }
+}
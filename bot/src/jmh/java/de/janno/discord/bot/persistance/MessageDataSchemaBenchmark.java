@@ -0,0 +1,126 @@
+package de.janno.discord.bot.persistance;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the insert and update cost of the MESSAGE_DATA schema version 1 and 2 on a table with many rows. The table
+ * is filled in the setup, which takes some minutes for 10M rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MessageDataSchemaBenchmark {
+
+    private static final String SCHEMA_V1 = """
+            CREATE TABLE MESSAGE_DATA(
+                CONFIG_ID       UUID            NOT NULL,
+                CHANNEL_ID      BIGINT          NOT NULL,
+                MESSAGE_ID      BIGINT          NOT NULL,
+                STATE_CLASS_ID  VARCHAR         NOT NULL,
+                STATE           VARCHAR         NULL,
+                CREATION_DATE   TIMESTAMP       NOT NULL,
+                GUILD_ID        BIGINT,
+                LAST_ACCESS     TIMESTAMP,
+                VERSION         BIGINT          DEFAULT 0 NOT NULL,
+                PRIMARY KEY (CONFIG_ID, CHANNEL_ID, MESSAGE_ID)
+            );
+            CREATE INDEX MESSAGE_DATA_ID ON MESSAGE_DATA (CONFIG_ID);
+            CREATE INDEX MESSAGE_DATA_CHANNEL ON MESSAGE_DATA (CHANNEL_ID);
+            CREATE INDEX MESSAGE_DATA_CHANNEL_MESSAGE ON MESSAGE_DATA (CHANNEL_ID, MESSAGE_ID);
+            CREATE INDEX MESSAGE_DATA_GUILD ON MESSAGE_DATA (GUILD_ID);
+            CREATE INDEX MESSAGE_DATA_GUILD_CHANNEl ON MESSAGE_DATA (GUILD_ID, CHANNEL_ID);
+            """;
+    private static final String SCHEMA_V2 = """
+            CREATE TABLE MESSAGE_DATA(
+                CHANNEL_ID      BIGINT          NOT NULL,
+                MESSAGE_ID      BIGINT          NOT NULL,
+                CONFIG_ID       UUID            NOT NULL,
+                GUILD_ID        BIGINT,
+                STATE_CLASS_ID  VARCHAR         NOT NULL,
+                STATE           VARCHAR         NULL,
+                CREATION_DATE   TIMESTAMP       NOT NULL,
+                LAST_ACCESS     TIMESTAMP,
+                VERSION         BIGINT          DEFAULT 0 NOT NULL,
+                PRIMARY KEY (CHANNEL_ID, MESSAGE_ID)
+            );
+            CREATE INDEX MESSAGE_DATA_CONFIG_ID ON MESSAGE_DATA (CONFIG_ID);
+            """;
+    //each channel has 100 messages
+    private static final int MESSAGES_PER_CHANNEL = 100;
+
+    @Param({"v1", "v2"})
+    public String schema;
+    @Param({"10000000"})
+    public int rows;
+    private Connection connection;
+    private PreparedStatement insertStatement;
+    private PreparedStatement updateStatement;
+    private long nextMessageId;
+
+    @Setup
+    public void setup() throws SQLException, IOException {
+        String url = "jdbc:h2:file:" + Files.createTempDirectory("message-data-schema-benchmark").resolve("dice_config");
+        connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("v1".equals(schema) ? SCHEMA_V1 : SCHEMA_V2);
+            statement.execute("""
+                    INSERT INTO MESSAGE_DATA(CONFIG_ID, CHANNEL_ID, MESSAGE_ID, GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS)
+                    SELECT RANDOM_UUID(), X / %d, X, X / 10000, 'None', NULL, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+                    FROM SYSTEM_RANGE(1, %d)
+                    """.formatted(MESSAGES_PER_CHANNEL, rows));
+            statement.execute("CHECKPOINT SYNC");
+        }
+        nextMessageId = rows + 1L;
+        insertStatement = connection.prepareStatement("v1".equals(schema) ?
+                "INSERT INTO MESSAGE_DATA(CONFIG_ID, GUILD_ID, CHANNEL_ID, MESSAGE_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)" :
+                "MERGE INTO MESSAGE_DATA(CONFIG_ID, GUILD_ID, CHANNEL_ID, MESSAGE_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION) KEY (CHANNEL_ID, MESSAGE_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        updateStatement = connection.prepareStatement("UPDATE MESSAGE_DATA SET STATE_CLASS_ID = ?, STATE = ?, LAST_ACCESS = ?, VERSION = VERSION + 1 WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+    }
+
+    @Benchmark
+    public int insert() throws SQLException {
+        long messageId = nextMessageId++;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        insertStatement.setObject(1, UUID.randomUUID());
+        insertStatement.setLong(2, messageId / 10000);
+        insertStatement.setLong(3, messageId / MESSAGES_PER_CHANNEL);
+        insertStatement.setLong(4, messageId);
+        insertStatement.setString(5, "None");
+        insertStatement.setString(6, null);
+        insertStatement.setTimestamp(7, now);
+        insertStatement.setTimestamp(8, now);
+        insertStatement.setLong(9, 0);
+        return insertStatement.executeUpdate();
+    }
+
+    @Benchmark
+    public int update() throws SQLException {
+        long messageId = ThreadLocalRandom.current().nextLong(1, rows + 1L);
+        updateStatement.setString(1, "PoolTargetStateData");
+        updateStatement.setString(2, "b1:state");
+        updateStatement.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+        updateStatement.setLong(4, messageId / MESSAGES_PER_CHANNEL);
+        updateStatement.setLong(5, messageId);
+        return updateStatement.executeUpdate();
+    }
+}
@@ -11,11 +11,29 @@ import de.janno.discord.bot.command.holdReroll.HoldRerollCommand;
 import de.janno.discord.bot.command.poolTarget.PoolTargetCommand;
 import de.janno.discord.bot.command.sumCustomSet.SumCustomSetCommand;
 import de.janno.discord.bot.command.sumDiceSet.SumDiceSetCommand;
+import de.janno.discord.bot.persistance.CachingMessageDataDAO;
+import de.janno.discord.bot.persistance.CircuitBreakerMessageDataDAO;
+import de.janno.discord.bot.persistance.ConnectionPoolConfig;
+import de.janno.discord.bot.persistance.GuildDataPurge;
+import de.janno.discord.bot.persistance.MappedMessageDataDAO;
+import de.janno.discord.bot.persistance.MessageDataArchive;
+import de.janno.discord.bot.persistance.MessageDataCacheSnapshot;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDAOImpl;
+import de.janno.discord.bot.persistance.MessageDataRetention;
+import de.janno.discord.bot.persistance.ReactiveMessageDataDAOImpl;
+import de.janno.discord.bot.persistance.StateEventDAO;
 import de.janno.discord.connector.DiscordConnectorImpl;
+import de.janno.discord.connector.api.GuildMembershipListener;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalTime;
 
 public class Bot {
+
+    private static final String MAPPED_URL_PREFIX = "mapped:";
+
     public static void main(final String[] args) throws Exception {
         final String token = args[0];
         final boolean disableCommandUpdate = Boolean.parseBoolean(args[1]);
@@ -40,8 +58,90 @@ public class Bot {
         } else {
             h2Password = null;
         }
+        final Duration messageDataMaxAge;
+        if (args.length >= 7) {
+            messageDataMaxAge = Duration.ofDays(Long.parseLong(args[6]));
+        } else {
+            messageDataMaxAge = Duration.ofDays(365);
+        }
+        final int maxConnections;
+        if (args.length >= 8) {
+            maxConnections = Integer.parseInt(args[7]);
+        } else {
+            maxConnections = 10;
+        }
+        final Duration loginTimeout;
+        if (args.length >= 9) {
+            loginTimeout = Duration.ofSeconds(Long.parseLong(args[8]));
+        } else {
+            loginTimeout = Duration.ofSeconds(5);
+        }
+        //the pool grows up to this size if the threads have to wait for a connection, no adaptive sizing if not larger than the max connections
+        final int adaptiveMaxConnections;
+        if (args.length >= 10) {
+            adaptiveMaxConnections = Integer.parseInt(args[9]);
+        } else {
+            adaptiveMaxConnections = maxConnections;
+        }
+        //if larger than 0 the sum custom set and custom parameter clicks are saved as events and the state every interval clicks
+        final int stateEventSnapshotInterval;
+        if (args.length >= 11) {
+            stateEventSnapshotInterval = Integer.parseInt(args[10]);
+        } else {
+            stateEventSnapshotInterval = 0;
+        }
+        //the cached message data is written into this file on shutdown and loaded on the next start
+        final Path cacheSnapshotFile;
+        if (args.length >= 12) {
+            cacheSnapshotFile = Path.of(args[11]);
+        } else {
+            cacheSnapshotFile = Path.of("./persistence/message_data_cache.snapshot");
+        }
+        //message data that was not used for this duration is moved into the compressed archive table
+        final Duration messageDataArchiveAfter;
+        if (args.length >= 13) {
+            messageDataArchiveAfter = Duration.ofDays(Long.parseLong(args[12]));
+        } else {
+            messageDataArchiveAfter = Duration.ofDays(30);
+        }
+        final MessageDataCacheSnapshot cacheSnapshot = new MessageDataCacheSnapshot(cacheSnapshotFile, Duration.ofHours(1));
 
-        MessageDataDAO messageDataDAO = new MessageDataDAOImpl(h2Url, h2User, h2Password);
+        final MessageDataDAO messageDataDAO;
+        final GuildMembershipListener guildMembershipListener;
+        //null if the message data store has no state events
+        final StateEventDAO stateEventDAO;
+        if (h2Url.startsWith(MAPPED_URL_PREFIX)) {
+            //the message data is stored in a memory mapped log file instead of h2, it has no retention and no guild purge
+            MappedMessageDataDAO mappedMessageDataDAO = new MappedMessageDataDAO(Path.of(h2Url.substring(MAPPED_URL_PREFIX.length())), Duration.ofSeconds(1));
+            CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(mappedMessageDataDAO, 10_000, Duration.ofHours(1), Duration.ofSeconds(1));
+            mappedMessageDataDAO.addBeforeShutdownAction(cachingMessageDataDAO::flush);
+            mappedMessageDataDAO.addBeforeShutdownAction(() -> cacheSnapshot.write(cachingMessageDataDAO));
+            cacheSnapshot.restore(cachingMessageDataDAO);
+            messageDataDAO = cachingMessageDataDAO;
+            guildMembershipListener = GuildMembershipListener.NONE;
+            stateEventDAO = null;
+        } else {
+            //the statements of a stalled database fail after the timeout of the circuit breaker
+            final Duration databaseCallTimeout = Duration.ofSeconds(2);
+            final ConnectionPoolConfig connectionPoolConfig = new ConnectionPoolConfig(maxConnections, loginTimeout, adaptiveMaxConnections, databaseCallTimeout);
+            //the commands execute the database operations on threads of this scheduler
+            ReactiveMessageDataDAOImpl.initDatabaseScheduler(connectionPoolConfig);
+            MessageDataDAOImpl messageDataDAOImpl = new MessageDataDAOImpl(h2Url, h2User, h2Password, 50, Duration.ofMillis(5), connectionPoolConfig);
+            //a stalled database doesn't block the interactions, the recently used message data is served by the cache
+            CircuitBreakerMessageDataDAO circuitBreakerMessageDataDAO = new CircuitBreakerMessageDataDAO(messageDataDAOImpl, 5, databaseCallTimeout, Duration.ofSeconds(10), 100_000);
+            CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(circuitBreakerMessageDataDAO, 10_000, Duration.ofHours(1), Duration.ofSeconds(1));
+            messageDataDAOImpl.addBeforeShutdownAction(cachingMessageDataDAO::flush);
+            messageDataDAOImpl.addBeforeShutdownAction(() -> cacheSnapshot.write(cachingMessageDataDAO));
+            //the cache is filled before the connector starts, so the first clicks after the start don't read the database
+            cacheSnapshot.restore(cachingMessageDataDAO);
+            //the jobs change the database directly, the messages they remove are invalidated in the cache
+            new MessageDataArchive(messageDataDAOImpl, cachingMessageDataDAO, messageDataArchiveAfter, LocalTime.of(3, 0), 100, Duration.ofMillis(500), Duration.ofHours(1));
+            new MessageDataRetention(messageDataDAOImpl, cachingMessageDataDAO, messageDataMaxAge, LocalTime.of(4, 0), 100, Duration.ofMillis(500), Duration.ofHours(2));
+            messageDataDAO = cachingMessageDataDAO;
+            guildMembershipListener = new GuildDataPurge(messageDataDAOImpl, cachingMessageDataDAO, Duration.ofHours(1), Duration.ofDays(1), 100, Duration.ofMillis(500));
+            //the clicks are appended through the caches, so the cached events after the last snapshot stay complete
+            stateEventDAO = cachingMessageDataDAO.withStateEvents(circuitBreakerMessageDataDAO);
+        }
 
         DiscordConnectorImpl.createAndStart(token, disableCommandUpdate, ImmutableList.of(
                         new CountSuccessesCommand(messageDataDAO),
@@ -49,16 +149,17 @@ public class Bot {
                         new FateCommand(messageDataDAO),
                         new DirectRollCommand(),
                         new SumDiceSetCommand(messageDataDAO),
-                        new SumCustomSetCommand(messageDataDAO),
+                        new SumCustomSetCommand(messageDataDAO, stateEventDAO, stateEventSnapshotInterval),
                         new HoldRerollCommand(messageDataDAO),
                         new PoolTargetCommand(messageDataDAO),
-                        new CustomParameterCommand(messageDataDAO),
+                        new CustomParameterCommand(messageDataDAO, stateEventDAO, stateEventSnapshotInterval),
                         new WelcomeCommand(messageDataDAO),
                         new ClearCommand(messageDataDAO),
                         new BetaRollCommand(),
                         new HelpCommand()
                 ),
-                new WelcomeCommand(messageDataDAO).getWelcomeMessage());
+                new WelcomeCommand(messageDataDAO).getWelcomeMessage(),
+                guildMembershipListener);
     }
 
 }
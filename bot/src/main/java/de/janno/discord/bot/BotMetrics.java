@@ -1,9 +1,12 @@
 package de.janno.discord.bot;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import io.micrometer.core.instrument.binder.jvm.*;
 import io.micrometer.core.instrument.binder.logging.LogbackMetrics;
 import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
@@ -25,9 +28,14 @@ public class BotMetrics {
     public final static String METRIC_PREFIX = "dice.";
     public final static String METRIC_BUTTON_PREFIX = "buttonEvent";
     public final static String METRIC_DATABASE_PREFIX = "database";
+    public final static String METRIC_CACHE_PREFIX = "cache";
     public final static String METRIC_LEGACY_BUTTON_PREFIX = "legacyButtonEvent";
     public final static String METRIC_SLASH_PREFIX = "slashEvent";
     public final static String METRIC_SLASH_HELP_PREFIX = "slashHelpEvent";
+    public final static String METRIC_STATE_UPDATE_CONFLICT_PREFIX = "stateUpdateConflict";
+    public final static String METRIC_GUILD_DATA_PURGE_PREFIX = "guildDataPurge";
+    public final static String METRIC_CIRCUIT_BREAKER_PREFIX = "circuitBreaker";
+    public final static String METRIC_ARCHIVE_PREFIX = "messageDataArchive";
     public final static String CONFIG_TAG = "config";
     public final static String COMMAND_TAG = "command";
     public final static String ACTION_TAG = "action";
@@ -76,6 +84,10 @@ public class BotMetrics {
         globalRegistry.counter(METRIC_PREFIX + METRIC_SLASH_HELP_PREFIX, Tags.of(COMMAND_TAG, commandName)).increment();
     }
 
+    public static void incrementStateUpdateConflictCounter(@NonNull String commandName) {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_STATE_UPDATE_CONFLICT_PREFIX, Tags.of(COMMAND_TAG, commandName)).increment();
+    }
+
     public static void databaseTimer(@NonNull String action, @NonNull Duration duration) {
         Timer.builder(METRIC_PREFIX + METRIC_DATABASE_PREFIX)
                 .tags(Tags.of(ACTION_TAG, action))
@@ -85,4 +97,71 @@ public class BotMetrics {
                 .record(duration);
     }
 
+    public static void databaseBatchSize(int batchSize) {
+        DistributionSummary.builder(METRIC_PREFIX + METRIC_DATABASE_PREFIX + ".batchSize")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(globalRegistry)
+                .record(batchSize);
+    }
+
+    /**
+     * @param connections       the number of connections the unit of work acquired from the pool
+     * @param operations        the number of operations that used the connection, each would have acquired a connection without the unit of work
+     * @param batchedOperations the number of write operations of the unit of work that were committed by the write batcher
+     */
+    public static void unitOfWorkConnections(int connections, int operations) {
+        DistributionSummary.builder(METRIC_PREFIX + METRIC_DATABASE_PREFIX + ".unitOfWork.connections")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(globalRegistry)
+                .record(connections);
+        DistributionSummary.builder(METRIC_PREFIX + METRIC_DATABASE_PREFIX + ".unitOfWork.operations")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(globalRegistry)
+                .record(operations);
+    }
+
+    public static void databasePoolWaitTimer(@NonNull Duration duration) {
+        Timer.builder(METRIC_PREFIX + METRIC_DATABASE_PREFIX + ".pool.wait")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram(true)
+                .register(globalRegistry)
+                .record(duration);
+    }
+
+    public static void incrementDatabasePoolTimeoutCounter() {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_DATABASE_PREFIX + ".pool.timeout").increment();
+    }
+
+    public static void guildDataPurgeRows(int rows) {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_GUILD_DATA_PURGE_PREFIX + ".rows").increment(rows);
+    }
+
+    public static void incrementGuildDataPurgeCompletedCounter() {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_GUILD_DATA_PURGE_PREFIX + ".completed").increment();
+    }
+
+    public static void archivedMessageDataRows(int rows) {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_ARCHIVE_PREFIX + ".archived").increment(rows);
+    }
+
+    public static void incrementRehydratedMessageDataCounter() {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_ARCHIVE_PREFIX + ".rehydrated").increment();
+    }
+
+    public static void incrementCircuitBreakerFailureCounter(@NonNull String action) {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_CIRCUIT_BREAKER_PREFIX + ".failure", Tags.of(ACTION_TAG, action)).increment();
+    }
+
+    public static void incrementCircuitBreakerStateCounter(@NonNull String state) {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_CIRCUIT_BREAKER_PREFIX + ".state", Tags.of("state", state)).increment();
+    }
+
+    public static void incrementWriteBehindConflictCounter() {
+        globalRegistry.counter(METRIC_PREFIX + METRIC_CACHE_PREFIX + ".writeBehindConflict").increment();
+    }
+
+    public static <K, V> void cacheMetrics(@NonNull String cacheName, @NonNull Cache<K, V> cache) {
+        GuavaCacheMetrics.monitor(globalRegistry, cache, METRIC_PREFIX + METRIC_CACHE_PREFIX + "." + cacheName);
+    }
+
 }
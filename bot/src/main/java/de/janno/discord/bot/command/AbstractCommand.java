@@ -7,6 +7,11 @@ import com.google.common.collect.ImmutableList;
 import de.janno.discord.bot.BotMetrics;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
+import de.janno.discord.bot.persistance.MessageDataUnavailableException;
+import de.janno.discord.bot.persistance.ReactiveMessageDataDAO;
+import de.janno.discord.bot.persistance.ReactiveMessageDataDAOImpl;
+import de.janno.discord.bot.persistance.StateEventDAO;
+import de.janno.discord.bot.persistance.StateEventDTO;
 import de.janno.discord.connector.api.*;
 import de.janno.discord.connector.api.message.ComponentRowDefinition;
 import de.janno.discord.connector.api.message.EmbedDefinition;
@@ -19,9 +24,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.Nullable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static de.janno.discord.connector.api.BottomCustomIdUtils.CUSTOM_ID_DELIMITER;
 
@@ -31,6 +38,7 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
     protected static final String ACTION_START = "start";
     protected static final String ACTION_HELP = "help";
     protected static final String ANSWER_TARGET_CHANNEL_OPTION = "target_channel";
+    private static final int MAX_STATE_UPDATE_ATTEMPTS = 3;
 
     private static final CommandDefinitionOption ANSWER_TARGET_CHANNEL_COMMAND_OPTION = CommandDefinitionOption.builder()
             .name(ANSWER_TARGET_CHANNEL_OPTION)
@@ -38,9 +46,26 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
             .type(CommandDefinitionOption.Type.CHANNEL)
             .build();
     protected final MessageDataDAO messageDataDAO;
+    //null if the state is written completely with every click
+    protected final @Nullable StateEventDAO stateEventDAO;
+    private final ReactiveMessageDataDAO reactiveMessageDataDAO;
+    //0 if the state is written completely with every click
+    private final int stateEventSnapshotInterval;
 
     protected AbstractCommand(MessageDataDAO messageDataDAO) {
+        this(messageDataDAO, null, 0);
+    }
+
+    /**
+     * @param stateEventSnapshotInterval if larger than 0, there is a state event DAO and the command is a
+     *                                   {@link StateEventSourcedCommand}, a click only appends the button value to the
+     *                                   events of the message and the state is written every interval events
+     */
+    protected AbstractCommand(MessageDataDAO messageDataDAO, @Nullable StateEventDAO stateEventDAO, int stateEventSnapshotInterval) {
         this.messageDataDAO = messageDataDAO;
+        this.stateEventDAO = stateEventDAO;
+        this.reactiveMessageDataDAO = new ReactiveMessageDataDAOImpl(messageDataDAO);
+        this.stateEventSnapshotInterval = stateEventSnapshotInterval;
     }
 
     public static Long getOptionalLongFromArray(@NonNull String[] optionArray, int index) {
@@ -99,41 +124,108 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
                                                                             @NonNull C config,
                                                                             @Nullable State<S> state);
 
+    protected boolean isStateEventSourced() {
+        return getStateEventSourcedCommand() != null;
+    }
+
+    //a command that implements the interface has the same config and state types
+    @SuppressWarnings("unchecked")
+    private @Nullable StateEventSourcedCommand<C, S> getStateEventSourcedCommand() {
+        if (stateEventDAO != null && stateEventSnapshotInterval > 0 && this instanceof StateEventSourcedCommand<?, ?>) {
+            return (StateEventSourcedCommand<C, S>) this;
+        }
+        return null;
+    }
+
+    /**
+     * @return the clicks after the state of the message data, empty if the state is not event sourced
+     */
+    protected List<StateEventDTO> getStateEventsAfterSnapshot(@NonNull MessageDataDTO messageDataDTO) {
+        if (!isStateEventSourced()) {
+            return ImmutableList.of();
+        }
+        return stateEventDAO.getStateEvents(messageDataDTO.getChannelId(), messageDataDTO.getMessageId(), messageDataDTO.getVersion());
+    }
+
+    /**
+     * Saves the state after the click, as event of the clicked button or as complete state
+     *
+     * @return false if the state was not updated, because the message data was changed since it was loaded
+     */
+    private boolean persistState(long channelId, long messageId, long messageDataVersion, @NonNull C config, @NonNull State<S> state,
+                                 @Nullable String buttonValue, @NonNull String invokingUserName) {
+        final StateEventSourcedCommand<C, S> stateEventSourcedCommand = getStateEventSourcedCommand();
+        //the state of a legacy message is not the result of a click
+        if (stateEventSourcedCommand == null || buttonValue == null) {
+            return updateCurrentMessageStateData(channelId, messageId, messageDataVersion, config, state);
+        }
+        final long sequence = messageDataVersion + 1;
+        if (!stateEventDAO.appendStateEvent(channelId, messageId, sequence, buttonValue, invokingUserName)) {
+            return false;
+        }
+        if (sequence % stateEventSnapshotInterval == 0) {
+            stateEventSourcedCommand.snapshotState(channelId, messageId, sequence, config, state);
+        }
+        return true;
+    }
+
     /**
      * update the saved state if the current button message is not deleted. StateData need to be set to null if the there is a answer message
+     *
+     * @return false if the state was not updated, because the message data was changed since it was loaded
      */
-    protected void updateCurrentMessageStateData(long channelId, long messageId, @NonNull C config, @NonNull State<S> state) {
+    protected boolean updateCurrentMessageStateData(long channelId, long messageId, long messageDataVersion, @NonNull C config, @NonNull State<S> state) {
+        return true;
     }
 
     @Override
     public Mono<Void> handleComponentInteractEvent(@NonNull ButtonEventAdaptor event) {
-        Stopwatch stopwatch = Stopwatch.createStarted();
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        //the loading and saving of the state share one connection and run on the database scheduler
+        return reactiveMessageDataDAO.inUnitOfWork(() -> loadAndPersistStateInUnitOfWork(event, stopwatch))
+                .flatMap(Function.identity())
+                .onErrorResume(MessageDataUnavailableException.class, e -> {
+                    log.warn("Message data of channelId: {}, messageId: {} is not available: {}", event.getChannelId(), event.getMessageId(), e.getMessage());
+                    return event.reply("The bot can't access the button configuration at the moment, please try again in a few minutes");
+                });
+    }
+
+    /**
+     * Loads the state, applies the click and saves the new state. The returned answer is created on the parallel
+     * scheduler, so the rolling and rendering don't block a thread of the database scheduler.
+     */
+    private Mono<Void> loadAndPersistStateInUnitOfWork(@NonNull ButtonEventAdaptor event, @NonNull Stopwatch stopwatch) {
         final long messageId = event.getMessageId();
         final long channelId = event.getChannelId();
         final boolean isLegacyMessage = BottomCustomIdUtils.isLegacyCustomId(event.getCustomId());
         final C config;
-        final State<S> state;
+        State<S> loadedState;
         final UUID configUUID;
+        final String buttonValue;
+        long messageDataVersion;
         if (isLegacyMessage) {
             BotMetrics.incrementLegacyButtonMetricCounter(getCommandId());
             config = getConfigFromEvent(event);
-            state = getStateFromEvent(event);
+            loadedState = getStateFromEvent(event);
             configUUID = UUID.randomUUID();
+            buttonValue = null;
             //we need to save the current config/state or the update will not work
-            createMessageDataForNewMessage(configUUID, event.getGuildId(), channelId, messageId, config, state).ifPresent(messageDataDAO::saveMessageData);
+            messageDataVersion = createMessageDataForNewMessage(configUUID, event.getGuildId(), channelId, messageId, config, loadedState)
+                    .map(messageDataDAO::saveMessageData)
+                    .orElse(0L);
         } else {
-            final String buttonValue = BottomCustomIdUtils.getButtonValueFromCustomId(event.getCustomId());
+            buttonValue = BottomCustomIdUtils.getButtonValueFromCustomId(event.getCustomId());
             final Optional<ConfigAndState<C, S>> messageData = getMessageDataAndUpdateWithButtonValue(channelId,
                     messageId,
                     buttonValue,
                     event.getInvokingGuildMemberName());
             if (messageData.isPresent()) {
                 config = messageData.get().getConfig();
-                state = messageData.get().getState();
+                loadedState = messageData.get().getState();
                 configUUID = messageData.get().getConfigUUID();
+                messageDataVersion = messageData.get().getMessageDataVersion();
             } else {
-                log.warn("Missing messageData for channelId: {}, messageId: {} and commandName: {} ", channelId, messageId, getCommandId());
-                return event.reply(String.format("Configuration for the message is missing, please create a new message with the slash command `/%s start`", getCommandId()));
+                return replyMissingMessageData(event, channelId, messageId);
             }
         }
         final Long answerTargetChannelId = config.getAnswerTargetChannelId();
@@ -142,6 +234,44 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
             return event.editMessage(checkPermissions.get(), null);
         }
 
+        //don't update the state data async or there will be racing conditions
+        //todo update only the message if the message is not going to be deleted
+        int stateUpdateAttempt = 1;
+        boolean stateUpdated = persistState(channelId, messageId, messageDataVersion, config, loadedState, buttonValue, event.getInvokingGuildMemberName());
+        //the data of a legacy message was just created, it can't be changed by another click
+        while (!stateUpdated && !isLegacyMessage) {
+            //another click changed the state since it was loaded, the click is applied again on the new state
+            BotMetrics.incrementStateUpdateConflictCounter(getCommandId());
+            if (stateUpdateAttempt >= MAX_STATE_UPDATE_ATTEMPTS) {
+                log.warn("State of channelId: {}, messageId: {} and commandName: {} was not updated after {} attempts", channelId, messageId, getCommandId(), stateUpdateAttempt);
+                return event.reply("The button message was changed by another click at the same time, please try again");
+            }
+            stateUpdateAttempt++;
+            final Optional<ConfigAndState<C, S>> reloadedMessageData = getMessageDataAndUpdateWithButtonValue(channelId,
+                    messageId,
+                    buttonValue,
+                    event.getInvokingGuildMemberName());
+            if (reloadedMessageData.isEmpty()) {
+                return replyMissingMessageData(event, channelId, messageId);
+            }
+            loadedState = reloadedMessageData.get().getState();
+            messageDataVersion = reloadedMessageData.get().getMessageDataVersion();
+            stateUpdated = persistState(channelId, messageId, messageDataVersion, config, loadedState, buttonValue, event.getInvokingGuildMemberName());
+        }
+        final State<S> state = loadedState;
+        return Mono.defer(() -> createAnswer(event, config, state, configUUID, isLegacyMessage, stopwatch))
+                .subscribeOn(Schedulers.parallel());
+    }
+
+    private Mono<Void> createAnswer(@NonNull ButtonEventAdaptor event,
+                                    @NonNull C config,
+                                    @NonNull State<S> state,
+                                    @NonNull UUID configUUID,
+                                    boolean isLegacyMessage,
+                                    @NonNull Stopwatch stopwatch) {
+        final long messageId = event.getMessageId();
+        final long channelId = event.getChannelId();
+        final Long answerTargetChannelId = config.getAnswerTargetChannelId();
         //all the answer actions
         List<Mono<Void>> actions = new ArrayList<>();
         actions.add(event.acknowledge());
@@ -183,29 +313,24 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
         Optional<MessageDefinition> newButtonMessage = createNewButtonMessageWithState(config, state);
 
         if (newButtonMessage.isPresent() && answerTargetChannelId == null) {
-            Mono<Long> newMessageIdMono = event.createButtonMessage(newButtonMessage.get())
-                    .map(newMessageId -> {
-                        final Optional<MessageDataDTO> nextMessageData = createMessageDataForNewMessage(configUUID, event.getGuildId(), channelId, newMessageId, config, state);
-                        nextMessageData.ifPresent(messageDataDAO::saveMessageData);
-                        return newMessageId;
-                    });
+            Mono<Long> newMessageIdMono = event.createButtonMessage(newButtonMessage.get());
+            Function<Long, Optional<MessageDataDTO>> newMessageData = newMessageId -> createMessageDataForNewMessage(configUUID, event.getGuildId(), channelId, newMessageId, config, state);
             if (!keepExistingButtonMessage) {
                 if (isLegacyMessage) {
                     createNewButtonMessageAndOptionalDeleteOld = event.deleteMessage(messageId, false)
                             .then(newMessageIdMono)
-                            .then();
+                            .flatMap(newMessageId -> newMessageData.apply(newMessageId)
+                                    .map(reactiveMessageDataDAO::saveMessageData)
+                                    .orElse(Mono.empty()));
                 } else {
                     //delete all other button messages with the same config, retain only the new message
-                    createNewButtonMessageAndOptionalDeleteOld = deleteMessageAndData(newMessageIdMono, null, configUUID, channelId, event);
+                    createNewButtonMessageAndOptionalDeleteOld = deleteMessageAndData(newMessageIdMono, newMessageData, null, configUUID, channelId, event);
                 }
             } else {
                 //delete all other button messages with the same config, retain only the new and the current message
-                createNewButtonMessageAndOptionalDeleteOld = deleteMessageAndData(newMessageIdMono, messageId, configUUID, channelId, event);
+                createNewButtonMessageAndOptionalDeleteOld = deleteMessageAndData(newMessageIdMono, newMessageData, messageId, configUUID, channelId, event);
             }
         }
-        //don't update the state data async or there will be racing conditions
-        //todo update only the message if the message is not going to be deleted
-        updateCurrentMessageStateData(channelId, messageId, config, state);
         return Flux.merge(1, actions.toArray(new Mono<?>[0]))
                 .parallel()
                 .then()
@@ -213,23 +338,31 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
     }
 
     private Mono<Void> deleteMessageAndData(@NonNull Mono<Long> newMessageIdMono,
+                                            @NonNull Function<Long, Optional<MessageDataDTO>> newMessageData,
                                             @Nullable Long retainMessageId,
                                             @NonNull UUID configUUID,
                                             long channelId,
                                             @NonNull ButtonEventAdaptor event) {
         return newMessageIdMono
                 .flux()
-                .flatMap(newMessageId -> {
-                    Set<Long> ids = messageDataDAO.getAllMessageIdsForConfig(configUUID);
-                    if (ids.size() > 5) { //expected one old, one new messageData and one sometimes one parallel or from the legacy migration
-                        log.warn(String.format("ConfigUUID %s had %d to many messageData persisted", configUUID, ids.size() - 2));
-                    }
-                    return Flux.fromIterable(ids)
-                            .filter(id -> filterWithOptionalSecondId(id, newMessageId, retainMessageId));
-                })
-                .flatMap(oldMessageId -> event.deleteMessage(oldMessageId, false)
-                        .filter(Objects::nonNull)
-                        .doOnNext(l -> messageDataDAO.deleteDataForMessage(channelId, l)))
+                //the new message data and the message ids of the config share one connection
+                .flatMap(newMessageId -> reactiveMessageDataDAO.inUnitOfWork(() -> {
+                            newMessageData.apply(newMessageId).ifPresent(messageDataDAO::saveMessageData);
+                            return messageDataDAO.getAllMessageIdsForConfig(configUUID);
+                        })
+                        .flatMapMany(ids -> {
+                            if (ids.size() > 5) { //expected one old, one new messageData and one sometimes one parallel or from the legacy migration
+                                log.warn(String.format("ConfigUUID %s had %d to many messageData persisted", configUUID, ids.size() - 2));
+                            }
+                            return Flux.fromIterable(ids)
+                                    .filter(id -> filterWithOptionalSecondId(id, newMessageId, retainMessageId));
+                        }))
+                .flatMap(oldMessageId -> event.deleteMessage(oldMessageId, false))
+                .filter(Objects::nonNull)
+                //only the data of deleted messages is removed, pinned messages are not deleted and keep their data
+                .collectList()
+                .filter(deletedMessageIds -> !deletedMessageIds.isEmpty())
+                .flatMap(deletedMessageIds -> reactiveMessageDataDAO.deleteDataForMessages(channelId, deletedMessageIds))
                 .then();
     }
 
@@ -240,6 +373,11 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
         return !Objects.equals(input, filterId);
     }
 
+    private Mono<Void> replyMissingMessageData(@NonNull ButtonEventAdaptor event, long channelId, long messageId) {
+        log.warn("Missing messageData for channelId: {}, messageId: {} and commandName: {} ", channelId, messageId, getCommandId());
+        return event.reply(String.format("Configuration for the message is missing, please create a new message with the slash command `/%s start`", getCommandId()));
+    }
+
     @Override
     public Mono<Void> handleSlashCommandEvent(@NonNull SlashEventAdaptor event) {
         Optional<String> checkPermissions = event.checkPermissions();
@@ -270,12 +408,9 @@ public abstract class AbstractCommand<C extends Config, S extends StateData> imp
 
             return event.reply(commandString)
                     .then(event.createButtonMessage(createNewButtonMessage(config))
-                            .map(newMessageId -> {
-                                final Optional<MessageDataDTO> newMessageData = createMessageDataForNewMessage(UUID.randomUUID(), event.getGuildId(), channelId, newMessageId, config, null);
-                                newMessageData.ifPresent(messageDataDAO::saveMessageData);
-                                return newMessageId;
-                            })
-                            .then()
+                            .flatMap(newMessageId -> createMessageDataForNewMessage(UUID.randomUUID(), event.getGuildId(), channelId, newMessageId, config, null)
+                                    .map(reactiveMessageDataDAO::saveMessageData)
+                                    .orElse(Mono.empty()))
                     )
                     .then(event.getRequester()
                             .doOnNext(requester -> log.info("'{}'.'{}': '{}'",
@@ -4,6 +4,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import de.janno.discord.bot.BotMetrics;
 import de.janno.discord.bot.dice.DiceEvaluatorHelper;
+import de.janno.discord.bot.dice.DiceUtils;
 import de.janno.discord.connector.api.SlashCommand;
 import de.janno.discord.connector.api.SlashEventAdaptor;
 import de.janno.discord.connector.api.message.EmbedDefinition;
@@ -11,7 +12,6 @@ import de.janno.discord.connector.api.slash.CommandDefinition;
 import de.janno.discord.connector.api.slash.CommandDefinitionOption;
 import de.janno.discord.connector.api.slash.CommandInteractionOption;
 import de.janno.evaluator.dice.NumberSupplier;
-import de.janno.evaluator.dice.RandomNumberSupplier;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
@@ -28,7 +28,7 @@ public class BetaRollCommand implements SlashCommand {
     private final DiceEvaluatorHelper diceEvaluatorHelper;
 
     public BetaRollCommand() {
-        this(new RandomNumberSupplier());
+        this(DiceUtils.createNumberSupplier());
     }
 
     @VisibleForTesting
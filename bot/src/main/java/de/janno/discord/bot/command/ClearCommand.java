@@ -2,6 +2,8 @@ package de.janno.discord.bot.command;
 
 import de.janno.discord.bot.BotMetrics;
 import de.janno.discord.bot.persistance.MessageDataDAO;
+import de.janno.discord.bot.persistance.ReactiveMessageDataDAO;
+import de.janno.discord.bot.persistance.ReactiveMessageDataDAOImpl;
 import de.janno.discord.connector.api.SlashCommand;
 import de.janno.discord.connector.api.SlashEventAdaptor;
 import de.janno.discord.connector.api.slash.CommandDefinition;
@@ -13,10 +15,10 @@ import reactor.core.publisher.Mono;
 @Slf4j
 public class ClearCommand implements SlashCommand {
 
-    private final MessageDataDAO messageDataDAO;
+    private final ReactiveMessageDataDAO messageDataDAO;
 
     public ClearCommand(MessageDataDAO messageDataDAO) {
-        this.messageDataDAO = messageDataDAO;
+        this.messageDataDAO = new ReactiveMessageDataDAOImpl(messageDataDAO);
     }
 
     @Override
@@ -36,9 +38,8 @@ public class ClearCommand implements SlashCommand {
     public Mono<Void> handleSlashCommandEvent(@NonNull SlashEventAdaptor event) {
         BotMetrics.incrementSlashStartMetricCounter(getCommandId(), "[]");
         return event.reply("Deleting messages and data ...")
-                .then(Mono.just(messageDataDAO.deleteDataForChannel(event.getChannelId()))
-                        .flux()
-                        .flatMap(Flux::fromIterable)
+                .then(messageDataDAO.deleteDataForChannel(event.getChannelId())
+                        .flatMapMany(Flux::fromIterable)
                         .flatMap(id -> event.deleteMessage(id, true))
                         .then());
     }
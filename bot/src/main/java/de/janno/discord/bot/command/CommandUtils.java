@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.StringJoiner;
 import java.util.stream.Collectors;
 
 public final class CommandUtils {
@@ -34,6 +35,18 @@ public final class CommandUtils {
         return "***" + i + "***";
     }
 
+    public static String markIn(int @NonNull [] diceResults, @NonNull Set<Integer> toMark) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        for (int diceResult : diceResults) {
+            if (toMark.contains(diceResult)) {
+                joiner.add(makeBold(diceResult));
+            } else {
+                joiner.add(String.valueOf(diceResult));
+            }
+        }
+        return joiner.toString();
+    }
+
     public static String markIn(@NonNull List<Integer> diceResults, @NonNull Set<Integer> toMark) {
         return String.format("[%s]", diceResults.stream().map(i -> {
             if (toMark.contains(i)) {
@@ -11,6 +11,8 @@ public class ConfigAndState<C extends Config, S extends StateData> {
     @NonNull
     UUID configUUID;
 
+    long messageDataVersion;
+
     @NonNull
     C config;
 
@@ -83,10 +83,9 @@ public class DirectRollCommand implements SlashCommand {
             }
 
             String diceExpression = DiceParserHelper.getExpressionFromExpressionWithOptionalLabel(commandParameter, LABEL_DELIMITER);
-            String label = DiceParserHelper.getLabelFromExpressionWithOptionalLabel(commandParameter, LABEL_DELIMITER).orElse(null);
             BotMetrics.incrementSlashStartMetricCounter(getCommandId(), diceExpression);
 
-            EmbedDefinition answer = diceParserHelper.roll(diceExpression, label);
+            EmbedDefinition answer = diceParserHelper.rollWithOptionalLabel(commandParameter, LABEL_DELIMITER);
 
             return Flux.merge(event.acknowledgeAndRemoveSlash(),
                             event.createResultMessageWithEventReference(answer))
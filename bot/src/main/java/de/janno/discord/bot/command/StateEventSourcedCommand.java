@@ -0,0 +1,15 @@
+package de.janno.discord.bot.command;
+
+import lombok.NonNull;
+
+/**
+ * A command that can rebuild its state from the clicked buttons. If the command has a state event DAO, a click only
+ * appends the button value to the events of the message and the state is written every snapshot interval events.
+ */
+public interface StateEventSourcedCommand<C extends Config, S extends StateData> {
+
+    /**
+     * Writes the state after the click as the state of the message data with the version
+     */
+    void snapshotState(long channelId, long messageId, long version, @NonNull C config, @NonNull State<S> state);
+}
@@ -70,7 +70,7 @@ public class WelcomeCommand extends AbstractCommand<Config, StateData> {
                                                                                                  long messageId,
                                                                                                  @NonNull String buttonValue,
                                                                                                  @NonNull String invokingUserName) {
-        return Optional.of(new ConfigAndState<>(UUID.randomUUID(), new Config(null), new State<>(buttonValue, StateData.empty())));
+        return Optional.of(new ConfigAndState<>(UUID.randomUUID(), 0, new Config(null), new State<>(buttonValue, StateData.empty())));
     }
 
     @Override
@@ -7,6 +7,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import de.janno.discord.bot.command.*;
 import de.janno.discord.bot.dice.DiceUtils;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
@@ -23,6 +24,7 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -83,8 +85,8 @@ public class CountSuccessesCommand extends AbstractCommand<CountSuccessesConfig,
     @VisibleForTesting
     ConfigAndState<CountSuccessesConfig, StateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO, @NonNull String buttonValue) {
         Preconditions.checkArgument(CONFIG_TYPE_ID.equals(messageDataDTO.getConfigClassId()), "Unknown configClassId: %s", messageDataDTO.getConfigClassId());
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(),
-                Mapper.deserializeObject(messageDataDTO.getConfig(), CountSuccessesConfig.class),
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), messageDataDTO.getVersion(),
+                ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), CountSuccessesConfig.class),
                 new State<>(buttonValue, StateData.empty()));
     }
 
@@ -204,8 +206,8 @@ public class CountSuccessesCommand extends AbstractCommand<CountSuccessesConfig,
     protected @NonNull Optional<EmbedDefinition> getAnswer(CountSuccessesConfig config, State<StateData> state) {
         final int numberOfDice = Integer.parseInt(state.getButtonValue());
 
-        final List<Integer> rollResult = diceUtils.explodingReroll(config.getDiceSides(), diceUtils.rollDiceOfType(numberOfDice, config.getDiceSides()), config.getRerollSet()).stream()
-                .sorted().collect(Collectors.toList());
+        final int[] rollResult = diceUtils.explodingReroll(config.getDiceSides(), diceUtils.rollDiceArray(numberOfDice, config.getDiceSides()), config.getRerollSet());
+        Arrays.sort(rollResult);
         final int numberOfSuccesses = DiceUtils.numberOfDiceResultsGreaterEqual(rollResult, config.getTarget());
         final Set<Integer> botchSet = GLITCH_SUBTRACT_ONES.equals(config.getGlitchOption()) ? Set.of(1) : config.getBotchSet();
         final int numberOfBotches = DiceUtils.numberOfDiceResultsEqual(rollResult, botchSet);
@@ -223,7 +225,7 @@ public class CountSuccessesCommand extends AbstractCommand<CountSuccessesConfig,
             toMark.add(1);
             glitchDetails = "";
         } else if (GLITCH_OPTION_HALF_ONES.equals(config.getGlitchOption())) {
-            boolean isGlitch = DiceUtils.numberOfDiceResultsEqual(rollResult, ImmutableSet.of(1)) > (rollResult.size() / 2);
+            boolean isGlitch = DiceUtils.numberOfDiceResultsEqual(rollResult, ImmutableSet.of(1)) > (rollResult.length / 2);
             glitchDetails = isGlitch ? " and more then half of all dice show 1s" : "";
             if (isGlitch) {
                 toMark.add(1);
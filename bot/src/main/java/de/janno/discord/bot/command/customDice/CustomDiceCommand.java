@@ -5,6 +5,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import de.janno.discord.bot.command.*;
 import de.janno.discord.bot.dice.DiceParserHelper;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
@@ -60,8 +61,8 @@ public class CustomDiceCommand extends AbstractCommand<CustomDiceConfig, StateDa
     @VisibleForTesting
     ConfigAndState<CustomDiceConfig, StateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO, @NonNull String buttonValue) {
         Preconditions.checkArgument(CONFIG_TYPE_ID.equals(messageDataDTO.getConfigClassId()), "Unknown configClassId: %s", messageDataDTO.getConfigClassId());
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(),
-                Mapper.deserializeObject(messageDataDTO.getConfig(), CustomDiceConfig.class),
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), messageDataDTO.getVersion(),
+                ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), CustomDiceConfig.class),
                 new State<>(buttonValue, StateData.empty()));
     }
 
@@ -9,10 +9,14 @@ import com.google.common.collect.Lists;
 import de.janno.discord.bot.command.AbstractCommand;
 import de.janno.discord.bot.command.ConfigAndState;
 import de.janno.discord.bot.command.State;
+import de.janno.discord.bot.command.StateEventSourcedCommand;
 import de.janno.discord.bot.dice.DiceParserHelper;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
+import de.janno.discord.bot.persistance.StateEventDAO;
+import de.janno.discord.bot.persistance.StateEventDTO;
 import de.janno.discord.connector.api.BottomCustomIdUtils;
 import de.janno.discord.connector.api.ButtonEventAdaptor;
 import de.janno.discord.connector.api.message.ButtonDefinition;
@@ -35,7 +39,7 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 @Slf4j
-public class CustomParameterCommand extends AbstractCommand<CustomParameterConfig, CustomParameterStateData> {
+public class CustomParameterCommand extends AbstractCommand<CustomParameterConfig, CustomParameterStateData> implements StateEventSourcedCommand<CustomParameterConfig, CustomParameterStateData> {
 
     //todo button label, pagination for buttons
 
@@ -59,9 +63,18 @@ public class CustomParameterCommand extends AbstractCommand<CustomParameterConfi
         this(messageDataDAO, new DiceParserHelper());
     }
 
+    public CustomParameterCommand(MessageDataDAO messageDataDAO, @Nullable StateEventDAO stateEventDAO, int stateEventSnapshotInterval) {
+        this(messageDataDAO, new DiceParserHelper(), stateEventDAO, stateEventSnapshotInterval);
+    }
+
     @VisibleForTesting
     public CustomParameterCommand(MessageDataDAO messageDataDAO, DiceParserHelper diceParserHelper) {
-        super(messageDataDAO);
+        this(messageDataDAO, diceParserHelper, null, 0);
+    }
+
+    @VisibleForTesting
+    public CustomParameterCommand(MessageDataDAO messageDataDAO, DiceParserHelper diceParserHelper, @Nullable StateEventDAO stateEventDAO, int stateEventSnapshotInterval) {
+        super(messageDataDAO, stateEventDAO, stateEventSnapshotInterval);
         this.diceParserHelper = diceParserHelper;
     }
 
@@ -200,9 +213,7 @@ public class CustomParameterCommand extends AbstractCommand<CustomParameterConfi
     @Override
     protected @NonNull Optional<EmbedDefinition> getAnswer(CustomParameterConfig config, State<CustomParameterStateData> state) {
         if (!hasMissingParameter(getFilledExpression(config, state))) {
-            String expression = DiceParserHelper.getExpressionFromExpressionWithOptionalLabel(getFilledExpression(config, state), LABEL_DELIMITER);
-            String label = DiceParserHelper.getLabelFromExpressionWithOptionalLabel(getFilledExpression(config, state), LABEL_DELIMITER).orElse(null);
-            return Optional.of(diceParserHelper.roll(expression, label));
+            return Optional.of(diceParserHelper.rollWithOptionalLabel(getFilledExpression(config, state), LABEL_DELIMITER));
         }
         return Optional.empty();
     }
@@ -250,30 +261,52 @@ public class CustomParameterCommand extends AbstractCommand<CustomParameterConfi
         if (messageDataDTO.isEmpty()) {
             return Optional.empty();
         }
-        return Optional.of(deserializeAndUpdateState(messageDataDTO.get(), buttonValue, invokingUserName));
+        return Optional.of(deserializeAndUpdateState(messageDataDTO.get(), getStateEventsAfterSnapshot(messageDataDTO.get()), buttonValue, invokingUserName));
+    }
+
+    @VisibleForTesting
+    ConfigAndState<CustomParameterConfig, CustomParameterStateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO,
+                                                                                              @NonNull String buttonValue,
+                                                                                              @NonNull String invokingUser) {
+        return deserializeAndUpdateState(messageDataDTO, ImmutableList.of(), buttonValue, invokingUser);
     }
 
+    /**
+     * @param stateEvents the clicks after the state of the message data, they are applied before the current click
+     */
     @VisibleForTesting
     ConfigAndState<CustomParameterConfig, CustomParameterStateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO,
+                                                                                              @NonNull List<StateEventDTO> stateEvents,
                                                                                               @NonNull String buttonValue,
                                                                                               @NonNull String invokingUser) {
         Preconditions.checkArgument(CONFIG_TYPE_ID.equals(messageDataDTO.getConfigClassId()), "Unknown configClassId: %s", messageDataDTO.getConfigClassId());
         Preconditions.checkArgument(STATE_DATA_TYPE_ID.equals(messageDataDTO.getStateDataClassId())
                 || Mapper.NO_PERSISTED_STATE.equals(messageDataDTO.getStateDataClassId()), "Unknown stateDataClassId: %s", messageDataDTO.getStateDataClassId());
 
-        final CustomParameterStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
+        CustomParameterStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
                 .map(sd -> Mapper.deserializeObject(sd, CustomParameterStateData.class))
                 .orElse(null);
-        final CustomParameterConfig loadedConfig = Mapper.deserializeObject(messageDataDTO.getConfig(), CustomParameterConfig.class);
-        final CustomParameterStateData updatedStateData = updateState(
+        final CustomParameterConfig loadedConfig = ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), CustomParameterConfig.class);
+        long version = messageDataDTO.getVersion();
+        for (StateEventDTO stateEvent : stateEvents) {
+            final State<CustomParameterStateData> eventState = new State<>(stateEvent.getButtonValue(),
+                    updateState(loadedStateData, stateEvent.getButtonValue(), Optional.ofNullable(stateEvent.getUserName()).orElse("")));
+            loadedStateData = getPersistedStateData(loadedConfig, eventState);
+            version = stateEvent.getSequence();
+        }
+        final CustomParameterStateData updatedStateData = updateState(loadedStateData, buttonValue, invokingUser);
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), version,
+                loadedConfig,
+                new State<>(buttonValue, updatedStateData));
+    }
+
+    private static CustomParameterStateData updateState(@Nullable CustomParameterStateData loadedStateData, @NonNull String buttonValue, @NonNull String invokingUser) {
+        return updateState(
                 Optional.ofNullable(loadedStateData).map(CustomParameterStateData::getSelectedParameterValues).orElse(ImmutableList.of()),
                 buttonValue,
                 Optional.ofNullable(loadedStateData).map(CustomParameterStateData::getLockedForUserName).orElse(null),
                 invokingUser
         );
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(),
-                loadedConfig,
-                new State<>(buttonValue, updatedStateData));
     }
 
     @Override
@@ -287,12 +320,31 @@ public class CustomParameterCommand extends AbstractCommand<CustomParameterConfi
     }
 
     @Override
-    protected void updateCurrentMessageStateData(long channelId, long messageId, @NonNull CustomParameterConfig config, @NonNull State<CustomParameterStateData> state) {
-        if (state.getData() == null || !hasMissingParameter(getFilledExpression(config, state))) {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, Mapper.NO_PERSISTED_STATE, null);
+    protected boolean updateCurrentMessageStateData(long channelId, long messageId, long messageDataVersion, @NonNull CustomParameterConfig config, @NonNull State<CustomParameterStateData> state) {
+        final CustomParameterStateData persistedStateData = getPersistedStateData(config, state);
+        if (persistedStateData == null) {
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, Mapper.NO_PERSISTED_STATE, null);
+        } else {
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, STATE_DATA_TYPE_ID, Mapper.serializedObject(persistedStateData));
+        }
+    }
+
+    @Override
+    public void snapshotState(long channelId, long messageId, long version, @NonNull CustomParameterConfig config, @NonNull State<CustomParameterStateData> state) {
+        final CustomParameterStateData persistedStateData = getPersistedStateData(config, state);
+        if (persistedStateData == null) {
+            stateEventDAO.snapshotState(channelId, messageId, version, Mapper.NO_PERSISTED_STATE, null);
         } else {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
+            stateEventDAO.snapshotState(channelId, messageId, version, STATE_DATA_TYPE_ID, Mapper.serializedObject(persistedStateData));
+        }
+    }
+
+    //the state data is reset after all parameters are selected
+    private @Nullable CustomParameterStateData getPersistedStateData(@NonNull CustomParameterConfig config, @NonNull State<CustomParameterStateData> state) {
+        if (state.getData() == null || !hasMissingParameter(getFilledExpression(config, state))) {
+            return null;
         }
+        return state.getData();
     }
 
     @Override
@@ -8,6 +8,7 @@ import de.janno.discord.bot.command.ConfigAndState;
 import de.janno.discord.bot.command.State;
 import de.janno.discord.bot.command.StateData;
 import de.janno.discord.bot.dice.DiceUtils;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
@@ -65,8 +66,8 @@ public class FateCommand extends AbstractCommand<FateConfig, StateData> {
     ConfigAndState<FateConfig, StateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO, @NonNull String buttonValue) {
         Preconditions.checkArgument(CONFIG_TYPE_ID.equals(messageDataDTO.getConfigClassId()), "Unknown configClassId: %s", messageDataDTO.getConfigClassId());
 
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(),
-                Mapper.deserializeObject(messageDataDTO.getConfig(), FateConfig.class),
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), messageDataDTO.getVersion(),
+                ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), FateConfig.class),
                 new State<>(buttonValue, StateData.empty()));
     }
 
@@ -135,7 +136,7 @@ public class FateCommand extends AbstractCommand<FateConfig, StateData> {
 
     @Override
     protected @NonNull Optional<EmbedDefinition> getAnswer(FateConfig config, State<StateData> state) {
-        List<Integer> rollResult = diceUtils.rollFate();
+        int[] rollResult = diceUtils.rollFateArray();
 
         if (ACTION_MODIFIER_OPTION_MODIFIER.equals(config.getType())) {
             int modifier = Integer.parseInt(state.getButtonValue());
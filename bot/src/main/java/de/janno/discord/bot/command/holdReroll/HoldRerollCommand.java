@@ -4,11 +4,13 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import de.janno.discord.bot.command.AbstractCommand;
 import de.janno.discord.bot.command.CommandUtils;
 import de.janno.discord.bot.command.ConfigAndState;
 import de.janno.discord.bot.command.State;
 import de.janno.discord.bot.dice.DiceUtils;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
@@ -167,20 +169,26 @@ public class HoldRerollCommand extends AbstractCommand<HoldRerollConfig, HoldRer
                                                            @NonNull List<Integer> currentResult,
                                                            int rerollCount) {
         if (REROLL_BUTTON_ID.equals(buttonValue)) {
-            currentResult = currentResult.stream()
-                    .map(i -> {
-                        if (config.getRerollSet().contains(i)) {
-                            return diceUtils.rollDice(config.getSidesOfDie());
-                        }
-                        return i;
-                    }).collect(Collectors.toList());
+            final int[] results = Ints.toArray(currentResult);
+            final int numberOfDiceToReroll = (int) Arrays.stream(results)
+                    .filter(r -> config.getRerollSet().contains(r))
+                    .count();
+            //all dice are rerolled in one call and the rerolls are placed in the order of the rerolled dice
+            final int[] rerolls = diceUtils.rollDiceArray(numberOfDiceToReroll, config.getSidesOfDie());
+            int rerollIndex = 0;
+            for (int i = 0; i < results.length; i++) {
+                if (config.getRerollSet().contains(results[i])) {
+                    results[i] = rerolls[rerollIndex++];
+                }
+            }
+            currentResult = Ints.asList(results);
             rerollCount++;
         } else if (CLEAR_BUTTON_ID.equals(buttonValue)) {
             currentResult = ImmutableList.of();
             rerollCount = 0;
         } else if (NumberUtils.isParsable(buttonValue)) {
             int numberOfDice = Integer.parseInt(buttonValue);
-            currentResult = diceUtils.rollDiceOfType(numberOfDice, config.getSidesOfDie());
+            currentResult = Ints.asList(diceUtils.rollDiceArray(numberOfDice, config.getSidesOfDie()));
             rerollCount = 0;
         }
         return new HoldRerollStateData(currentResult, rerollCount);
@@ -265,11 +273,11 @@ public class HoldRerollCommand extends AbstractCommand<HoldRerollConfig, HoldRer
     }
 
     @Override
-    protected void updateCurrentMessageStateData(long channelId, long messageId, @NonNull HoldRerollConfig config, @NonNull State<HoldRerollStateData> state) {
+    protected boolean updateCurrentMessageStateData(long channelId, long messageId, long messageDataVersion, @NonNull HoldRerollConfig config, @NonNull State<HoldRerollStateData> state) {
         if (state.getData() == null || (FINISH_BUTTON_ID.equals(state.getButtonValue()) || rollFinished(state, config))) {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, Mapper.NO_PERSISTED_STATE, null);
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, Mapper.NO_PERSISTED_STATE, null);
         } else {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
         }
     }
 
@@ -282,13 +290,13 @@ public class HoldRerollCommand extends AbstractCommand<HoldRerollConfig, HoldRer
         final HoldRerollStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
                 .map(sd -> Mapper.deserializeObject(sd, HoldRerollStateData.class))
                 .orElse(null);
-        final HoldRerollConfig loadedConfig = Mapper.deserializeObject(messageDataDTO.getConfig(), HoldRerollConfig.class);
+        final HoldRerollConfig loadedConfig = ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), HoldRerollConfig.class);
         final HoldRerollStateData updatedState = updateStateWithButtonValue(buttonValue,
                 loadedConfig,
                 Optional.ofNullable(loadedStateData).map(HoldRerollStateData::getCurrentResults).orElse(ImmutableList.of()),
                 Optional.ofNullable(loadedStateData).map(HoldRerollStateData::getRerollCounter).orElse(0)
         );
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(),
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), messageDataDTO.getVersion(),
                 loadedConfig,
                 new State<>(buttonValue, updatedState));
     }
@@ -9,6 +9,7 @@ import de.janno.discord.bot.command.CommandUtils;
 import de.janno.discord.bot.command.ConfigAndState;
 import de.janno.discord.bot.command.State;
 import de.janno.discord.bot.dice.DiceUtils;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
@@ -113,12 +114,12 @@ public class PoolTargetCommand extends AbstractCommand<PoolTargetConfig, PoolTar
         final PoolTargetStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
                 .map(sd -> Mapper.deserializeObject(sd, PoolTargetStateData.class))
                 .orElse(null);
-        final PoolTargetConfig loadedConfig = Mapper.deserializeObject(messageDataDTO.getConfig(), PoolTargetConfig.class);
+        final PoolTargetConfig loadedConfig = ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), PoolTargetConfig.class);
         final PoolTargetStateData updatedData = updatePoolTargetStateData(loadedConfig,
                 buttonValue,
                 Optional.ofNullable(loadedStateData).map(PoolTargetStateData::getDicePool).orElse(null),
                 Optional.ofNullable(loadedStateData).map(PoolTargetStateData::getTargetNumber).orElse(null));
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), loadedConfig, new State<>(buttonValue, updatedData));
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), messageDataDTO.getVersion(), loadedConfig, new State<>(buttonValue, updatedData));
     }
 
 
@@ -133,15 +134,15 @@ public class PoolTargetCommand extends AbstractCommand<PoolTargetConfig, PoolTar
     }
 
     @Override
-    protected void updateCurrentMessageStateData(long channelId, long messageId, @NonNull PoolTargetConfig config, @NonNull State<PoolTargetStateData> state) {
+    protected boolean updateCurrentMessageStateData(long channelId, long messageId, long messageDataVersion, @NonNull PoolTargetConfig config, @NonNull State<PoolTargetStateData> state) {
         Optional<PoolTargetStateData> stateData = Optional.ofNullable(state.getData());
         if (stateData.isEmpty() || (stateData.map(PoolTargetStateData::getDicePool).isPresent() &&
                 stateData.map(PoolTargetStateData::getTargetNumber).isPresent() &&
                 stateData.map(PoolTargetStateData::getDoReroll).isPresent())
         ) {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, Mapper.NO_PERSISTED_STATE, null);
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, Mapper.NO_PERSISTED_STATE, null);
         } else {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
         }
 
     }
@@ -196,11 +197,11 @@ public class PoolTargetCommand extends AbstractCommand<PoolTargetConfig, PoolTar
                 stateData.map(PoolTargetStateData::getDoReroll).isEmpty()) {
             return Optional.empty();
         }
-        List<Integer> rollResult = diceUtils.rollDiceOfType(state.getData().getDicePool(), config.getDiceSides());
+        int[] rollResult = diceUtils.rollDiceArray(state.getData().getDicePool(), config.getDiceSides());
         if (state.getData().getDoReroll()) {
             rollResult = diceUtils.explodingReroll(config.getDiceSides(), rollResult, config.getRerollSet());
         }
-        rollResult = rollResult.stream().sorted().collect(Collectors.toList());
+        Arrays.sort(rollResult);
         int numberOfSuccesses = DiceUtils.numberOfDiceResultsGreaterEqual(rollResult, state.getData().getTargetNumber());
         int numberOfBotches = DiceUtils.numberOfDiceResultsEqual(rollResult, config.getBotchSet());
 
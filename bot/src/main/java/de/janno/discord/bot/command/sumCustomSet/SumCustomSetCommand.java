@@ -10,10 +10,14 @@ import de.janno.discord.bot.command.AbstractCommand;
 import de.janno.discord.bot.command.ButtonIdLabelAndDiceExpression;
 import de.janno.discord.bot.command.ConfigAndState;
 import de.janno.discord.bot.command.State;
+import de.janno.discord.bot.command.StateEventSourcedCommand;
 import de.janno.discord.bot.dice.DiceParserHelper;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
+import de.janno.discord.bot.persistance.StateEventDAO;
+import de.janno.discord.bot.persistance.StateEventDTO;
 import de.janno.discord.connector.api.BottomCustomIdUtils;
 import de.janno.discord.connector.api.ButtonEventAdaptor;
 import de.janno.discord.connector.api.message.ButtonDefinition;
@@ -33,7 +37,7 @@ import java.util.stream.IntStream;
 
 
 @Slf4j
-public class SumCustomSetCommand extends AbstractCommand<SumCustomSetConfig, SumCustomSetStateData> {
+public class SumCustomSetCommand extends AbstractCommand<SumCustomSetConfig, SumCustomSetStateData> implements StateEventSourcedCommand<SumCustomSetConfig, SumCustomSetStateData> {
     private static final String COMMAND_NAME = "sum_custom_set";
     private static final String ROLL_BUTTON_ID = "roll";
     private static final String NO_ACTION = "no action";
@@ -52,9 +56,18 @@ public class SumCustomSetCommand extends AbstractCommand<SumCustomSetConfig, Sum
         this(messageDataDAO, new DiceParserHelper());
     }
 
+    public SumCustomSetCommand(MessageDataDAO messageDataDAO, @Nullable StateEventDAO stateEventDAO, int stateEventSnapshotInterval) {
+        this(messageDataDAO, new DiceParserHelper(), stateEventDAO, stateEventSnapshotInterval);
+    }
+
     @VisibleForTesting
     public SumCustomSetCommand(MessageDataDAO messageDataDAO, DiceParserHelper diceParserHelper) {
-        super(messageDataDAO);
+        this(messageDataDAO, diceParserHelper, null, 0);
+    }
+
+    @VisibleForTesting
+    public SumCustomSetCommand(MessageDataDAO messageDataDAO, DiceParserHelper diceParserHelper, @Nullable StateEventDAO stateEventDAO, int stateEventSnapshotInterval) {
+        super(messageDataDAO, stateEventDAO, stateEventSnapshotInterval);
         this.diceParserHelper = diceParserHelper;
     }
 
@@ -67,36 +80,79 @@ public class SumCustomSetCommand extends AbstractCommand<SumCustomSetConfig, Sum
         if (messageDataDTO.isEmpty()) {
             return Optional.empty();
         }
-        return Optional.of(deserializeAndUpdateState(messageDataDTO.get(), buttonValue, invokingUserName));
+        return Optional.of(deserializeAndUpdateState(messageDataDTO.get(), getStateEventsAfterSnapshot(messageDataDTO.get()), buttonValue, invokingUserName));
     }
 
     @Override
-    protected void updateCurrentMessageStateData(long channelId, long messageId, @NonNull SumCustomSetConfig config, @NonNull State<SumCustomSetStateData> state) {
-        if (state.getData() == null || ROLL_BUTTON_ID.equals(state.getButtonValue())) {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, Mapper.NO_PERSISTED_STATE, null);
+    protected boolean updateCurrentMessageStateData(long channelId, long messageId, long messageDataVersion, @NonNull SumCustomSetConfig config, @NonNull State<SumCustomSetStateData> state) {
+        final SumCustomSetStateData persistedStateData = getPersistedStateData(state);
+        if (persistedStateData == null) {
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, Mapper.NO_PERSISTED_STATE, null);
         } else {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, STATE_DATA_TYPE_ID, Mapper.serializedObject(persistedStateData));
+        }
+    }
+
+    @Override
+    public void snapshotState(long channelId, long messageId, long version, @NonNull SumCustomSetConfig config, @NonNull State<SumCustomSetStateData> state) {
+        final SumCustomSetStateData persistedStateData = getPersistedStateData(state);
+        if (persistedStateData == null) {
+            stateEventDAO.snapshotState(channelId, messageId, version, Mapper.NO_PERSISTED_STATE, null);
+        } else {
+            stateEventDAO.snapshotState(channelId, messageId, version, STATE_DATA_TYPE_ID, Mapper.serializedObject(persistedStateData));
+        }
+    }
+
+    //the state data is reset after the roll
+    private @Nullable SumCustomSetStateData getPersistedStateData(@NonNull State<SumCustomSetStateData> state) {
+        if (state.getData() == null || ROLL_BUTTON_ID.equals(state.getButtonValue())) {
+            return null;
         }
+        return state.getData();
+    }
+
+    @VisibleForTesting
+    ConfigAndState<SumCustomSetConfig, SumCustomSetStateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO,
+                                                                                        @NonNull String buttonValue,
+                                                                                        @NonNull String invokingUserName) {
+        return deserializeAndUpdateState(messageDataDTO, ImmutableList.of(), buttonValue, invokingUserName);
     }
 
+    /**
+     * @param stateEvents the clicks after the state of the message data, they are applied before the current click
+     */
     @VisibleForTesting
     ConfigAndState<SumCustomSetConfig, SumCustomSetStateData> deserializeAndUpdateState(@NonNull MessageDataDTO messageDataDTO,
+                                                                                        @NonNull List<StateEventDTO> stateEvents,
                                                                                         @NonNull String buttonValue,
                                                                                         @NonNull String invokingUserName) {
         Preconditions.checkArgument(CONFIG_TYPE_ID.equals(messageDataDTO.getConfigClassId()), "Unknown configClassId: %s", messageDataDTO.getConfigClassId());
         Preconditions.checkArgument(STATE_DATA_TYPE_ID.equals(messageDataDTO.getStateDataClassId())
                 || Mapper.NO_PERSISTED_STATE.equals(messageDataDTO.getStateDataClassId()), "Unknown stateDataClassId: %s", messageDataDTO.getStateDataClassId());
 
-        final SumCustomSetStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
+        SumCustomSetStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
                 .map(sd -> Mapper.deserializeObject(sd, SumCustomSetStateData.class))
                 .orElse(null);
-        final SumCustomSetConfig loadedConfig = Mapper.deserializeObject(messageDataDTO.getConfig(), SumCustomSetConfig.class);
-        final State<SumCustomSetStateData> updatedState = updateStateWithButtonValue(buttonValue,
+        final SumCustomSetConfig loadedConfig = ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), SumCustomSetConfig.class);
+        long version = messageDataDTO.getVersion();
+        for (StateEventDTO stateEvent : stateEvents) {
+            loadedStateData = getPersistedStateData(updateState(stateEvent.getButtonValue(), loadedStateData,
+                    Optional.ofNullable(stateEvent.getUserName()).orElse(""), loadedConfig));
+            version = stateEvent.getSequence();
+        }
+        final State<SumCustomSetStateData> updatedState = updateState(buttonValue, loadedStateData, invokingUserName, loadedConfig);
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), version, loadedConfig, updatedState);
+    }
+
+    private State<SumCustomSetStateData> updateState(@NonNull String buttonValue,
+                                                     @Nullable SumCustomSetStateData loadedStateData,
+                                                     @NonNull String invokingUserName,
+                                                     @NonNull SumCustomSetConfig config) {
+        return updateStateWithButtonValue(buttonValue,
                 Optional.ofNullable(loadedStateData).map(SumCustomSetStateData::getDiceExpressions).orElse(ImmutableList.of()),
                 invokingUserName,
                 Optional.ofNullable(loadedStateData).map(SumCustomSetStateData::getLockedForUserName).orElse(""),
-                loadedConfig.getLabelAndExpression());
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), loadedConfig, updatedState);
+                config.getLabelAndExpression());
     }
 
     @Override
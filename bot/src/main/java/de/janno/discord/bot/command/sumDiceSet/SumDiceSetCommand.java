@@ -8,6 +8,7 @@ import de.janno.discord.bot.command.Config;
 import de.janno.discord.bot.command.ConfigAndState;
 import de.janno.discord.bot.command.State;
 import de.janno.discord.bot.dice.DiceUtils;
+import de.janno.discord.bot.persistance.ConfigCache;
 import de.janno.discord.bot.persistance.Mapper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDTO;
@@ -98,9 +99,9 @@ public class SumDiceSetCommand extends AbstractCommand<Config, SumDiceSetStateDa
         final SumDiceSetStateData loadedStateData = Optional.ofNullable(messageDataDTO.getStateData())
                 .map(sd -> Mapper.deserializeObject(sd, SumDiceSetStateData.class))
                 .orElse(null);
-        final Config loadedConfig = Mapper.deserializeObject(messageDataDTO.getConfig(), Config.class);
+        final Config loadedConfig = ConfigCache.getOrDeserialize(messageDataDTO.getConfigUUID(), messageDataDTO.getConfig(), Config.class);
         final State<SumDiceSetStateData> updatedState = updateState(buttonValue, loadedStateData);
-        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), loadedConfig, updatedState);
+        return new ConfigAndState<>(messageDataDTO.getConfigUUID(), messageDataDTO.getVersion(), loadedConfig, updatedState);
     }
 
     @Override
@@ -115,11 +116,11 @@ public class SumDiceSetCommand extends AbstractCommand<Config, SumDiceSetStateDa
     }
 
     @Override
-    protected void updateCurrentMessageStateData(long channelId, long messageId, @NonNull Config config, @NonNull State<SumDiceSetStateData> state) {
+    protected boolean updateCurrentMessageStateData(long channelId, long messageId, long messageDataVersion, @NonNull Config config, @NonNull State<SumDiceSetStateData> state) {
         if (state.getData() == null || ROLL_BUTTON_ID.equals(state.getButtonValue())) {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, Mapper.NO_PERSISTED_STATE, null);
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, Mapper.NO_PERSISTED_STATE, null);
         } else {
-            messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
+            return messageDataDAO.updateCommandConfigOfMessage(channelId, messageId, messageDataVersion, messageDataVersion + 1, STATE_DATA_TYPE_ID, Mapper.serializedObject(state.getData()));
         }
     }
 
@@ -0,0 +1,82 @@
+package de.janno.discord.bot.dice;
+
+import de.janno.evaluator.dice.NumberSupplier;
+import lombok.NonNull;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Generates unbiased dice results with the multiply-shift method of Lemire (https://arxiv.org/abs/1805.10941). Each
+ * 64-bit output of the generator is used for two 32-bit values and the expensive modulo is only needed when a value
+ * falls into the small biased range. Thread safe if the generator is thread safe, the buffered output is local to each
+ * call.
+ */
+public class BoundedRandom implements NumberSupplier {
+
+    private static final long UNSIGNED_INT_MASK = 0xFFFFFFFFL;
+    private static final long TWO_POW_32 = 1L << 32;
+
+    private final RandomGenerator randomGenerator;
+
+    public BoundedRandom(@NonNull RandomGenerator randomGenerator) {
+        this.randomGenerator = randomGenerator;
+    }
+
+    /**
+     * Fills the array with dice results between 1 and the sides of the die
+     */
+    public void fill(int @NonNull [] results, int sidesOfDie) {
+        if (sidesOfDie < 1) {
+            throw new IllegalArgumentException("sides of die must be positive: " + sidesOfDie);
+        }
+        final Words words = new Words();
+        for (int i = 0; i < results.length; i++) {
+            results[i] = (int) nextBounded(words, sidesOfDie) + 1;
+        }
+    }
+
+    /**
+     * @return a number that is larger than minExcl and not larger than maxIncl
+     */
+    @Override
+    public int get(int minExcl, int maxIncl) {
+        if (minExcl >= maxIncl) {
+            throw new IllegalArgumentException("the range (%d, %d] is empty".formatted(minExcl, maxIncl));
+        }
+        //the range of two int is at most 2^32 - 1 and fits into the unsigned 32-bit bound
+        final long range = (long) maxIncl - minExcl;
+        return (int) (minExcl + 1 + nextBounded(new Words(), range));
+    }
+
+    //a number between 0 (inclusive) and the bound (exclusive), the bound must be between 1 and 2^32 - 1
+    private long nextBounded(Words words, long bound) {
+        long product = words.next() * bound;
+        long low = product & UNSIGNED_INT_MASK;
+        if (low < bound) {
+            //values below the threshold would make the smaller results more likely than the larger
+            final long threshold = (TWO_POW_32 - bound) % bound;
+            while (low < threshold) {
+                product = words.next() * bound;
+                low = product & UNSIGNED_INT_MASK;
+            }
+        }
+        //the product is below 2^64, the unsigned shift returns the upper 32 bits
+        return product >>> 32;
+    }
+
+    //splits each 64-bit output of the generator into two unsigned 32-bit values
+    private class Words {
+        private long buffer;
+        private boolean hasBuffered = false;
+
+        long next() {
+            if (hasBuffered) {
+                hasBuffered = false;
+                return buffer >>> 32;
+            }
+            buffer = randomGenerator.nextLong();
+            hasBuffered = true;
+            return buffer & UNSIGNED_INT_MASK;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package de.janno.discord.bot.dice;
+
+import lombok.NonNull;
+import lombok.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Checks the syntax of a dice expression of the dice parser without rolling it. Only the syntax of the help is
+ * accepted, with at most one modifier of each kind per dice. Expressions outside of it are not rejected but must be
+ * checked by the dice parser. The bounds of the values are calculated, a sum or difference that overflows the integer
+ * range even with the smallest dice results, and the arithmetic with an integer overflow or a division by zero of
+ * numbers without dice, are not accepted, because the dice parser fails on every roll of the expression.
+ */
+final class DiceExpressionValidator {
+
+    private final String input;
+    private int position = 0;
+
+    private DiceExpressionValidator(String input) {
+        this.input = input;
+    }
+
+    /**
+     * @return true if the expression is valid, false if the expression is invalid or not in the known syntax
+     */
+    static boolean isKnownValid(@NonNull String expression) {
+        DiceExpressionValidator validator = new DiceExpressionValidator(expression);
+        try {
+            validator.parseExpression();
+            validator.skipWhitespace();
+            return validator.position == expression.length();
+        } catch (NotValidatedException e) {
+            return false;
+        }
+    }
+
+    private Bounds parseExpression() {
+        Bounds value = parseTerm();
+        while (true) {
+            skipWhitespace();
+            if (consume("+")) {
+                value = value.plus(parseTerm());
+            } else if (consume("-")) {
+                value = value.minus(parseTerm());
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private Bounds parseTerm() {
+        Bounds value = parseFactor();
+        while (true) {
+            skipWhitespace();
+            if (consume("*")) {
+                value = calculate(value, parseFactor(), Math::multiplyExact);
+            } else if (consume("/")) {
+                Bounds divisor = parseFactor();
+                if (divisor.isConstant() && divisor.getLowest() == 0) {
+                    throw new NotValidatedException();
+                }
+                value = calculate(value, divisor, Math::divideExact);
+            } else if (consume("min")) {
+                value = calculate(value, parseFactor(), Math::min);
+            } else if (consume("max")) {
+                value = calculate(value, parseFactor(), Math::max);
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private Bounds parseFactor() {
+        skipWhitespace();
+        if (consume("-")) {
+            return parseFactor().negate();
+        }
+        if (consume("(")) {
+            Bounds value = parseExpression();
+            skipWhitespace();
+            expect(")");
+            if (parseTarget()) {
+                return Bounds.UNKNOWN;
+            }
+            return value;
+        }
+        if (peekIs('d')) {
+            return parseDice(1);
+        }
+        int number = parseNumber();
+        if (peekIs('d')) {
+            if (number < 1) {
+                throw new NotValidatedException();
+            }
+            return parseDice(number);
+        }
+        return Bounds.of((long) number, (long) number);
+    }
+
+    private Bounds parseDice(int count) {
+        expect("d");
+        if (consume("F")) {
+            if (consume(".")) {
+                parseNumber();
+            }
+            //a fudge die is -1, 0 or 1
+            return Bounds.of(-(long) count, (long) count);
+        }
+        final int sides = parseNumber();
+        if (sides < 1) {
+            throw new NotValidatedException();
+        }
+        if (consume("X")) {
+            return Bounds.UNKNOWN;
+        }
+        //at most one modifier of each kind and in this order, the remaining input is left to the dice parser
+        boolean exploding = true;
+        if (consume("!!") || consume("!")) {
+            final int explodeThreshold = consume(">") ? parseNumber() : sides;
+            //a dice that explodes on every roll is left to the dice parser
+            if (explodeThreshold <= 1) {
+                throw new NotValidatedException();
+            }
+        } else {
+            exploding = consume("^");
+        }
+        long keptDice = count;
+        if (consume("k") || consume("l")) {
+            keptDice = Math.min(keptDice, parseNumber());
+        }
+        final Bounds value;
+        if (parseTarget()) {
+            //the number of dice that meet the target
+            value = Bounds.of(0L, exploding ? null : keptDice);
+        } else {
+            value = Bounds.of(keptDice, exploding ? null : keptDice * sides);
+        }
+        if (!consume("asc")) {
+            consume("desc");
+        }
+        return value;
+    }
+
+    private boolean parseTarget() {
+        if (consume(">") || consume("<") || consume("=")) {
+            parseNumber();
+            return true;
+        }
+        return false;
+    }
+
+    private int parseNumber() {
+        final int start = position;
+        while (position < input.length() && Character.isDigit(input.charAt(position))) {
+            position++;
+        }
+        if (start == position) {
+            throw new NotValidatedException();
+        }
+        try {
+            return Integer.parseInt(input.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw new NotValidatedException();
+        }
+    }
+
+    //the operators are only calculated for numbers without dice, the bounds of the other values are unknown
+    private Bounds calculate(Bounds left, Bounds right, IntOperator operator) {
+        if (!left.isConstant() || !right.isConstant()) {
+            return Bounds.UNKNOWN;
+        }
+        try {
+            int result = operator.apply(Math.toIntExact(left.getLowest()), Math.toIntExact(right.getLowest()));
+            return Bounds.of((long) result, (long) result);
+        } catch (ArithmeticException e) {
+            throw new NotValidatedException();
+        }
+    }
+
+    private boolean peekIs(char c) {
+        return position < input.length() && input.charAt(position) == c;
+    }
+
+    private boolean consume(String token) {
+        if (input.startsWith(token, position)) {
+            position += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!consume(token)) {
+            throw new NotValidatedException();
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntOperator {
+        int apply(int left, int right);
+    }
+
+    /**
+     * The smallest and largest possible value, null if unknown or unbounded. A number without dice has equal bounds.
+     */
+    @Value
+    private static class Bounds {
+        static final Bounds UNKNOWN = new Bounds(null, null);
+
+        @Nullable
+        Long lowest;
+        @Nullable
+        Long highest;
+
+        //a value that is outside the integer range with every roll fails in the dice parser
+        static Bounds of(@Nullable Long lowest, @Nullable Long highest) {
+            if ((lowest != null && lowest > Integer.MAX_VALUE) || (highest != null && highest < Integer.MIN_VALUE)) {
+                throw new NotValidatedException();
+            }
+            return new Bounds(lowest, highest);
+        }
+
+        boolean isConstant() {
+            return lowest != null && lowest.equals(highest);
+        }
+
+        Bounds plus(Bounds other) {
+            return of(exact(lowest, other.lowest, Math::addExact), exact(highest, other.highest, Math::addExact));
+        }
+
+        Bounds minus(Bounds other) {
+            return of(exact(lowest, other.highest, Math::subtractExact), exact(highest, other.lowest, Math::subtractExact));
+        }
+
+        Bounds negate() {
+            return of(highest == null ? null : -highest, lowest == null ? null : -lowest);
+        }
+
+        private static @Nullable Long exact(@Nullable Long left, @Nullable Long right, LongBinaryOperator operator) {
+            if (left == null || right == null) {
+                return null;
+            }
+            try {
+                return operator.applyAsLong(left, right);
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class NotValidatedException extends RuntimeException {
+        NotValidatedException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -2,7 +2,10 @@ package de.janno.discord.bot.dice;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import de.janno.discord.bot.BotMetrics;
 import de.janno.discord.connector.api.message.EmbedDefinition;
 import dev.diceroll.parser.ResultTree;
 import lombok.NonNull;
@@ -11,13 +14,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 @Slf4j
 public class DiceParserHelper {
@@ -103,7 +106,27 @@ public class DiceParserHelper {
     private static final Pattern MULTI_ROLL_EXPRESSION_PATTERN = Pattern.compile("^(\\d+?)x\\[(.*)?]$");
     private static final Pattern VALUE_COMPERE_PATTER = Pattern.compile("(<=|>=|<>|<|>|=)(\\d+)\\?(.+)");
     private static final String MULTI_DIFF_EXPRESSION_DELIMITER = "&";
+    //the same button expressions are rolled again and again, the split and the regex matching is done only once for them
+    private static final Cache<ExpressionKey, CompiledExpression> COMPILED_EXPRESSION_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .recordStats()
+            .build();
+    //the configs of the buttons are validated on every click, the result of the parse-only validation is kept
+    private static final Cache<String, ExpressionValidation> EXPRESSION_VALIDATION_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .recordStats()
+            .build();
+
+    static {
+        BotMetrics.cacheMetrics("compiledDiceExpression", COMPILED_EXPRESSION_CACHE);
+        BotMetrics.cacheMetrics("diceExpressionValidation", EXPRESSION_VALIDATION_CACHE);
+    }
+
     private final Dice dice;
+    //the result of the check by the dice parser depends on the dice, therefore the complete result is kept per instance
+    private final Cache<String, Boolean> validExpressionCache = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .build();
 
     public DiceParserHelper() {
         this(new DiceParser());
@@ -251,66 +274,219 @@ public class DiceParserHelper {
                 .collect(Collectors.toList());
     }
 
-    public EmbedDefinition roll(String input, @Nullable String label) {
-        try {
-            if (isMultipleRoll(input)) {
-                List<LabelResult> labelResults;
-                if (isMultipleIdenticalRolls(input)) {
-                    int numberOfRolls = getNumberOfMultipleRolls(input);
-                    String innerExpression = getInnerDiceExpressionFromMultiRoll(input);
-                    labelResults = IntStream.range(0, numberOfRolls)
-                            .mapToObj(i -> singleRoll(innerExpression, null))
-                            .collect(Collectors.toList());
-                } else if (isMultipleDifferentRolls(input)) {
-                    labelResults = splitMultipleDifferentExpressions(input).stream()
-                            .map(s -> singleRoll(s, null))
-                            .collect(Collectors.toList());
-                } else {
-                    throw new IllegalStateException(String.format("Can't find correct multi roll version for: %s", input));
-                }
+    /**
+     * Returns the cached compiled expression or compiles the expression and adds it to the cache. The label is
+     * extracted from the input if a label delimiter is given. The expression is compiled in its normalized spelling,
+     * {@link #rollCompiled(CompiledExpression, String, String)} shows the rolls in the spelling of the input.
+     */
+    @VisibleForTesting
+    CompiledExpression getCompiledExpression(@NonNull String input, @Nullable String labelDelimiter) {
+        final String normalizedInput = normalizeWhitespace(input, labelDelimiter);
+        final ExpressionKey key = new ExpressionKey(normalizedInput, labelDelimiter);
+        CompiledExpression cached = COMPILED_EXPRESSION_CACHE.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        //compiled outside the cache loader, so the exceptions of invalid expressions are not wrapped
+        CompiledExpression compiled = compile(normalizedInput, labelDelimiter);
+        COMPILED_EXPRESSION_CACHE.put(key, compiled);
+        return compiled;
+    }
 
-                List<EmbedDefinition.Field> fields = labelResults.stream()
-                        .limit(25) //max number of embedFields
-                        .map(r -> new EmbedDefinition.Field(r.getLabel(), r.getResult(), false))
-                        .collect(ImmutableList.toImmutableList());
-                String title = Strings.isNullOrEmpty(label) ? "Multiple Results" : label;
-                return EmbedDefinition.builder()
-                        .title(title)
-                        .fields(fields).build();
+    /**
+     * Removes the whitespace the dice parser ignores, so all spellings of an expression share one compiled expression.
+     * The answers of a boolean expression and the label keep their whitespace. The case is kept, because the syntax
+     * has upper and lower case tokens.
+     */
+    @VisibleForTesting
+    static String normalizeWhitespace(@NonNull String input, @Nullable String labelDelimiter) {
+        final String expression = labelDelimiter == null ? input : getExpressionFromExpressionWithOptionalLabel(input, labelDelimiter);
+        final StringBuilder normalized = new StringBuilder(input.length());
+        //the answers of a boolean expression start with the '?' and end with the roll
+        boolean inAnswer = false;
+        for (char c : expression.toCharArray()) {
+            if (c == '?') {
+                inAnswer = true;
+            } else if (MULTI_DIFF_EXPRESSION_DELIMITER.indexOf(c) >= 0) {
+                inAnswer = false;
+            }
+            if (inAnswer || !Character.isWhitespace(c)) {
+                normalized.append(c);
+            }
+        }
+        //the label delimiter and the label
+        normalized.append(input, expression.length(), input.length());
+        return normalized.toString();
+    }
+
+    @VisibleForTesting
+    CompiledExpression compile(String input, @Nullable String labelDelimiter) {
+        final String label;
+        final String expression;
+        if (labelDelimiter != null) {
+            label = getLabelFromExpressionWithOptionalLabel(input, labelDelimiter).orElse(null);
+            expression = getExpressionFromExpressionWithOptionalLabel(input, labelDelimiter);
+        } else {
+            label = null;
+            expression = input;
+        }
+        if (isMultipleRoll(expression)) {
+            final List<CompiledRoll> rolls;
+            if (isMultipleIdenticalRolls(expression)) {
+                Matcher matcher = MULTI_ROLL_EXPRESSION_PATTERN.matcher(expression);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException(String.format("Inner expression in '%s' not found", expression));
+                }
+                rolls = Collections.nCopies(getNumberOfMultipleRolls(expression), compileSingleRoll(matcher.group(2), matcher.start(2)));
+            } else if (isMultipleDifferentRolls(expression)) {
+                ImmutableList.Builder<CompiledRoll> builder = ImmutableList.builder();
+                int start = 0;
+                //same split as splitMultipleDifferentExpressions, but with the position of each roll
+                for (String part : expression.split(MULTI_DIFF_EXPRESSION_DELIMITER)) {
+                    String trimmed = part.trim();
+                    if (!Strings.isNullOrEmpty(trimmed)) {
+                        builder.add(compileSingleRoll(trimmed, start + part.indexOf(trimmed)));
+                    }
+                    start += part.length() + MULTI_DIFF_EXPRESSION_DELIMITER.length();
+                }
+                rolls = builder.build();
             } else {
-                LabelResult labelResult = singleRoll(input, label);
-                return EmbedDefinition.builder()
-                        .title(labelResult.getLabel())
-                        .description(labelResult.getResult()).build();
+                throw new IllegalStateException(String.format("Can't find correct multi roll version for: %s", expression));
+            }
+            return new CompiledExpression(true, rolls, label, expression);
+        }
+        return new CompiledExpression(false, ImmutableList.of(compileSingleRoll(expression, 0)), label, expression);
+    }
+
+    private CompiledRoll compileSingleRoll(String input) {
+        return compileSingleRoll(input, 0);
+    }
+
+    /**
+     * @param start the position of the input in the expression
+     */
+    private CompiledRoll compileSingleRoll(String input, int start) {
+        if (isBooleanExpression(input)) {
+            BooleanExpression booleanExpression = getBooleanExpression(input);
+            //the boolean expression is shown with its leading plus
+            return new CompiledRoll(removeLeadingPlus(booleanExpression.getExpression()), booleanExpression,
+                    start, start + booleanExpression.getExpression().length());
+        }
+        String diceExpression = removeLeadingPlus(input);
+        return new CompiledRoll(diceExpression, null, start + input.length() - diceExpression.length(), start + input.length());
+    }
+
+    /**
+     * Returns the part of the expression that was normalized to the given range of the normalized expression. The
+     * normalization only removes whitespace, so the characters of the normalized expression are found in order.
+     */
+    @VisibleForTesting
+    static String getOriginalSpelling(String expression, String normalizedExpression, int start, int end) {
+        if (expression.equals(normalizedExpression) || start >= end) {
+            return normalizedExpression.substring(start, end);
+        }
+        int originalStart = -1;
+        int normalizedIndex = 0;
+        for (int i = 0; i < expression.length() && normalizedIndex < end; i++) {
+            if (expression.charAt(i) == normalizedExpression.charAt(normalizedIndex)) {
+                if (normalizedIndex == start) {
+                    originalStart = i;
+                }
+                if (normalizedIndex == end - 1) {
+                    return expression.substring(originalStart, i + 1);
+                }
+                normalizedIndex++;
             }
+        }
+        //not a spelling of the normalized expression
+        return normalizedExpression.substring(start, end);
+    }
+
+    /**
+     * Rolls the expression, the label is separated from the expression by the label delimiter
+     */
+    public EmbedDefinition rollWithOptionalLabel(@NonNull String expressionWithOptionalLabel, @NonNull String labelDelimiter) {
+        return roll(expressionWithOptionalLabel, labelDelimiter, null);
+    }
+
+    public EmbedDefinition roll(String input, @Nullable String label) {
+        return roll(input, null, label);
+    }
+
+    private EmbedDefinition roll(String input, @Nullable String labelDelimiter, @Nullable String label) {
+        try {
+            return rollCompiled(getCompiledExpression(input, labelDelimiter), withoutLabel(input, labelDelimiter), label);
         } catch (ArithmeticException t) {
             return EmbedDefinition.builder()
                     .title("Arithmetic Error")
-                    .description(String.format("Executing '%s' resulting in: %s", input, t.getMessage()))
+                    .description(String.format("Executing '%s' resulting in: %s", withoutLabel(input, labelDelimiter), t.getMessage()))
                     .build();
         } catch (Throwable t) {
             return EmbedDefinition.builder()
                     .title("Error")
-                    .description(String.format("Could not execute the dice expression: %s", input))
+                    .description(String.format("Could not execute the dice expression: %s", withoutLabel(input, labelDelimiter)))
                     .build();
         }
     }
 
-    private LabelResult singleRoll(String input, String label) {
-        if (isBooleanExpression(input)) {
-            BooleanExpression booleanExpression = getBooleanExpression(input);
-            RollWithDetails rollWithDetails = rollWithDiceParser(booleanExpression.getExpression());
+    private static String withoutLabel(String input, @Nullable String labelDelimiter) {
+        if (labelDelimiter == null) {
+            return input;
+        }
+        return getExpressionFromExpressionWithOptionalLabel(input, labelDelimiter);
+    }
+
+    @VisibleForTesting
+    EmbedDefinition rollCompiled(CompiledExpression compiledExpression, @Nullable String label) {
+        return rollCompiled(compiledExpression, compiledExpression.getExpression(), label);
+    }
+
+    /**
+     * @param expression the spelling of the compiled expression that is shown in the results
+     * @param label      is used if the compiled expression has no label
+     */
+    @VisibleForTesting
+    EmbedDefinition rollCompiled(CompiledExpression compiledExpression, @NonNull String expression, @Nullable String label) {
+        if (compiledExpression.getLabel() != null) {
+            label = compiledExpression.getLabel();
+        }
+        if (compiledExpression.isMultipleRolls()) {
+            List<EmbedDefinition.Field> fields = compiledExpression.getRolls().stream()
+                    .limit(25) //max number of embedFields
+                    .map(r -> singleRoll(r, getOriginalSpelling(expression, compiledExpression.getExpression(), r.getExpressionStart(), r.getExpressionEnd()), null))
+                    .map(r -> new EmbedDefinition.Field(r.getLabel(), r.getResult(), false))
+                    .collect(ImmutableList.toImmutableList());
+            String title = Strings.isNullOrEmpty(label) ? "Multiple Results" : label;
+            return EmbedDefinition.builder()
+                    .title(title)
+                    .fields(fields).build();
+        }
+        CompiledRoll compiledRoll = compiledExpression.getRolls().get(0);
+        String spelling = getOriginalSpelling(expression, compiledExpression.getExpression(), compiledRoll.getExpressionStart(), compiledRoll.getExpressionEnd());
+        LabelResult labelResult = singleRoll(compiledRoll, spelling, label);
+        return EmbedDefinition.builder()
+                .title(labelResult.getLabel())
+                .description(labelResult.getResult()).build();
+    }
+
+    /**
+     * @param spelling the expression of the roll as it is shown in the result
+     */
+    private LabelResult singleRoll(CompiledRoll compiledRoll, String spelling, String label) {
+        if (compiledRoll.getBooleanExpression() != null) {
+            BooleanExpression booleanExpression = compiledRoll.getBooleanExpression();
+            RollWithDetails rollWithDetails = rollWithDiceParser(compiledRoll.getDiceExpression(), removeLeadingPlus(spelling));
             if (rollWithDetails.getResult() == null) { //there was an error
                 return new LabelResult(rollWithDetails.getRoll(), rollWithDetails.getDetails());
             }
 
             String result = booleanExpression.getResult(rollWithDetails.getResult());
-            String labelOrExpression = Strings.isNullOrEmpty(label) ? booleanExpression.getExpression() : label;
+            String labelOrExpression = Strings.isNullOrEmpty(label) ? spelling : label;
             String title = String.format("%s: %s", labelOrExpression, result);
             String details = String.format("%s = %s", rollWithDetails.getDetails(), booleanExpression.getDetail(rollWithDetails.getResult()));
             return new LabelResult(title, details);
         } else {
-            RollWithDetails rollWithDetails = rollWithDiceParser(input);
+            RollWithDetails rollWithDetails = rollWithDiceParser(compiledRoll.getDiceExpression(), spelling);
             String title = Strings.isNullOrEmpty(label) ? rollWithDetails.getRoll() : String.format("%s: %s", label, rollWithDetails.getRoll());
             return new LabelResult(title, rollWithDetails.getDetails());
         }
@@ -347,27 +523,41 @@ public class DiceParserHelper {
         return new ValueCompereResult(operator, compereValue, result);
     }
 
-    private RollWithDetails rollWithDiceParser(String input) {
-        input = removeLeadingPlus(input);
+    //the leading plus is already removed from the input and the spelling
+    private RollWithDetails rollWithDiceParser(String input, String spelling) {
         ResultTree resultTree = dice.detailedRoll(input);
-        String title = String.format("%s = %d", input, resultTree.getValue());
+        String title = String.format("%s = %d", spelling, resultTree.getValue());
         String details = String.format("[%s]", getBaseResults(resultTree).stream().map(String::valueOf).collect(Collectors.joining(", ")));
         return new RollWithDetails(title, details, resultTree.getValue());
     }
 
+    /**
+     * Validates the expression without rolling it. Dice expressions outside the syntax of the {@link DiceExpressionValidator}
+     * are checked once by the dice parser, the result is kept per normalized expression.
+     */
     public boolean validExpression(String input) {
+        final String key = normalizeWhitespace(input, null);
+        Boolean cached = validExpressionCache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean valid = validateExpression(input, key);
+        validExpressionCache.put(key, valid);
+        return valid;
+    }
+
+    private boolean validateExpression(String input, String key) {
         try {
-            input = removeLeadingPlus(input);
-            if (isMultipleRoll(input)) {
-                if (isMultipleIdenticalRolls(input)) {
-                    singleRoll(getInnerDiceExpressionFromMultiRoll(input), null);
-                } else if (isMultipleDifferentRolls(input)) {
-                    splitMultipleDifferentExpressions(input).forEach(e -> singleRoll(e, null));
-                }
-            } else if (isBooleanExpression(input)) {
-                dice.detailedRoll(getBooleanExpression(input).getExpression());
+            final ExpressionValidation validation;
+            ExpressionValidation cached = EXPRESSION_VALIDATION_CACHE.getIfPresent(key);
+            if (cached != null) {
+                validation = cached;
             } else {
-                dice.detailedRoll(input);
+                validation = validateWithoutRolling(input);
+                EXPRESSION_VALIDATION_CACHE.put(key, validation);
+            }
+            for (String diceExpression : validation.getUnvalidatedDiceExpressions()) {
+                dice.detailedRoll(diceExpression);
             }
             return true;
         } catch (Throwable t) {
@@ -375,6 +565,77 @@ public class DiceParserHelper {
         }
     }
 
+    private ExpressionValidation validateWithoutRolling(String input) {
+        input = removeLeadingPlus(input);
+        final List<String> diceExpressions;
+        if (isMultipleRoll(input)) {
+            if (isMultipleIdenticalRolls(input)) {
+                diceExpressions = ImmutableList.of(compileSingleRoll(getInnerDiceExpressionFromMultiRoll(input)).getDiceExpression());
+            } else if (isMultipleDifferentRolls(input)) {
+                diceExpressions = splitMultipleDifferentExpressions(input).stream()
+                        .map(e -> compileSingleRoll(e).getDiceExpression())
+                        .collect(ImmutableList.toImmutableList());
+            } else {
+                diceExpressions = ImmutableList.of();
+            }
+        } else if (isBooleanExpression(input)) {
+            diceExpressions = ImmutableList.of(getBooleanExpression(input).getExpression());
+        } else {
+            diceExpressions = ImmutableList.of(input);
+        }
+        return new ExpressionValidation(diceExpressions.stream()
+                .filter(e -> !DiceExpressionValidator.isKnownValid(e))
+                .distinct()
+                .collect(ImmutableList.toImmutableList()));
+    }
+
+    /**
+     * The dice expressions of a validated input that are not in the syntax of the {@link DiceExpressionValidator}. It
+     * depends not on the dice parser and can be shared by all instances.
+     */
+    @Value
+    private static class ExpressionValidation {
+        @NonNull
+        List<String> unvalidatedDiceExpressions;
+    }
+
+    @Value
+    private static class ExpressionKey {
+        @NonNull
+        String expression;
+        @Nullable
+        String labelDelimiter;
+    }
+
+    /**
+     * The expression after the multi roll split, the boolean result mapping and the label extraction. Only the dice
+     * expressions of the rolls need to be executed for a roll.
+     */
+    @Value
+    @VisibleForTesting
+    static class CompiledExpression {
+        boolean multipleRolls;
+        @NonNull
+        List<CompiledRoll> rolls;
+        @Nullable
+        String label;
+        //the normalized expression without the label
+        @NonNull
+        String expression;
+    }
+
+    @Value
+    @VisibleForTesting
+    static class CompiledRoll {
+        @NonNull
+        String diceExpression;
+        @Nullable
+        BooleanExpression booleanExpression;
+        //the range of the shown expression in the expression of the compiled expression
+        int expressionStart;
+        int expressionEnd;
+    }
+
     @Value
     private static class LabelResult {
         @NonNull
@@ -2,85 +2,168 @@ package de.janno.discord.bot.dice;
 
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 
 import java.util.*;
-import java.util.function.Function;
 import java.util.random.RandomGenerator;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class DiceUtils {
     public static final String MINUS = "\u2212";
-    private static final RandomGenerator randomNumberGenerator = new Sfc64Random();
-    private final Function<Integer, Integer> numberSupplier;
+    //each thread rolls with its own generator, so concurrent rolls don't wait for each other
+    private static final RandomGenerator DEFAULT_RANDOM_NUMBER_GENERATOR = new ThreadLocalSfc64Random();
+    private final DiceRoller diceRoller;
 
     public DiceUtils() {
-        numberSupplier = diceSides -> (int) (randomNumberGenerator.nextInt(diceSides) + 1);
+        this(DEFAULT_RANDOM_NUMBER_GENERATOR);
+    }
+
+    /**
+     * @param randomNumberGenerator must be thread safe, the dice utils are shared by all threads of a command
+     */
+    public DiceUtils(RandomGenerator randomNumberGenerator) {
+        diceRoller = new BoundedRandom(randomNumberGenerator)::fill;
     }
 
     public DiceUtils(Integer... resultNumbers) {
         Deque<Integer> results = new ArrayDeque<>(ImmutableList.copyOf(resultNumbers));
-        numberSupplier = diceSides -> results.pop();
+        diceRoller = (diceResults, diceSides) -> {
+            for (int i = 0; i < diceResults.length; i++) {
+                diceResults[i] = results.pop();
+            }
+        };
+    }
+
+    /**
+     * @return the default generator for the dice of the {@link de.janno.evaluator.dice.DiceEvaluator}
+     */
+    public static BoundedRandom createNumberSupplier() {
+        return new BoundedRandom(DEFAULT_RANDOM_NUMBER_GENERATOR);
     }
 
     public static int numberOfDiceResultsGreaterEqual(List<Integer> results, int target) {
-        return (int) results.stream()
-                .filter(i -> i >= target)
-                .count();
+        return numberOfDiceResultsGreaterEqual(Ints.toArray(results), target);
+    }
+
+    public static int numberOfDiceResultsGreaterEqual(int[] results, int target) {
+        int count = 0;
+        for (int result : results) {
+            if (result >= target) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public static int numberOfDiceResultsEqual(List<Integer> results, Set<Integer> targets) {
-        return (int) results.stream()
-                .filter(targets::contains)
-                .count();
+        return numberOfDiceResultsEqual(Ints.toArray(results), targets);
+    }
+
+    public static int numberOfDiceResultsEqual(int[] results, Set<Integer> targets) {
+        if (targets.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        for (int result : results) {
+            //dice results are in the range of the Integer cache, the lookup doesn't allocate
+            if (targets.contains(result)) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public static String convertFateNumberToString(List<Integer> results) {
-        return "[" + results.stream().map(i -> {
-            if (i < 0) {
-                return MINUS;
-            } else if (i > 0) {
-                return "＋";
+        return convertFateNumberToString(Ints.toArray(results));
+    }
+
+    public static String convertFateNumberToString(int[] results) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        for (int result : results) {
+            if (result < 0) {
+                joiner.add(MINUS);
+            } else if (result > 0) {
+                joiner.add("＋");
             } else {
-                return "▢";
+                joiner.add("▢");
             }
-        }).collect(Collectors.joining(",")) + "]";
+        }
+        return joiner.toString();
     }
 
     public static int fateResult(List<Integer> results) {
-        return results.stream().mapToInt(i -> i).sum();
+        return fateResult(Ints.toArray(results));
+    }
+
+    public static int fateResult(int[] results) {
+        int sum = 0;
+        for (int result : results) {
+            sum += result;
+        }
+        return sum;
     }
 
     public int rollDice(int diceSides) {
-        return numberSupplier.apply(diceSides);
+        final int[] result = new int[1];
+        diceRoller.fill(result, diceSides);
+        return result[0];
     }
 
     public List<Integer> rollFate() {
-        return IntStream.range(0, 4)
-                .mapToObj(i -> rollDice(3) - 2)
-                .collect(Collectors.toList());
+        return Ints.asList(rollFateArray());
+    }
+
+    /**
+     * @return four fate dice with the values -1, 0 and 1
+     */
+    public int[] rollFateArray() {
+        final int[] results = rollDiceArray(4, 3);
+        for (int i = 0; i < results.length; i++) {
+            results[i] -= 2;
+        }
+        return results;
     }
 
     public List<Integer> rollDiceOfType(int numberOfDice, int diceSides) {
-        return IntStream.range(0, numberOfDice)
-                .mapToObj(i -> rollDice(diceSides))
-                .collect(Collectors.toList());
+        return Ints.asList(rollDiceArray(numberOfDice, diceSides));
+    }
+
+    public int[] rollDiceArray(int numberOfDice, int diceSides) {
+        //all dice are rolled in one call, so the generator output is buffered over the dice
+        final int[] results = new int[numberOfDice];
+        diceRoller.fill(results, diceSides);
+        return results;
     }
 
     public List<Integer> explodingReroll(int sidesOfDie, List<Integer> results, Set<Integer> resultNumbersToReroll) {
-        if(resultNumbersToReroll.isEmpty()){
+        if (resultNumbersToReroll.isEmpty()) {
             return results;
         }
-        ImmutableList.Builder<Integer> resultBuilder = ImmutableList.builder();
-        resultBuilder.addAll(results);
+        return Ints.asList(explodingReroll(sidesOfDie, Ints.toArray(results), resultNumbersToReroll));
+    }
+
+    /**
+     * @return the results followed by the rerolls, the input array is not changed
+     */
+    public int[] explodingReroll(int sidesOfDie, int[] results, Set<Integer> resultNumbersToReroll) {
+        if (resultNumbersToReroll.isEmpty()) {
+            return results;
+        }
+        int[] allResults = results;
         int numberOfDiceToReroll = numberOfDiceResultsEqual(results, resultNumbersToReroll);
         int counter = 0;
         while (numberOfDiceToReroll > 0 && counter < 10) {
-            List<Integer> rerolls = rollDiceOfType(numberOfDiceToReroll, sidesOfDie);
-            resultBuilder.addAll(rerolls);
+            final int start = allResults.length;
+            allResults = Arrays.copyOf(allResults, start + numberOfDiceToReroll);
+            final int[] rerolls = rollDiceArray(numberOfDiceToReroll, sidesOfDie);
+            System.arraycopy(rerolls, 0, allResults, start, rerolls.length);
             numberOfDiceToReroll = numberOfDiceResultsEqual(rerolls, resultNumbersToReroll);
             counter++;
         }
-        return resultBuilder.build();
+        return allResults;
+    }
+
+    @FunctionalInterface
+    private interface DiceRoller {
+        void fill(int[] results, int diceSides);
     }
 }
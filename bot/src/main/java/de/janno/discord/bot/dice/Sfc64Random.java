@@ -15,6 +15,13 @@ public class Sfc64Random implements RandomGenerator {
     private long counter;
 
     public synchronized long nextLong() {
+        return nextLongUnsynchronized();
+    }
+
+    /**
+     * Only for instances that are used by a single thread, like the instances of the {@link ThreadLocalSfc64Random}
+     */
+    long nextLongUnsynchronized() {
         final long result = state_a + state_b + counter++;
 
         state_a = state_b ^ (state_b >>> 11);
@@ -32,7 +39,7 @@ public class Sfc64Random implements RandomGenerator {
 
         // Scramble the state a little.
         for (int i = 0; i < 20; i++) {
-            nextLong();
+            nextLongUnsynchronized();
         }
     }
 
@@ -0,0 +1,18 @@
+package de.janno.discord.bot.dice;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A {@link RandomGenerator} that uses a separate {@link Sfc64Random} for each thread, so the threads don't wait for the
+ * lock of a shared generator. Each instance is seeded from the {@link java.security.SecureRandom} of the
+ * {@link Sfc64Random} when a thread uses it for the first time.
+ */
+public class ThreadLocalSfc64Random implements RandomGenerator {
+
+    private final ThreadLocal<Sfc64Random> randomOfThread = ThreadLocal.withInitial(Sfc64Random::new);
+
+    @Override
+    public long nextLong() {
+        return randomOfThread.get().nextLongUnsynchronized();
+    }
+}
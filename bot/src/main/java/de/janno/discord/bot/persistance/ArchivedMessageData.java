@@ -0,0 +1,60 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+import lombok.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Objects;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static de.janno.discord.bot.persistance.DataStreams.readString;
+import static de.janno.discord.bot.persistance.DataStreams.writeString;
+
+/**
+ * The compressed part of a row in MESSAGE_DATA_ARCHIVE, it contains the config, so the config can be removed from
+ * MESSAGE_CONFIG while the message is archived
+ */
+@Value
+class ArchivedMessageData {
+
+    @NonNull
+    String commandId;
+    @NonNull
+    String configClassId;
+    @NonNull
+    String config;
+    @NonNull
+    String stateDataClassId;
+    @Nullable
+    String stateData;
+    long creationDate;
+    long version;
+
+    static ArchivedMessageData decompress(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            return new ArchivedMessageData(Objects.requireNonNull(readString(in)),
+                    Objects.requireNonNull(readString(in)),
+                    Objects.requireNonNull(readString(in)),
+                    Objects.requireNonNull(readString(in)),
+                    readString(in),
+                    in.readLong(),
+                    in.readLong());
+        }
+    }
+
+    byte[] compress() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            writeString(out, commandId);
+            writeString(out, configClassId);
+            writeString(out, config);
+            writeString(out, stateDataClassId);
+            writeString(out, stateData);
+            out.writeLong(creationDate);
+            out.writeLong(version);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,443 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import de.janno.discord.bot.BotMetrics;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps the message data of the recently used button messages in memory. State updates of cached messages are written
+ * asynchronously to the delegate. A pending update is applied to the message data that is loaded again from the delegate
+ * and is written before the message data is updated without the cache. A pending update is dropped if the message data was changed outside the cache
+ * since it was loaded. All reads and writes of the delegate for one message are serialized.
+ */
+@Slf4j
+public class CachingMessageDataDAO implements MessageDataDAO, MessageDataCacheInvalidation {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final MessageDataDAO delegate;
+    private final Cache<MessageKey, MessageDataDTO> cache;
+    //the state events after the snapshot of the message, only used by the state event view
+    private final Cache<MessageKey, EventTail> eventTails;
+    private final ConcurrentMap<MessageKey, StateUpdate> pendingUpdates = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writeBehindExecutor;
+    //all reads from and writes to the delegate of one message are serialized by the lock of the message
+    private final Striped<Lock> keyLocks = Striped.lock(LOCK_STRIPES);
+
+    public CachingMessageDataDAO(@NonNull MessageDataDAO delegate, long maximumSize, @NonNull Duration expireAfterAccess, @NonNull Duration writeBehindDelay) {
+        this.delegate = delegate;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .<MessageKey, MessageDataDTO>removalListener(this::onRemoval)
+                .recordStats()
+                .build();
+        BotMetrics.cacheMetrics("messageData", cache);
+        this.eventTails = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        BotMetrics.cacheMetrics("stateEvents", eventTails);
+
+        writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "message-data-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeBehindExecutor.scheduleWithFixedDelay(this::flushSafe, writeBehindDelay.toMillis(), writeBehindDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void onRemoval(RemovalNotification<MessageKey, MessageDataDTO> notification) {
+        //explicit removals are deletes, the pending update was already discarded
+        MessageKey key = notification.getKey();
+        if (notification.wasEvicted() && key != null && pendingUpdates.containsKey(key)) {
+            //the evicting thread can hold the lock of another message, waiting for the lock could deadlock
+            Lock lock = keyLocks.get(key);
+            if (lock.tryLock()) {
+                try {
+                    flushKey(key);
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                writeBehindExecutor.execute(this::flushSafe);
+            }
+        }
+    }
+
+    private void flushKey(MessageKey key) {
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            StateUpdate update = pendingUpdates.get(key);
+            if (update == null) {
+                return;
+            }
+            writeStateUpdate(key, update);
+            pendingUpdates.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeStateUpdate(MessageKey key, StateUpdate update) {
+        if (delegate.updateCommandConfigOfMessage(key.getChannelId(), key.getMessageId(), update.getExpectedVersion(), update.getNewVersion(), update.getStateDataClassId(), update.getStateData())) {
+            return;
+        }
+        //the message data was deleted or changed outside the cache, the newer message data is kept and loaded again
+        BotMetrics.incrementWriteBehindConflictCounter();
+        log.warn("State update of channelId: {}, messageId: {} was dropped, the message data was deleted or changed outside the cache", key.getChannelId(), key.getMessageId());
+        cache.invalidate(key);
+    }
+
+    private void flushSafe() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Error while writing message data updates", e);
+        }
+    }
+
+    /**
+     * Writes all pending state updates to the delegate.
+     */
+    public void flush() {
+        pendingUpdates.keySet().forEach(this::flushKey);
+    }
+
+    /**
+     * @return the cached message data without a pending update, so it is equal to the message data of the delegate
+     */
+    @NonNull Collection<MessageDataDTO> getPersistedCachedMessageData() {
+        return cache.asMap().entrySet().stream()
+                .filter(e -> !pendingUpdates.containsKey(e.getKey()))
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    /**
+     * Adds the message data to the cache, if the message is not already cached
+     */
+    void preload(@NonNull Collection<MessageDataDTO> messageData) {
+        messageData.forEach(messageDataDTO -> cache.asMap().putIfAbsent(new MessageKey(messageDataDTO.getChannelId(), messageDataDTO.getMessageId()), messageDataDTO));
+    }
+
+    @Override
+    public @NonNull UnitOfWork startUnitOfWork() {
+        return delegate.startUnitOfWork();
+    }
+
+    @Override
+    public @NonNull Optional<MessageDataDTO> getDataForMessage(long channelId, long messageId) {
+        MessageKey key = new MessageKey(channelId, messageId);
+        MessageDataDTO cached = cache.getIfPresent(key);
+        if (cached != null) {
+            delegate.markAsAccessed(channelId, messageId);
+            return Optional.of(cached);
+        }
+        //the load holds the lock of the message, so no write of the same message can happen between the load and the caching
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            cached = cache.getIfPresent(key);
+            if (cached != null) {
+                delegate.markAsAccessed(channelId, messageId);
+                return Optional.of(cached);
+            }
+            //an evicted message can have a pending update that is not yet written, it is kept until the flush writes it
+            Optional<MessageDataDTO> loaded = delegate.getDataForMessage(channelId, messageId)
+                    .map(messageDataDTO -> applyPendingUpdate(key, messageDataDTO));
+            loaded.ifPresent(messageDataDTO -> cache.put(key, messageDataDTO));
+            return loaded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private MessageDataDTO applyPendingUpdate(MessageKey key, MessageDataDTO loaded) {
+        StateUpdate update = pendingUpdates.get(key);
+        if (update == null) {
+            return loaded;
+        }
+        if (update.getExpectedVersion() != loaded.getVersion()) {
+            //the message data was changed outside the cache, the update would fail with the flush
+            BotMetrics.incrementWriteBehindConflictCounter();
+            log.warn("State update of channelId: {}, messageId: {} was dropped, the message data was changed outside the cache", key.getChannelId(), key.getMessageId());
+            pendingUpdates.remove(key);
+            return loaded;
+        }
+        return withState(loaded, update.getStateDataClassId(), update.getStateData(), update.getNewVersion());
+    }
+
+    private static MessageDataDTO withState(MessageDataDTO messageData, String stateDataClassId, @Nullable String stateData, long version) {
+        return new MessageDataDTO(messageData.getConfigUUID(),
+                messageData.getGuildId(),
+                messageData.getChannelId(),
+                messageData.getMessageId(),
+                messageData.getCommandId(),
+                messageData.getConfigClassId(),
+                messageData.getConfig(),
+                stateDataClassId,
+                stateData,
+                version);
+    }
+
+    @Override
+    public void markAsAccessed(long channelId, long messageId) {
+        delegate.markAsAccessed(channelId, messageId);
+    }
+
+    @Override
+    public @NonNull Set<Long> getAllMessageIdsForConfig(@NonNull UUID configUUID) {
+        return delegate.getAllMessageIdsForConfig(configUUID);
+    }
+
+    @Override
+    public void deleteDataForMessage(long channelId, long messageId) {
+        deleteDataForMessages(channelId, List.of(messageId));
+    }
+
+    @Override
+    public void deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        removeKeys(toKeys(channelId, messageIds), () -> delegate.deleteDataForMessages(channelId, messageIds));
+    }
+
+    @Override
+    public void invalidateMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        removeKeys(toKeys(channelId, messageIds), () -> {
+        });
+    }
+
+    @Override
+    public void invalidateGuild(long guildId) {
+        List<MessageKey> keys = cache.asMap().entrySet().stream()
+                .filter(e -> Objects.equals(e.getValue().getGuildId(), guildId))
+                .map(Map.Entry::getKey)
+                .toList();
+        removeKeys(keys, () -> {
+        });
+    }
+
+    private static List<MessageKey> toKeys(long channelId, Collection<Long> messageIds) {
+        return messageIds.stream()
+                .map(messageId -> new MessageKey(channelId, messageId))
+                .toList();
+    }
+
+    /**
+     * Removes the messages from the cache and drops their pending updates, before the delegate removal runs
+     */
+    private void removeKeys(List<MessageKey> keys, Runnable delegateRemoval) {
+        //the locks are taken in the order of the stripes, so a bulk delete can't deadlock with another one
+        List<Lock> locks = ImmutableList.copyOf(keyLocks.bulkGet(keys));
+        locks.forEach(Lock::lock);
+        try {
+            keys.forEach(key -> {
+                pendingUpdates.remove(key);
+                cache.invalidate(key);
+                eventTails.invalidate(key);
+            });
+            delegateRemoval.run();
+        } finally {
+            Lists.reverse(locks).forEach(Lock::unlock);
+        }
+    }
+
+    @Override
+    public @NonNull Set<Long> deleteDataForChannel(long channelId) {
+        List<Lock> locks = IntStream.range(0, keyLocks.size())
+                .mapToObj(keyLocks::getAt)
+                .toList();
+        locks.forEach(Lock::lock);
+        try {
+            pendingUpdates.keySet().removeIf(key -> key.getChannelId() == channelId);
+            cache.asMap().keySet().removeIf(key -> key.getChannelId() == channelId);
+            eventTails.asMap().keySet().removeIf(key -> key.getChannelId() == channelId);
+            return delegate.deleteDataForChannel(channelId);
+        } finally {
+            Lists.reverse(locks).forEach(Lock::unlock);
+        }
+    }
+
+    @Override
+    public long saveMessageData(@NonNull MessageDataDTO messageData) {
+        MessageKey key = new MessageKey(messageData.getChannelId(), messageData.getMessageId());
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            //the saved message data replaces the state of a pending update
+            pendingUpdates.remove(key);
+            eventTails.invalidate(key);
+            long version = delegate.saveMessageData(messageData);
+            cache.put(key, messageData.withVersion(version));
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean updateCommandConfigOfMessage(long channelId, long messageId, long expectedVersion, long newVersion, @NonNull String stateDataClassId, @Nullable String stateData) {
+        MessageKey key = new MessageKey(channelId, messageId);
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            MessageDataDTO current = cache.getIfPresent(key);
+            if (current == null) {
+                //not cached, the pending update of an evicted message is written before the write through
+                flushKey(key);
+                return delegate.updateCommandConfigOfMessage(channelId, messageId, expectedVersion, newVersion, stateDataClassId, stateData);
+            }
+            if (current.getVersion() != expectedVersion) {
+                return false;
+            }
+            //the pending update keeps the version that is expected in the delegate
+            pendingUpdates.merge(key, new StateUpdate(expectedVersion, newVersion, stateDataClassId, stateData),
+                    (pending, next) -> new StateUpdate(pending.getExpectedVersion(), next.getNewVersion(), next.getStateDataClassId(), next.getStateData()));
+            cache.put(key, withState(current, stateDataClassId, stateData, newVersion));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a view of the state events of the delegate that keeps the events after the last snapshot of the cached
+     * messages in memory. All events of the messages must be written by the view, so the kept events are complete.
+     */
+    public @NonNull StateEventDAO withStateEvents(@NonNull StateEventDAO stateEventDelegate) {
+        return new CachingStateEventDAO(stateEventDelegate);
+    }
+
+    private class CachingStateEventDAO implements StateEventDAO {
+
+        private final StateEventDAO stateEventDelegate;
+
+        private CachingStateEventDAO(StateEventDAO stateEventDelegate) {
+            this.stateEventDelegate = stateEventDelegate;
+        }
+
+        @Override
+        public @NonNull List<StateEventDTO> getStateEvents(long channelId, long messageId, long afterSequence) {
+            MessageKey key = new MessageKey(channelId, messageId);
+            EventTail tail = eventTails.getIfPresent(key);
+            if (tail != null && tail.getAfterSequence() <= afterSequence) {
+                return tail.getEventsAfter(afterSequence);
+            }
+            Lock lock = keyLocks.get(key);
+            lock.lock();
+            try {
+                tail = eventTails.getIfPresent(key);
+                if (tail != null && tail.getAfterSequence() <= afterSequence) {
+                    return tail.getEventsAfter(afterSequence);
+                }
+                List<StateEventDTO> loaded = ImmutableList.copyOf(stateEventDelegate.getStateEvents(channelId, messageId, afterSequence));
+                eventTails.put(key, new EventTail(afterSequence, loaded));
+                return loaded;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean appendStateEvent(long channelId, long messageId, long sequence, @NonNull String buttonValue, @Nullable String userName) {
+            MessageKey key = new MessageKey(channelId, messageId);
+            Lock lock = keyLocks.get(key);
+            lock.lock();
+            try {
+                boolean appended = stateEventDelegate.appendStateEvent(channelId, messageId, sequence, buttonValue, userName);
+                EventTail tail = eventTails.getIfPresent(key);
+                if (tail != null) {
+                    if (appended && tail.getLastSequence() < sequence) {
+                        eventTails.put(key, tail.append(new StateEventDTO(sequence, buttonValue, userName)));
+                    } else {
+                        //the events of the message were changed by someone else, the next read loads them again
+                        eventTails.invalidate(key);
+                    }
+                }
+                return appended;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void snapshotState(long channelId, long messageId, long version, @NonNull String stateDataClassId, @Nullable String stateData) {
+            MessageKey key = new MessageKey(channelId, messageId);
+            Lock lock = keyLocks.get(key);
+            lock.lock();
+            try {
+                //the snapshot is written directly, a pending update of the same message is written before it
+                flushKey(key);
+                stateEventDelegate.snapshotState(channelId, messageId, version, stateDataClassId, stateData);
+                cache.asMap().computeIfPresent(key, (k, current) -> current.getVersion() >= version ? current : withState(current, stateDataClassId, stateData, version));
+                eventTails.asMap().computeIfPresent(key, (k, tail) -> tail.trimTo(version));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Value
+    private static class StateUpdate {
+        long expectedVersion;
+        long newVersion;
+        @NonNull
+        String stateDataClassId;
+        @Nullable
+        String stateData;
+    }
+
+    /**
+     * All events of a message with a sequence larger than the after sequence
+     */
+    @Value
+    private static class EventTail {
+        long afterSequence;
+        @NonNull
+        List<StateEventDTO> events;
+
+        long getLastSequence() {
+            return events.isEmpty() ? afterSequence : events.get(events.size() - 1).getSequence();
+        }
+
+        List<StateEventDTO> getEventsAfter(long sequence) {
+            return events.stream()
+                    .filter(e -> e.getSequence() > sequence)
+                    .toList();
+        }
+
+        EventTail append(StateEventDTO event) {
+            return new EventTail(afterSequence, ImmutableList.<StateEventDTO>builder().addAll(events).add(event).build());
+        }
+
+        EventTail trimTo(long sequence) {
+            return new EventTail(Math.max(afterSequence, sequence), getEventsAfter(sequence));
+        }
+    }
+}
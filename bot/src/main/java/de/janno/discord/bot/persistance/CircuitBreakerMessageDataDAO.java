@@ -0,0 +1,367 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import de.janno.discord.bot.BotMetrics;
+import io.micrometer.core.instrument.Gauge;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static io.micrometer.core.instrument.Metrics.globalRegistry;
+
+/**
+ * Stops the calls to the delegate after consecutive failures or calls that took longer than the call timeout, so the
+ * interactions don't wait for a stalled database. The call timeout must also be the query and lock timeout of the
+ * delegate, so a stalled call fails at the deadline. While the breaker is not closed, the bot is in degraded mode: the
+ * writes are queued and the reads fail, the recently used message data is served by the cache in front of the breaker.
+ * A background probe checks the delegate, replays the queued writes in order and closes the breaker after all writes
+ * are replayed, so no read sees the database without the queued writes.
+ */
+@Slf4j
+public class CircuitBreakerMessageDataDAO implements MessageDataDAO, StateEventDAO {
+
+    //a cheap indexed query that doesn't find anything
+    private static final UUID PROBE_CONFIG_ID = new UUID(0, 0);
+    //a queued write that fails this often after a successful probe is dropped, it would block the replay forever
+    private static final int MAX_REPLAY_ATTEMPTS = 3;
+
+    private final MessageDataDAO delegate;
+    private final StateEventDAO stateEventDelegate;
+    private final int failureThreshold;
+    private final Duration callTimeout;
+    private final int maxPendingWrites;
+    private final Queue<QueuedWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingWriteCount = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    //guards the state changes and the queueing of writes while the breaker is not closed
+    private final Object lock = new Object();
+    private volatile State state = State.CLOSED;
+    private volatile Stopwatch degradedStopwatch;
+
+    /**
+     * @param failureThreshold the number of consecutive failed or timed out calls that opens the breaker
+     * @param callTimeout      a call that takes longer counts as failure
+     * @param probeInterval    the interval in which an open breaker checks the delegate
+     * @param maxPendingWrites writes are rejected if more are queued
+     */
+    public <D extends MessageDataDAO & StateEventDAO> CircuitBreakerMessageDataDAO(@NonNull D delegate,
+                                                                                 int failureThreshold,
+                                                                                 @NonNull Duration callTimeout,
+                                                                                 @NonNull Duration probeInterval,
+                                                                                 int maxPendingWrites) {
+        this.delegate = delegate;
+        this.stateEventDelegate = delegate;
+        this.failureThreshold = failureThreshold;
+        this.callTimeout = callTimeout;
+        this.maxPendingWrites = maxPendingWrites;
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.circuit-breaker.state", () -> state.ordinal()).register(globalRegistry);
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.circuit-breaker.pending-writes", pendingWriteCount::get).register(globalRegistry);
+
+        ScheduledExecutorService probeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "message-data-circuit-breaker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        probeExecutor.scheduleWithFixedDelay(this::recoverSafe, probeInterval.toMillis(), probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @VisibleForTesting
+    State getState() {
+        return state;
+    }
+
+    private <T> T call(@NonNull String action, @NonNull Supplier<T> supplier) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final T result;
+        try {
+            result = supplier.get();
+        } catch (RuntimeException e) {
+            recordFailure(action, e.getMessage());
+            throw e;
+        }
+        if (stopwatch.elapsed().compareTo(callTimeout) > 0) {
+            recordFailure(action, "timeout after %dms".formatted(stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+        } else {
+            consecutiveFailures.set(0);
+        }
+        return result;
+    }
+
+    private void execute(@NonNull String action, @NonNull Runnable runnable) {
+        call(action, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    private void recordFailure(String action, String reason) {
+        BotMetrics.incrementCircuitBreakerFailureCounter(action);
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            synchronized (lock) {
+                if (state == State.CLOSED) {
+                    degradedStopwatch = Stopwatch.createStarted();
+                    log.warn("Enter degraded mode after {} failed database calls, last: {} {}", consecutiveFailures.get(), action, reason);
+                }
+                if (state != State.OPEN) {
+                    setState(State.OPEN);
+                }
+            }
+        }
+    }
+
+    private void setState(State newState) {
+        state = newState;
+        BotMetrics.incrementCircuitBreakerStateCounter(newState.name());
+    }
+
+    private void recoverSafe() {
+        try {
+            recover();
+        } catch (Exception e) {
+            log.error("Error in the recovery of the message data", e);
+        }
+    }
+
+    /**
+     * Probes the delegate if the breaker is open and replays the queued writes if the probe was successful
+     */
+    @VisibleForTesting
+    void recover() {
+        if (state != State.OPEN) {
+            return;
+        }
+        try {
+            call("probe", () -> delegate.getAllMessageIdsForConfig(PROBE_CONFIG_ID));
+        } catch (RuntimeException e) {
+            log.warn("Database is still not available: {}", e.getMessage());
+            return;
+        }
+        if (consecutiveFailures.get() > 0) {
+            //the probe was too slow
+            return;
+        }
+        synchronized (lock) {
+            setState(State.RECOVERING);
+        }
+        int replayed = 0;
+        while (true) {
+            QueuedWrite queuedWrite = pendingWrites.peek();
+            if (queuedWrite == null) {
+                synchronized (lock) {
+                    //no write can be queued between the check and the state change
+                    if (pendingWrites.isEmpty()) {
+                        setState(State.CLOSED);
+                        break;
+                    }
+                }
+                continue;
+            }
+            try {
+                execute("replay", () -> queuedWrite.getWrite().apply());
+            } catch (RuntimeException e) {
+                if (queuedWrite.incrementAndGetFailedAttempts() >= MAX_REPLAY_ATTEMPTS) {
+                    log.error("Drop queued write after {} failed attempts", MAX_REPLAY_ATTEMPTS, e);
+                    pendingWrites.poll();
+                    pendingWriteCount.decrementAndGet();
+                    continue;
+                }
+                log.warn("Replay of the queued writes stopped after {} writes: {}", replayed, e.getMessage());
+                synchronized (lock) {
+                    setState(State.OPEN);
+                }
+                return;
+            }
+            pendingWrites.poll();
+            pendingWriteCount.decrementAndGet();
+            replayed++;
+            if (state == State.OPEN) {
+                //the replay was too slow
+                return;
+            }
+        }
+        log.info("Leave degraded mode after {}ms, replayed {} writes", degradedStopwatch.elapsed(TimeUnit.MILLISECONDS), replayed);
+    }
+
+    /**
+     * @return true if the write was queued, false if the write must be executed on the delegate
+     */
+    private boolean queueIfDegraded(PendingWrite pendingWrite) {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        synchronized (lock) {
+            if (state == State.CLOSED) {
+                return false;
+            }
+            if (pendingWriteCount.get() >= maxPendingWrites) {
+                throw new MessageDataUnavailableException("The database is not available and the write queue is full");
+            }
+            pendingWrites.add(new QueuedWrite(pendingWrite));
+            pendingWriteCount.incrementAndGet();
+            return true;
+        }
+    }
+
+    @Override
+    public @NonNull UnitOfWork startUnitOfWork() {
+        //the unit of work acquires the connection only with the first call
+        return delegate.startUnitOfWork();
+    }
+
+    @Override
+    public @NonNull Optional<MessageDataDTO> getDataForMessage(long channelId, long messageId) {
+        requireClosed();
+        return call("getDataForMessage", () -> delegate.getDataForMessage(channelId, messageId));
+    }
+
+    @Override
+    public void markAsAccessed(long channelId, long messageId) {
+        delegate.markAsAccessed(channelId, messageId);
+    }
+
+    @Override
+    public @NonNull Set<Long> getAllMessageIdsForConfig(@NonNull UUID configUUID) {
+        if (state != State.CLOSED) {
+            //the other messages of the config are not found, they are removed with a later click
+            return ImmutableSet.of();
+        }
+        return call("getAllMessageIdsForConfig", () -> delegate.getAllMessageIdsForConfig(configUUID));
+    }
+
+    @Override
+    public void deleteDataForMessage(long channelId, long messageId) {
+        if (!queueIfDegraded(() -> delegate.deleteDataForMessage(channelId, messageId))) {
+            execute("deleteDataForMessage", () -> delegate.deleteDataForMessage(channelId, messageId));
+        }
+    }
+
+    @Override
+    public void deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        final Set<Long> messageIdsCopy = ImmutableSet.copyOf(messageIds);
+        if (!queueIfDegraded(() -> delegate.deleteDataForMessages(channelId, messageIdsCopy))) {
+            execute("deleteDataForMessages", () -> delegate.deleteDataForMessages(channelId, messageIdsCopy));
+        }
+    }
+
+    @Override
+    public @NonNull Set<Long> deleteDataForChannel(long channelId) {
+        //the ids of the deleted messages are only known by the database
+        requireClosed();
+        return call("deleteDataForChannel", () -> delegate.deleteDataForChannel(channelId));
+    }
+
+    /**
+     * In degraded mode the save is queued and the version of the given data is returned. The replay sets the version of
+     * a replaced message data back to this version, so the queued updates that expect it are not dropped.
+     */
+    @Override
+    public long saveMessageData(@NonNull MessageDataDTO messageData) {
+        final long queuedVersion = messageData.getVersion();
+        if (queueIfDegraded(() -> {
+            long savedVersion = delegate.saveMessageData(messageData);
+            if (savedVersion != queuedVersion && !delegate.updateCommandConfigOfMessage(messageData.getChannelId(), messageData.getMessageId(),
+                    savedVersion, queuedVersion, messageData.getStateDataClassId(), messageData.getStateData())) {
+                log.warn("Queued message data of channelId: {}, messageId: {} was changed or deleted after the replay", messageData.getChannelId(), messageData.getMessageId());
+            }
+        })) {
+            return queuedVersion;
+        }
+        return call("saveMessageData", () -> delegate.saveMessageData(messageData));
+    }
+
+    /**
+     * In degraded mode the update is queued and reported as written, the version was already checked by the cache in
+     * front of the breaker. The replay checks the version again and drops the update on a conflict.
+     */
+    @Override
+    public boolean updateCommandConfigOfMessage(long channelId, long messageId, long expectedVersion, long newVersion, @NonNull String stateDataClassId, @Nullable String stateData) {
+        if (queueIfDegraded(() -> {
+            if (!delegate.updateCommandConfigOfMessage(channelId, messageId, expectedVersion, newVersion, stateDataClassId, stateData)) {
+                log.warn("Queued state update of channelId: {}, messageId: {} was not written, the message data was changed or deleted", channelId, messageId);
+            }
+        })) {
+            return true;
+        }
+        return call("updateCommandConfigOfMessage", () -> delegate.updateCommandConfigOfMessage(channelId, messageId, expectedVersion, newVersion, stateDataClassId, stateData));
+    }
+
+    @Override
+    public @NonNull List<StateEventDTO> getStateEvents(long channelId, long messageId, long afterSequence) {
+        //the events are read after the replay of the queued events
+        requireClosed();
+        return call("getStateEvents", () -> stateEventDelegate.getStateEvents(channelId, messageId, afterSequence));
+    }
+
+    /**
+     * In degraded mode the event is queued and reported as appended. The replay appends it only if the sequence is
+     * still free.
+     */
+    @Override
+    public boolean appendStateEvent(long channelId, long messageId, long sequence, @NonNull String buttonValue, @Nullable String userName) {
+        if (queueIfDegraded(() -> {
+            if (!stateEventDelegate.appendStateEvent(channelId, messageId, sequence, buttonValue, userName)) {
+                log.warn("Queued state event of channelId: {}, messageId: {} and sequence: {} was not written", channelId, messageId, sequence);
+            }
+        })) {
+            return true;
+        }
+        return call("appendStateEvent", () -> stateEventDelegate.appendStateEvent(channelId, messageId, sequence, buttonValue, userName));
+    }
+
+    @Override
+    public void snapshotState(long channelId, long messageId, long version, @NonNull String stateDataClassId, @Nullable String stateData) {
+        if (!queueIfDegraded(() -> stateEventDelegate.snapshotState(channelId, messageId, version, stateDataClassId, stateData))) {
+            execute("snapshotState", () -> stateEventDelegate.snapshotState(channelId, messageId, version, stateDataClassId, stateData));
+        }
+    }
+
+    private void requireClosed() {
+        if (state != State.CLOSED) {
+            throw new MessageDataUnavailableException("The database is not available");
+        }
+    }
+
+    enum State {
+        CLOSED,
+        //the delegate is not called
+        OPEN,
+        //the queued writes are replayed, the reads still fail
+        RECOVERING
+    }
+
+    @FunctionalInterface
+    private interface PendingWrite {
+        void apply();
+    }
+
+    private static class QueuedWrite {
+        @Getter
+        private final PendingWrite write;
+        private int failedAttempts;
+
+        QueuedWrite(PendingWrite write) {
+            this.write = write;
+        }
+
+        int incrementAndGetFailedAttempts() {
+            return ++failedAttempts;
+        }
+    }
+}
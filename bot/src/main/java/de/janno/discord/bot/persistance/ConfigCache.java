@@ -0,0 +1,59 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.janno.discord.bot.BotMetrics;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * A config is not modified after its creation, so the deserialized config can be reused for every message with the same
+ * config id. The size of the cache is limited by the length of the serialized configs.
+ */
+public final class ConfigCache {
+
+    //about the number of characters of all cached serialized configs
+    private static final long MAX_WEIGHT = 20_000_000;
+    private static final Cache<UUID, WeightedConfig> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT)
+            .<UUID, WeightedConfig>weigher((configUUID, weightedConfig) -> weightedConfig.getWeight())
+            .recordStats()
+            .build();
+
+    static {
+        BotMetrics.cacheMetrics("config", cache);
+    }
+
+    private ConfigCache() {
+    }
+
+    /**
+     * Returns the cached config for the config id or deserialize the config and add it to the cache.
+     */
+    public static <T> T getOrDeserialize(@NonNull UUID configUUID, @NonNull String serializedConfig, @NonNull Class<T> configClass) {
+        WeightedConfig cached = cache.getIfPresent(configUUID);
+        if (cached != null && configClass.isInstance(cached.getConfig())) {
+            return configClass.cast(cached.getConfig());
+        }
+        T config = Mapper.deserializeObject(serializedConfig, configClass);
+        cache.put(configUUID, new WeightedConfig(config, serializedConfig.length()));
+        return config;
+    }
+
+    /**
+     * @return the deserialized config, if it is cached
+     */
+    static Optional<Object> getIfPresent(@NonNull UUID configUUID) {
+        return Optional.ofNullable(cache.getIfPresent(configUUID)).map(WeightedConfig::getConfig);
+    }
+
+    @Value
+    private static class WeightedConfig {
+        @NonNull
+        Object config;
+        int weight;
+    }
+}
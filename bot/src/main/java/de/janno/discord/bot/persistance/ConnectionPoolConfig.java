@@ -0,0 +1,49 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+public class ConnectionPoolConfig {
+
+    //the defaults of the h2 connection pool
+    public static final ConnectionPoolConfig DEFAULT = new ConnectionPoolConfig(10, Duration.ofSeconds(30), 10, Duration.ZERO);
+
+    /**
+     * the max number of open connections, the adaptive sizing doesn't go below it
+     */
+    int maxConnections;
+    /**
+     * the max time a thread waits for a free connection
+     */
+    @NonNull
+    Duration loginTimeout;
+    /**
+     * if larger than the max connections, the pool grows up to this size if the threads have to wait for a connection
+     * and shrinks back if the connections are not needed
+     */
+    int adaptiveMaxConnections;
+    /**
+     * the max time of a statement and of the wait for a lock, zero for the defaults of h2
+     */
+    @NonNull
+    Duration queryTimeout;
+
+    public ConnectionPoolConfig(int maxConnections, @NonNull Duration loginTimeout, int adaptiveMaxConnections, @NonNull Duration queryTimeout) {
+        Preconditions.checkArgument(maxConnections > 0, "maxConnections must be positive: %s", maxConnections);
+        Preconditions.checkArgument(adaptiveMaxConnections >= maxConnections, "adaptiveMaxConnections must not be smaller than maxConnections: %s < %s", adaptiveMaxConnections, maxConnections);
+        Preconditions.checkArgument(!loginTimeout.isNegative() && !loginTimeout.isZero(), "loginTimeout must be positive: %s", loginTimeout);
+        Preconditions.checkArgument(!queryTimeout.isNegative(), "queryTimeout must not be negative: %s", queryTimeout);
+        this.maxConnections = maxConnections;
+        this.loginTimeout = loginTimeout;
+        this.adaptiveMaxConnections = adaptiveMaxConnections;
+        this.queryTimeout = queryTimeout;
+    }
+
+    boolean isAdaptive() {
+        return adaptiveMaxConnections > maxConnections;
+    }
+}
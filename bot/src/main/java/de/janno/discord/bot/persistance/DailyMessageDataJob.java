@@ -0,0 +1,151 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A job that runs once a day at the start time and processes the selected messages in small transactions with a pause
+ * between them, so it doesn't block the interactions.
+ */
+@Slf4j
+abstract class DailyMessageDataJob {
+
+    static final int SELECT_LIMIT = 10_000;
+    //the pause after a batch is at least this factor of the batch duration
+    static final int PAUSE_FACTOR = 10;
+
+    protected final MessageDataDAOImpl messageDataDAO;
+    protected final int batchSize;
+    protected final Duration maxRunDuration;
+    protected final ScheduledExecutorService executorService;
+    private final MessageDataCacheInvalidation cacheInvalidation;
+    private final String name;
+    private final Duration minPause;
+
+    /**
+     * @param name              the name of the job in the thread name and the log
+     * @param cacheInvalidation the cache in front of the database, the removed messages are invalidated in it
+     * @param batchSize         the number of messages that are processed in one transaction
+     * @param minPause          the minimal pause between two batches
+     * @param maxRunDuration    the job stops after this duration and continues on the next day
+     */
+    DailyMessageDataJob(@NonNull String name,
+                        @NonNull MessageDataDAOImpl messageDataDAO,
+                        @NonNull MessageDataCacheInvalidation cacheInvalidation,
+                        int batchSize,
+                        @NonNull Duration minPause,
+                        @NonNull Duration maxRunDuration) {
+        this.name = name;
+        this.messageDataDAO = messageDataDAO;
+        this.cacheInvalidation = cacheInvalidation;
+        this.batchSize = batchSize;
+        this.minPause = minPause;
+        this.maxRunDuration = maxRunDuration;
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name.replace(' ', '-'));
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    private static Duration getDelayUntil(LocalTime startTime) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime nextStart = now.with(startTime);
+        if (!nextStart.isAfter(now)) {
+            nextStart = nextStart.plusDays(1);
+        }
+        return Duration.between(now, nextStart);
+    }
+
+    /**
+     * Schedules the daily run, must be called at the end of the constructor of the job
+     */
+    protected void scheduleDaily(@NonNull LocalTime startTime) {
+        executorService.scheduleAtFixedRate(this::runSafe, getDelayUntil(startTime).toMillis(), Duration.ofDays(1).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void runSafe() {
+        try {
+            run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Error in {}", name, e);
+        }
+    }
+
+    /**
+     * @return the number of processed messages
+     */
+    abstract int run() throws InterruptedException;
+
+    protected boolean isRunDurationExceeded(@NonNull Stopwatch stopwatch) {
+        return stopwatch.elapsed().compareTo(maxRunDuration) > 0;
+    }
+
+    protected void pauseAfter(@NonNull Stopwatch batchStopwatch) throws InterruptedException {
+        Thread.sleep(Math.max(minPause.toMillis(), batchStopwatch.elapsed(TimeUnit.MILLISECONDS) * PAUSE_FACTOR));
+    }
+
+    /**
+     * Processes all selected messages in batches, until no message is selected anymore or the run duration is exceeded.
+     * The next messages are selected after the last one, so messages that were kept by a batch are not selected again.
+     * The messages that were removed by a batch are invalidated in the cache.
+     *
+     * @return the number of removed messages
+     */
+    protected int processSelected(@NonNull Stopwatch stopwatch, @NonNull Selection selection, @NonNull Batch batch) throws InterruptedException {
+        int processed = 0;
+        List<MessageDataDAOImpl.StoredMessage> candidates = selection.select(null, SELECT_LIMIT);
+        while (!candidates.isEmpty()) {
+            for (List<MessageDataDAOImpl.StoredMessage> messages : Lists.partition(candidates, batchSize)) {
+                if (isRunDurationExceeded(stopwatch)) {
+                    return processed;
+                }
+                Stopwatch batchStopwatch = Stopwatch.createStarted();
+                List<MessageDataDAOImpl.StoredMessage> removed = batch.process(messages);
+                removed.stream()
+                        .collect(Collectors.groupingBy(MessageDataDAOImpl.StoredMessage::getChannelId,
+                                Collectors.mapping(MessageDataDAOImpl.StoredMessage::getMessageId, Collectors.toList())))
+                        .forEach(cacheInvalidation::invalidateMessages);
+                processed += removed.size();
+                pauseAfter(batchStopwatch);
+            }
+            if (candidates.size() < SELECT_LIMIT) {
+                break;
+            }
+            candidates = selection.select(Iterables.getLast(candidates), SELECT_LIMIT);
+        }
+        return processed;
+    }
+
+    @FunctionalInterface
+    interface Selection {
+        /**
+         * @return the messages ordered by the primary key, starting after the given message
+         */
+        List<MessageDataDAOImpl.StoredMessage> select(@Nullable MessageDataDAOImpl.StoredMessage after, int limit);
+    }
+
+    @FunctionalInterface
+    interface Batch {
+        /**
+         * @return the messages that were removed from MESSAGE_DATA
+         */
+        List<MessageDataDAOImpl.StoredMessage> process(List<MessageDataDAOImpl.StoredMessage> messages);
+    }
+}
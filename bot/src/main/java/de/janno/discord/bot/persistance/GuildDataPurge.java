@@ -0,0 +1,168 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Sets;
+import de.janno.discord.bot.BotMetrics;
+import de.janno.discord.connector.api.GuildMembershipListener;
+import io.micrometer.core.instrument.Gauge;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static io.micrometer.core.instrument.Metrics.globalRegistry;
+
+/**
+ * Removes the message data of guilds the bot left. A guild is purged after a grace period, so its data is kept if the
+ * bot is added again. Guilds that were left while the bot was offline are found by a periodic reconciliation of the
+ * guilds in the database with the guilds of the bot. The rows are deleted in small transactions with a pause between
+ * them, so the purge doesn't block the interactions.
+ */
+@Slf4j
+public class GuildDataPurge implements GuildMembershipListener {
+
+    //the pause after a chunk is at least this factor of the chunk duration
+    private static final int PAUSE_FACTOR = 10;
+
+    private final MessageDataDAOImpl messageDataDAO;
+    private final MessageDataCacheInvalidation cacheInvalidation;
+    private final Duration gracePeriod;
+    private final Duration reconciliationInterval;
+    private final int chunkSize;
+    private final Duration minPause;
+    private final ScheduledExecutorService executorService;
+    //guilds with a scheduled or running purge, the purge stops if the guild is removed
+    private final Set<Long> pendingGuildIds = ConcurrentHashMap.newKeySet();
+    private volatile Supplier<Set<Long>> currentGuildIds;
+
+    /**
+     * @param cacheInvalidation      the cache in front of the database, the messages of a purged guild are invalidated in it
+     * @param gracePeriod            the purge of a guild starts after this duration, if the bot was not added again
+     * @param reconciliationInterval the interval of the search for guilds in the database the bot is not in
+     * @param chunkSize              the number of messages that are deleted in one transaction
+     * @param minPause               the minimal pause between two chunks
+     */
+    public GuildDataPurge(@NonNull MessageDataDAOImpl messageDataDAO,
+                          @NonNull MessageDataCacheInvalidation cacheInvalidation,
+                          @NonNull Duration gracePeriod,
+                          @NonNull Duration reconciliationInterval,
+                          int chunkSize,
+                          @NonNull Duration minPause) {
+        this.messageDataDAO = messageDataDAO;
+        this.cacheInvalidation = cacheInvalidation;
+        this.gracePeriod = gracePeriod;
+        this.reconciliationInterval = reconciliationInterval;
+        this.chunkSize = chunkSize;
+        this.minPause = minPause;
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "guild-data-purge");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.guild-purge.pending", pendingGuildIds::size).register(globalRegistry);
+    }
+
+    @Override
+    public void guildJoined(long guildId) {
+        if (pendingGuildIds.remove(guildId)) {
+            log.info("purge of the data of guild {} canceled", guildId);
+        }
+    }
+
+    @Override
+    public void guildLeft(long guildId) {
+        schedulePurge(guildId);
+    }
+
+    /**
+     * The first reconciliation starts after the grace period, so guilds that were unavailable at the start had time to
+     * get ready.
+     */
+    @Override
+    public void allGuildsReady(@NonNull Supplier<Set<Long>> currentGuildIds) {
+        this.currentGuildIds = currentGuildIds;
+        executorService.scheduleWithFixedDelay(this::reconcileSafe, gracePeriod.toMillis(), reconciliationInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void schedulePurge(long guildId) {
+        if (pendingGuildIds.add(guildId)) {
+            executorService.schedule(() -> purgeSafe(guildId), gracePeriod.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reconcileSafe() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("Error in guild reconciliation", e);
+        }
+    }
+
+    private void purgeSafe(long guildId) {
+        try {
+            purge(guildId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Error in purge of the data of guild {}", guildId, e);
+        }
+    }
+
+    /**
+     * Schedules the purge of all guilds in the database the bot is not in
+     *
+     * @return the number of guilds the bot is not in
+     */
+    int reconcile() {
+        final Set<Long> guildIds = currentGuildIds.get();
+        if (guildIds.isEmpty()) {
+            //the bot is not connected, it would purge everything
+            log.warn("guild reconciliation skipped, the bot is in no guild");
+            return 0;
+        }
+        final Set<Long> leftGuildIds = Sets.difference(messageDataDAO.getAllGuildIds(), guildIds).immutableCopy();
+        leftGuildIds.forEach(this::schedulePurge);
+        log.info("guild reconciliation found {} guilds with data the bot is not in", leftGuildIds.size());
+        return leftGuildIds.size();
+    }
+
+    /**
+     * Deletes the data of the guild in chunks, until all data is deleted or the purge was canceled
+     *
+     * @return the number of deleted messages
+     */
+    int purge(long guildId) throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int deleted = 0;
+        try {
+            if (currentGuildIds != null && currentGuildIds.get().contains(guildId)) {
+                log.info("purge of the data of guild {} skipped, the bot is in the guild", guildId);
+                return 0;
+            }
+            while (pendingGuildIds.contains(guildId)) {
+                Stopwatch chunkStopwatch = Stopwatch.createStarted();
+                int chunkDeleted = messageDataDAO.deleteDataForGuild(guildId, chunkSize);
+                cacheInvalidation.invalidateGuild(guildId);
+                deleted += chunkDeleted;
+                BotMetrics.guildDataPurgeRows(chunkDeleted);
+                if (chunkDeleted < chunkSize) {
+                    BotMetrics.incrementGuildDataPurgeCompletedCounter();
+                    break;
+                }
+                long pauseMillis = Math.max(minPause.toMillis(), chunkStopwatch.elapsed(TimeUnit.MILLISECONDS) * PAUSE_FACTOR);
+                Thread.sleep(pauseMillis);
+            }
+        } finally {
+            pendingGuildIds.remove(guildId);
+        }
+        log.info("purge of the data of guild {} deleted {} messages in {}ms", guildId, deleted, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return deleted;
+    }
+}
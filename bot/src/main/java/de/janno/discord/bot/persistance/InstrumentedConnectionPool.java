@@ -0,0 +1,182 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import de.janno.discord.bot.BotMetrics;
+import io.micrometer.core.instrument.Gauge;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static io.micrometer.core.instrument.Metrics.globalRegistry;
+
+/**
+ * The h2 connection pool with metrics of the wait time for a connection and an optional adaptive max size. The adaptive
+ * sizing checks the wait times periodically: the pool grows if the threads waited for a connection and shrinks if only
+ * a small part of the connections was used.
+ */
+@Slf4j
+class InstrumentedConnectionPool implements DataSource {
+
+    //h2 reports the login timeout of the pool with the state of a failed connection
+    private static final String LOGIN_TIMEOUT_SQL_STATE = "08001";
+    private static final long ADJUST_INTERVAL_MS = 10_000;
+    //the average wait time of an interval above it grows the pool
+    private static final long GROW_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    //the average wait time of an interval below it allows the pool to shrink
+    private static final long SHRINK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final JdbcConnectionPool connectionPool;
+    private final ConnectionPoolConfig config;
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+    //the statistics since the last adjustment of the size
+    private final LongAdder intervalWaitNanos = new LongAdder();
+    private final LongAdder intervalAcquisitions = new LongAdder();
+    private final LongAdder intervalTimeouts = new LongAdder();
+    private final AtomicInteger intervalPeakActive = new AtomicInteger();
+
+    InstrumentedConnectionPool(@NonNull String url, String user, String password, @NonNull ConnectionPoolConfig config) {
+        this.config = config;
+        connectionPool = JdbcConnectionPool.create(withQueryTimeout(url, config.getQueryTimeout()), user, password);
+        connectionPool.setMaxConnections(config.getMaxConnections());
+        connectionPool.setLoginTimeout((int) Math.max(1, config.getLoginTimeout().toSeconds()));
+
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.pool.active", connectionPool, JdbcConnectionPool::getActiveConnections).register(globalRegistry);
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.pool.max", connectionPool, JdbcConnectionPool::getMaxConnections).register(globalRegistry);
+        //h2 doesn't expose the number of idle connections, the headroom is the number of connections that can still be used
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.pool.available", connectionPool, p -> Math.max(0, p.getMaxConnections() - p.getActiveConnections())).register(globalRegistry);
+        Gauge.builder(BotMetrics.METRIC_PREFIX + "db.pool.pending", waitingThreads::get).register(globalRegistry);
+
+        if (config.isAdaptive()) {
+            ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-pool-sizing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executorService.scheduleWithFixedDelay(this::adjustMaxConnectionsSafe, ADJUST_INTERVAL_MS, ADJUST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //a statement on a stalled database fails after the timeout instead of blocking its thread
+    private static String withQueryTimeout(String url, Duration queryTimeout) {
+        if (queryTimeout.isZero()) {
+            return url;
+        }
+        return url + ";QUERY_TIMEOUT=" + queryTimeout.toMillis() + ";LOCK_TIMEOUT=" + queryTimeout.toMillis();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        waitingThreads.incrementAndGet();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            Connection connection = connectionPool.getConnection();
+            long waitNanos = stopwatch.elapsed(TimeUnit.NANOSECONDS);
+            BotMetrics.databasePoolWaitTimer(stopwatch.elapsed());
+            intervalWaitNanos.add(waitNanos);
+            intervalAcquisitions.increment();
+            intervalPeakActive.accumulateAndGet(connectionPool.getActiveConnections(), Math::max);
+            return connection;
+        } catch (SQLException e) {
+            if (LOGIN_TIMEOUT_SQL_STATE.equals(e.getSQLState())) {
+                BotMetrics.incrementDatabasePoolTimeoutCounter();
+                intervalTimeouts.increment();
+            }
+            throw e;
+        } finally {
+            waitingThreads.decrementAndGet();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) {
+        throw new UnsupportedOperationException("the pool uses the user of its creation");
+    }
+
+    int getMaxConnections() {
+        return connectionPool.getMaxConnections();
+    }
+
+    void dispose() {
+        connectionPool.dispose();
+    }
+
+    private void adjustMaxConnectionsSafe() {
+        try {
+            adjustMaxConnections();
+        } catch (Exception e) {
+            log.error("Error while adjusting the connection pool size", e);
+        }
+    }
+
+    /**
+     * Grows or shrinks the max connections by one, depending on the wait times since the last call
+     */
+    @VisibleForTesting
+    void adjustMaxConnections() {
+        final long acquisitions = intervalAcquisitions.sumThenReset();
+        final long waitNanos = intervalWaitNanos.sumThenReset();
+        final long timeouts = intervalTimeouts.sumThenReset();
+        final int peakActive = intervalPeakActive.getAndSet(0);
+        final long averageWaitNanos = acquisitions == 0 ? 0 : waitNanos / acquisitions;
+        final int current = connectionPool.getMaxConnections();
+        if ((timeouts > 0 || averageWaitNanos > GROW_WAIT_NANOS) && current < config.getAdaptiveMaxConnections()) {
+            connectionPool.setMaxConnections(current + 1);
+            log.info("Grow connection pool to {}, average wait {}µs, {} timeouts", current + 1, TimeUnit.NANOSECONDS.toMicros(averageWaitNanos), timeouts);
+        } else if (timeouts == 0 && averageWaitNanos < SHRINK_WAIT_NANOS && peakActive < current / 2 && current > config.getMaxConnections()) {
+            connectionPool.setMaxConnections(current - 1);
+            log.info("Shrink connection pool to {}, peak active connections {}", current - 1, peakActive);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return connectionPool.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        connectionPool.setLogWriter(out);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return connectionPool.getLoginTimeout();
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        connectionPool.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return connectionPool.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(connectionPool)) {
+            return iface.cast(connectionPool);
+        }
+        return connectionPool.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(connectionPool) || connectionPool.isWrapperFor(iface);
+    }
+}
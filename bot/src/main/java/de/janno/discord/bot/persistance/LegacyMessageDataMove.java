@@ -0,0 +1,261 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static de.janno.discord.bot.persistance.MessageDataSchema.LEGACY_MESSAGE_DATA_TABLE;
+
+/**
+ * Moves the rows of the message data table of schema version 1 into MESSAGE_DATA. The rows are moved in the background
+ * after the start and a message that is not yet moved is moved with its first read. The table is dropped after the
+ * move, the operations that use it hold the read lock of the table, so it is not dropped under them.
+ */
+@Slf4j
+class LegacyMessageDataMove {
+
+    private static final int MOVE_CHUNK_SIZE = 1_000;
+    //the pause between two chunks of the move, as a multiple of the execution time of the chunk
+    private static final int MOVE_PAUSE_FACTOR = 2;
+    private static final String LEGACY_MESSAGE_DATA_COLUMNS = "CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION";
+    private static final String MOVE_LEGACY_MESSAGE_DATA_SQL = """
+            MERGE INTO MESSAGE_DATA MD
+            USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS UUID), CAST(? AS BIGINT), CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS TIMESTAMP), CAST(? AS TIMESTAMP), CAST(? AS BIGINT)))
+            S(CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION)
+            ON MD.CHANNEL_ID = S.CHANNEL_ID AND MD.MESSAGE_ID = S.MESSAGE_ID
+            WHEN NOT MATCHED THEN INSERT (CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION)
+            VALUES (S.CHANNEL_ID, S.MESSAGE_ID, S.CONFIG_ID, S.GUILD_ID, S.STATE_CLASS_ID, S.STATE, S.CREATION_DATE, S.LAST_ACCESS, S.VERSION)
+            """;
+
+    private final DataSource dataSource;
+    private final MessageDataStatistics statistics;
+    //runs after the drop of the table, while no operation uses it
+    private final Runnable afterDrop;
+    private final ReadWriteLock tableLock = new ReentrantReadWriteLock();
+    private volatile boolean tableExists;
+
+    /**
+     * @param tableExists if the legacy table exists at the start
+     * @param afterDrop   runs after the drop of the legacy table
+     */
+    LegacyMessageDataMove(@NonNull DataSource dataSource, @NonNull MessageDataStatistics statistics, boolean tableExists, @NonNull Runnable afterDrop) {
+        this.dataSource = dataSource;
+        this.statistics = statistics;
+        this.tableExists = tableExists;
+        this.afterDrop = afterDrop;
+    }
+
+    /**
+     * False after the drop of the legacy table. An operation that uses the table must check it again while it holds the
+     * read lock of the table.
+     */
+    boolean tableExists() {
+        return tableExists;
+    }
+
+    Lock tableReadLock() {
+        return tableLock.readLock();
+    }
+
+    /**
+     * Moves up to limit rows of the legacy table into MESSAGE_DATA, in one transaction
+     *
+     * @param statistics the statistics of the moved rows, null if there are none
+     * @return the number of moved rows, 0 if the legacy table is empty
+     */
+    static int moveLegacyMessageData(Connection con, int limit, @Nullable MessageDataStatistics statistics) throws SQLException {
+        try (PreparedStatement claimStatement = con.prepareStatement("SELECT " + LEGACY_MESSAGE_DATA_COLUMNS + " FROM OLD TABLE (DELETE FROM " + LEGACY_MESSAGE_DATA_TABLE + " FETCH FIRST ? ROWS ONLY)")) {
+            claimStatement.setInt(1, limit);
+            return moveLegacyRows(con, claimStatement, statistics);
+        }
+    }
+
+    /**
+     * Moves all rows of the legacy table into MESSAGE_DATA and drops it, for tools that use the database while the bot
+     * is stopped
+     */
+    static void moveAllLegacyMessageData(Connection con) throws SQLException {
+        if (!MessageDataSchema.tableExists(con, LEGACY_MESSAGE_DATA_TABLE)) {
+            return;
+        }
+        int movedRows = 0;
+        int chunkRows;
+        do {
+            chunkRows = moveLegacyMessageData(con, MOVE_CHUNK_SIZE, null);
+            movedRows += chunkRows;
+        } while (chunkRows > 0);
+        dropLegacyTable(con);
+        log.info("moved {} rows of {} into MESSAGE_DATA", movedRows, LEGACY_MESSAGE_DATA_TABLE);
+    }
+
+    //the delete claims the rows, a concurrent move of the same rows waits and finds nothing
+    private static int moveLegacyRows(Connection con, PreparedStatement claimStatement, @Nullable MessageDataStatistics statistics) throws SQLException {
+        final boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        final List<Runnable> afterCommit = new ArrayList<>();
+        int movedRows = 0;
+        try (PreparedStatement mergeStatement = con.prepareStatement(MOVE_LEGACY_MESSAGE_DATA_SQL)) {
+            ResultSet resultSet = claimStatement.executeQuery();
+            while (resultSet.next()) {
+                final long channelId = resultSet.getLong("CHANNEL_ID");
+                final Long guildId = resultSet.getObject("GUILD_ID", Long.class);
+                mergeStatement.setLong(1, channelId);
+                mergeStatement.setLong(2, resultSet.getLong("MESSAGE_ID"));
+                mergeStatement.setObject(3, resultSet.getObject("CONFIG_ID", UUID.class));
+                mergeStatement.setObject(4, guildId);
+                mergeStatement.setString(5, resultSet.getString("STATE_CLASS_ID"));
+                mergeStatement.setString(6, resultSet.getString("STATE"));
+                mergeStatement.setTimestamp(7, resultSet.getTimestamp("CREATION_DATE"));
+                mergeStatement.setTimestamp(8, resultSet.getTimestamp("LAST_ACCESS"));
+                mergeStatement.setLong(9, resultSet.getLong("VERSION"));
+                mergeStatement.addBatch();
+                movedRows++;
+                if (statistics != null) {
+                    afterCommit.add(() -> statistics.rowAdded(channelId, guildId));
+                }
+            }
+            //a message that was saved again after the migration is already in MESSAGE_DATA and keeps the new data
+            mergeStatement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+        afterCommit.forEach(Runnable::run);
+        return movedRows;
+    }
+
+    //the configs of the legacy rows are kept until the move is complete, the unused of them are removed with the drop
+    private static void dropLegacyTable(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + LEGACY_MESSAGE_DATA_TABLE);
+            statement.executeUpdate("DELETE FROM MESSAGE_CONFIG MC WHERE NOT EXISTS (SELECT 1 FROM MESSAGE_DATA MD WHERE MD.CONFIG_ID = MC.CONFIG_ID)");
+        }
+    }
+
+    /**
+     * Starts the move of the rows in the background, if the legacy table exists
+     */
+    void start() {
+        if (!tableExists) {
+            return;
+        }
+        Thread thread = new Thread(this::moveLegacyMessageDataSafe, "message-data-migration");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void moveLegacyMessageDataSafe() {
+        try {
+            moveLegacyMessageDataInBackground();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Error in the move of the rows of " + LEGACY_MESSAGE_DATA_TABLE, e);
+        }
+    }
+
+    /**
+     * Moves the rows of the legacy table in chunks and drops it at the end. The pause after each chunk leaves the
+     * database to the interactions.
+     */
+    private void moveLegacyMessageDataInBackground() throws InterruptedException, SQLException {
+        log.info("start moving the rows of {} into MESSAGE_DATA", LEGACY_MESSAGE_DATA_TABLE);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int movedRows = 0;
+        int chunkRows;
+        do {
+            Stopwatch chunkStopwatch = Stopwatch.createStarted();
+            try (Connection con = dataSource.getConnection()) {
+                chunkRows = moveLegacyMessageData(con, MOVE_CHUNK_SIZE, statistics);
+            }
+            movedRows += chunkRows;
+            Thread.sleep(Math.max(1, chunkStopwatch.elapsed(TimeUnit.MILLISECONDS) * MOVE_PAUSE_FACTOR));
+        } while (chunkRows > 0);
+        //no operation writes into the legacy table, so it stays empty
+        tableLock.writeLock().lock();
+        try {
+            try (Connection con = dataSource.getConnection()) {
+                dropLegacyTable(con);
+            }
+            tableExists = false;
+            afterDrop.run();
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+        log.info("moved {} rows of {} into MESSAGE_DATA in {}ms", movedRows, LEGACY_MESSAGE_DATA_TABLE, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A message that is not yet moved by the background move is moved with its first read
+     *
+     * @return true if the message was moved
+     */
+    boolean moveLegacyMessage(Connection con, long channelId, long messageId) throws SQLException {
+        if (!tableExists) {
+            return false;
+        }
+        tableLock.readLock().lock();
+        try {
+            if (!tableExists) {
+                return false;
+            }
+            try (PreparedStatement claimStatement = con.prepareStatement("SELECT " + LEGACY_MESSAGE_DATA_COLUMNS + " FROM OLD TABLE (DELETE FROM " + LEGACY_MESSAGE_DATA_TABLE + " WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?)")) {
+                claimStatement.setLong(1, channelId);
+                claimStatement.setLong(2, messageId);
+                return moveLegacyRows(con, claimStatement, statistics) > 0;
+            }
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the rows of the legacy table that match the condition. The message data must be deleted in the legacy
+     * table too, or the background move would bring the deleted messages back.
+     *
+     * @return the ids of the deleted messages
+     */
+    Set<Long> deleteLegacyMessageData(Connection con, String condition, MessageDataWriteBatcher.StatementBinder binder) throws SQLException {
+        if (!tableExists) {
+            return ImmutableSet.of();
+        }
+        tableLock.readLock().lock();
+        try {
+            if (!tableExists) {
+                return ImmutableSet.of();
+            }
+            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT MESSAGE_ID FROM OLD TABLE (DELETE FROM " + LEGACY_MESSAGE_DATA_TABLE + " WHERE " + condition + ")")) {
+                binder.bind(preparedStatement);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                final ImmutableSet.Builder<Long> resultBuilder = ImmutableSet.builder();
+                while (resultSet.next()) {
+                    resultBuilder.add(resultSet.getLong("MESSAGE_ID"));
+                }
+                return resultBuilder.build();
+            }
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package de.janno.discord.bot.persistance;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open addressing hash map from a pair of longs to a non-negative long, stored off-heap in a direct buffer. A slot
+ * contains the two keys and the value plus one, so the zeroed buffer is empty. Not thread safe.
+ */
+class LongPairIndex {
+
+    private static final int SLOT_SIZE = 24;
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final double MAX_LOAD = 0.6;
+
+    private ByteBuffer slots;
+    private int capacity;
+    private int size;
+    //entries and deleted slots, both extend the probe sequences
+    private int usedSlots;
+
+    LongPairIndex(int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit((int) (expectedSize / MAX_LOAD)) << 1));
+    }
+
+    private static int hash(long first, long second) {
+        long h = first * 0x9E3779B97F4A7C15L ^ second;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        size = 0;
+        usedSlots = 0;
+    }
+
+    /**
+     * @return the value or -1 if there is no value for the keys
+     */
+    long get(long first, long second) {
+        int slot = findSlot(first, second);
+        return slot < 0 ? -1 : slots.getLong(slot * SLOT_SIZE + 16) - 1;
+    }
+
+    /**
+     * @return the previous value or -1 if there was no value for the keys
+     */
+    long put(long first, long second, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        int existing = findSlot(first, second);
+        if (existing >= 0) {
+            long previous = slots.getLong(existing * SLOT_SIZE + 16) - 1;
+            slots.putLong(existing * SLOT_SIZE + 16, value + 1);
+            return previous;
+        }
+        if (usedSlots + 1 > capacity * MAX_LOAD) {
+            //only grow if the entries and not the deleted slots fill the table
+            rehash(size + 1 > capacity * MAX_LOAD / 2 ? capacity << 1 : capacity);
+        }
+        int mask = capacity - 1;
+        int slot = hash(first, second) & mask;
+        while (true) {
+            long slotValue = slots.getLong(slot * SLOT_SIZE + 16);
+            if (slotValue == EMPTY || slotValue == DELETED) {
+                slots.putLong(slot * SLOT_SIZE, first);
+                slots.putLong(slot * SLOT_SIZE + 8, second);
+                slots.putLong(slot * SLOT_SIZE + 16, value + 1);
+                size++;
+                if (slotValue == EMPTY) {
+                    usedSlots++;
+                }
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the removed value or -1 if there was no value for the keys
+     */
+    long remove(long first, long second) {
+        int slot = findSlot(first, second);
+        if (slot < 0) {
+            return -1;
+        }
+        long previous = slots.getLong(slot * SLOT_SIZE + 16) - 1;
+        slots.putLong(slot * SLOT_SIZE + 16, DELETED);
+        size--;
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < capacity; slot++) {
+            long slotValue = slots.getLong(slot * SLOT_SIZE + 16);
+            if (slotValue != EMPTY && slotValue != DELETED) {
+                consumer.accept(slots.getLong(slot * SLOT_SIZE), slots.getLong(slot * SLOT_SIZE + 8), slotValue - 1);
+            }
+        }
+    }
+
+    private int findSlot(long first, long second) {
+        int mask = capacity - 1;
+        int slot = hash(first, second) & mask;
+        while (true) {
+            long slotValue = slots.getLong(slot * SLOT_SIZE + 16);
+            if (slotValue == EMPTY) {
+                return -1;
+            }
+            if (slotValue != DELETED && slots.getLong(slot * SLOT_SIZE) == first && slots.getLong(slot * SLOT_SIZE + 8) == second) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        allocate(newCapacity);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long slotValue = oldSlots.getLong(slot * SLOT_SIZE + 16);
+            if (slotValue != EMPTY && slotValue != DELETED) {
+                put(oldSlots.getLong(slot * SLOT_SIZE), oldSlots.getLong(slot * SLOT_SIZE + 8), slotValue - 1);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long first, long second, long value);
+    }
+}
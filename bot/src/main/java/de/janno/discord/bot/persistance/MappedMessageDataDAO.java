@@ -0,0 +1,476 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import de.janno.discord.bot.BotMetrics;
+import io.micrometer.core.instrument.Gauge;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import static io.micrometer.core.instrument.Metrics.globalRegistry;
+
+/**
+ * Stores the message data in a memory mapped append only log instead of a database. Every change appends a record, the
+ * position of the current record of each message is kept in an off-heap index. The log is compacted into a new file if
+ * most of it are outdated records. Changes are written to the disk with the force interval, so a crash can lose the
+ * changes of the last interval.
+ */
+@Slf4j
+public class MappedMessageDataDAO implements MessageDataDAO {
+
+    private static final byte CONFIG_RECORD = 1;
+    private static final byte MESSAGE_RECORD = 2;
+    private static final byte DELETE_MESSAGE_RECORD = 3;
+    private static final byte DELETE_CHANNEL_RECORD = 4;
+    private static final int INITIAL_SIZE = 64 * 1024 * 1024;
+    private static final int MIN_COMPACTION_SIZE = 16 * 1024 * 1024;
+    private static final UnitOfWork NO_UNIT_OF_WORK = () -> {
+    };
+
+    private final Path path;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Runnable> beforeShutdownActions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executorService;
+    private final Map<UUID, Long> configPositions = new HashMap<>();
+    private final Map<UUID, Set<Long>> messageIdsPerConfig = new HashMap<>();
+    private final Map<Long, Set<Long>> messageIdsPerChannel = new HashMap<>();
+    private MessageDataLog messageLog;
+    //position of the current record of each message
+    private LongPairIndex messagePositions = new LongPairIndex(1024);
+    //bytes of the records that are replaced or deleted
+    private long garbageBytes;
+
+    /**
+     * @param path          the file of the log
+     * @param forceInterval the interval in which the changes are written to the disk
+     */
+    public MappedMessageDataDAO(@NonNull Path path, @NonNull Duration forceInterval) {
+        this.path = path;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            //the old log is only replaced after the compacted log is complete
+            Files.deleteIfExists(getCompactionPath());
+            messageLog = new MessageDataLog(path, INITIAL_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        messageLog.replay(this::applyRecord);
+        //the config of a message that was not written before a crash
+        new ArrayList<>(configPositions.keySet()).stream()
+                .filter(configId -> !messageIdsPerConfig.containsKey(configId))
+                .forEach(this::removeConfig);
+        log.info("loaded {} messages with {} configs from {} in {}ms", messagePositions.size(), configPositions.size(), path, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+        Gauge.builder("db.channel.count", () -> readLocked(messageIdsPerChannel::size)).register(globalRegistry);
+        Gauge.builder("db.message.count", () -> readLocked(messagePositions::size)).register(globalRegistry);
+        Gauge.builder("db.log.bytes", () -> readLocked(messageLog::size)).register(globalRegistry);
+
+        executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "message-data-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executorService.scheduleWithFixedDelay(this::forceAndCompactSafe, forceInterval.toMillis(), forceInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("start message data log shutdown");
+            beforeShutdownActions.forEach(action -> {
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    log.error("Error in message data log before shutdown action", e);
+                }
+            });
+            executorService.shutdown();
+            close();
+            log.info("message data log shutdown");
+        }));
+    }
+
+    private static void putString(ByteBuffer buffer, @Nullable String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static @Nullable String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(@Nullable String value) {
+        //the length of utf-8 is at most 3 bytes per char
+        return 4 + (value == null ? 0 : value.length() * 3);
+    }
+
+    private static UUID getUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static ByteBuffer messagePayload(@NonNull MessageDataDTO messageData, long version, @NonNull String stateDataClassId, @Nullable String stateData) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 16 + 9 + 8 + stringSize(stateDataClassId) + stringSize(stateData));
+        buffer.putLong(messageData.getChannelId());
+        buffer.putLong(messageData.getMessageId());
+        buffer.putLong(messageData.getConfigUUID().getMostSignificantBits());
+        buffer.putLong(messageData.getConfigUUID().getLeastSignificantBits());
+        buffer.put((byte) (messageData.getGuildId() == null ? 0 : 1));
+        buffer.putLong(messageData.getGuildId() == null ? 0 : messageData.getGuildId());
+        buffer.putLong(version);
+        putString(buffer, stateDataClassId);
+        putString(buffer, stateData);
+        return buffer.flip();
+    }
+
+    private static ByteBuffer configPayload(@NonNull MessageDataDTO messageData) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + stringSize(messageData.getCommandId()) + stringSize(messageData.getConfigClassId()) + stringSize(messageData.getConfig()));
+        buffer.putLong(messageData.getConfigUUID().getMostSignificantBits());
+        buffer.putLong(messageData.getConfigUUID().getLeastSignificantBits());
+        putString(buffer, messageData.getCommandId());
+        putString(buffer, messageData.getConfigClassId());
+        putString(buffer, messageData.getConfig());
+        return buffer.flip();
+    }
+
+    private static ByteBuffer keyPayload(long channelId, long messageId) {
+        return ByteBuffer.allocate(16).putLong(channelId).putLong(messageId).flip();
+    }
+
+    private Path getCompactionPath() {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    /**
+     * The action will be executed in the shutdown hook before the log is closed
+     */
+    public void addBeforeShutdownAction(@NonNull Runnable action) {
+        beforeShutdownActions.add(action);
+    }
+
+    private void applyRecord(long position, byte type, ByteBuffer payload) {
+        switch (type) {
+            case CONFIG_RECORD -> {
+                Long previous = configPositions.put(getUUID(payload), position);
+                if (previous != null) {
+                    garbageBytes += messageLog.getRecordSize(previous);
+                }
+            }
+            case MESSAGE_RECORD -> {
+                long channelId = payload.getLong();
+                long messageId = payload.getLong();
+                addMessage(channelId, messageId, getUUID(payload), position);
+            }
+            case DELETE_MESSAGE_RECORD -> {
+                removeMessage(payload.getLong(), payload.getLong());
+                garbageBytes += messageLog.getRecordSize(position);
+            }
+            case DELETE_CHANNEL_RECORD -> {
+                removeChannel(payload.getLong());
+                garbageBytes += messageLog.getRecordSize(position);
+            }
+            default -> throw new IllegalStateException("Unknown message data log record type: " + type);
+        }
+    }
+
+    private void addMessage(long channelId, long messageId, UUID configId, long position) {
+        long previous = messagePositions.put(channelId, messageId, position);
+        if (previous >= 0) {
+            garbageBytes += messageLog.getRecordSize(previous);
+        }
+        messageIdsPerConfig.computeIfAbsent(configId, id -> new HashSet<>()).add(messageId);
+        messageIdsPerChannel.computeIfAbsent(channelId, id -> new HashSet<>()).add(messageId);
+    }
+
+    private boolean removeMessage(long channelId, long messageId) {
+        long position = messagePositions.remove(channelId, messageId);
+        if (position < 0) {
+            return false;
+        }
+        garbageBytes += messageLog.getRecordSize(position);
+        ByteBuffer payload = messageLog.getPayload(position);
+        payload.position(16);
+        UUID configId = getUUID(payload);
+        Set<Long> configMessageIds = messageIdsPerConfig.get(configId);
+        if (configMessageIds != null) {
+            configMessageIds.remove(messageId);
+            if (configMessageIds.isEmpty()) {
+                //configs that are not used by any message are removed with the last message
+                messageIdsPerConfig.remove(configId);
+                removeConfig(configId);
+            }
+        }
+        Set<Long> channelMessageIds = messageIdsPerChannel.get(channelId);
+        if (channelMessageIds != null) {
+            channelMessageIds.remove(messageId);
+            if (channelMessageIds.isEmpty()) {
+                messageIdsPerChannel.remove(channelId);
+            }
+        }
+        return true;
+    }
+
+    private Set<Long> removeChannel(long channelId) {
+        Set<Long> messageIds = ImmutableSet.copyOf(messageIdsPerChannel.getOrDefault(channelId, Set.of()));
+        messageIds.forEach(messageId -> removeMessage(channelId, messageId));
+        return messageIds;
+    }
+
+    private void removeConfig(UUID configId) {
+        Long position = configPositions.remove(configId);
+        if (position != null) {
+            garbageBytes += messageLog.getRecordSize(position);
+        }
+    }
+
+    private <T> T readLocked(Supplier<T> supplier) {
+        lock.readLock().lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T writeLocked(LogOperation<T> operation) {
+        lock.writeLock().lock();
+        try {
+            return operation.run();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull UnitOfWork startUnitOfWork() {
+        //there is no connection to share
+        return NO_UNIT_OF_WORK;
+    }
+
+    @Override
+    public @NonNull Optional<MessageDataDTO> getDataForMessage(long channelId, long messageId) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Optional<MessageDataDTO> result = readLocked(() -> readMessage(channelId, messageId));
+        BotMetrics.databaseTimer("getDataForMessage", stopwatch.elapsed());
+        return result;
+    }
+
+    private Optional<MessageDataDTO> readMessage(long channelId, long messageId) {
+        long position = messagePositions.get(channelId, messageId);
+        if (position < 0) {
+            return Optional.empty();
+        }
+        ByteBuffer messagePayload = messageLog.getPayload(position);
+        messagePayload.position(16);
+        UUID configId = getUUID(messagePayload);
+        boolean hasGuildId = messagePayload.get() != 0;
+        long guildId = messagePayload.getLong();
+        long version = messagePayload.getLong();
+        String stateDataClassId = getString(messagePayload);
+        String stateData = getString(messagePayload);
+
+        ByteBuffer configPayload = messageLog.getPayload(configPositions.get(configId));
+        configPayload.position(16);
+        String commandId = getString(configPayload);
+        String configClassId = getString(configPayload);
+        String config = getString(configPayload);
+        return Optional.of(new MessageDataDTO(configId, hasGuildId ? guildId : null, channelId, messageId, commandId, configClassId, config, stateDataClassId, stateData, version));
+    }
+
+    @Override
+    public void markAsAccessed(long channelId, long messageId) {
+        //the log has no access time, message data is only removed by deletes
+    }
+
+    @Override
+    public @NonNull Set<Long> getAllMessageIdsForConfig(@NonNull UUID configUUID) {
+        return readLocked(() -> ImmutableSet.copyOf(messageIdsPerConfig.getOrDefault(configUUID, Set.of())));
+    }
+
+    @Override
+    public void deleteDataForMessage(long channelId, long messageId) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        writeLocked(() -> {
+            if (removeMessage(channelId, messageId)) {
+                long position = messageLog.append(DELETE_MESSAGE_RECORD, keyPayload(channelId, messageId));
+                garbageBytes += messageLog.getRecordSize(position);
+            }
+            return null;
+        });
+        BotMetrics.databaseTimer("deleteDataForMessage", stopwatch.elapsed());
+    }
+
+    @Override
+    public void deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        writeLocked(() -> {
+            for (long messageId : messageIds) {
+                if (removeMessage(channelId, messageId)) {
+                    long position = messageLog.append(DELETE_MESSAGE_RECORD, keyPayload(channelId, messageId));
+                    garbageBytes += messageLog.getRecordSize(position);
+                }
+            }
+            return null;
+        });
+        BotMetrics.databaseTimer("deleteDataForMessages", stopwatch.elapsed());
+    }
+
+    @Override
+    public @NonNull Set<Long> deleteDataForChannel(long channelId) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Set<Long> messageIds = writeLocked(() -> {
+            Set<Long> removed = removeChannel(channelId);
+            if (!removed.isEmpty()) {
+                long position = messageLog.append(DELETE_CHANNEL_RECORD, ByteBuffer.allocate(8).putLong(channelId).flip());
+                garbageBytes += messageLog.getRecordSize(position);
+            }
+            return removed;
+        });
+        BotMetrics.databaseTimer("deleteDataForChannel", stopwatch.elapsed());
+        return messageIds;
+    }
+
+    @Override
+    public long saveMessageData(@NonNull MessageDataDTO messageData) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long version = writeLocked(() -> {
+            if (!configPositions.containsKey(messageData.getConfigUUID())) {
+                configPositions.put(messageData.getConfigUUID(), messageLog.append(CONFIG_RECORD, configPayload(messageData)));
+            }
+            //a saved message gets a new version, so a concurrent update with the old version fails
+            long savedVersion = readMessage(messageData.getChannelId(), messageData.getMessageId())
+                    .map(current -> current.getVersion() + 1)
+                    .orElse(messageData.getVersion());
+            long position = messageLog.append(MESSAGE_RECORD, messagePayload(messageData, savedVersion, messageData.getStateDataClassId(), messageData.getStateData()));
+            addMessage(messageData.getChannelId(), messageData.getMessageId(), messageData.getConfigUUID(), position);
+            return savedVersion;
+        });
+        BotMetrics.databaseTimer("saveMessageData", stopwatch.elapsed());
+        return version;
+    }
+
+    @Override
+    public boolean updateCommandConfigOfMessage(long channelId, long messageId, long expectedVersion, long newVersion, @NonNull String stateDataClassId, @Nullable String stateData) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        boolean updated = writeLocked(() -> {
+            Optional<MessageDataDTO> current = readMessage(channelId, messageId);
+            if (current.isEmpty() || current.get().getVersion() != expectedVersion) {
+                return false;
+            }
+            long position = messageLog.append(MESSAGE_RECORD, messagePayload(current.get(), newVersion, stateDataClassId, stateData));
+            addMessage(channelId, messageId, current.get().getConfigUUID(), position);
+            return true;
+        });
+        BotMetrics.databaseTimer("updateCommandConfigOfMessage", stopwatch.elapsed());
+        return updated;
+    }
+
+    private void forceAndCompactSafe() {
+        try {
+            readLocked(() -> {
+                messageLog.force();
+                return null;
+            });
+            if (readLocked(this::shouldCompact)) {
+                compact();
+            }
+        } catch (Exception e) {
+            log.error("Error while writing the message data log", e);
+        }
+    }
+
+    private boolean shouldCompact() {
+        return messageLog.size() > MIN_COMPACTION_SIZE && garbageBytes > messageLog.size() / 2;
+    }
+
+    /**
+     * Writes the current records into a new log and replaces the old log with it. The old log is kept until the new log
+     * is complete, so a crash during the compaction loses nothing.
+     */
+    @VisibleForTesting
+    void compact() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        writeLocked(() -> {
+            int oldSize = messageLog.size();
+            Path compactionPath = getCompactionPath();
+            Files.deleteIfExists(compactionPath);
+            final Map<UUID, Long> newConfigPositions = new HashMap<>();
+            final LongPairIndex newMessagePositions = new LongPairIndex(messagePositions.size());
+            try (MessageDataLog compactedLog = new MessageDataLog(compactionPath, Math.max(oldSize - (int) garbageBytes, 1024))) {
+                for (Map.Entry<UUID, Long> config : configPositions.entrySet()) {
+                    newConfigPositions.put(config.getKey(), compactedLog.append(CONFIG_RECORD, messageLog.getPayload(config.getValue())));
+                }
+                final List<IOException> exceptions = new ArrayList<>();
+                messagePositions.forEach((channelId, messageId, position) -> {
+                    try {
+                        newMessagePositions.put(channelId, messageId, compactedLog.append(MESSAGE_RECORD, messageLog.getPayload(position)));
+                    } catch (IOException e) {
+                        exceptions.add(e);
+                    }
+                });
+                if (!exceptions.isEmpty()) {
+                    throw exceptions.get(0);
+                }
+            }
+            messageLog.close();
+            Files.move(compactionPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            messageLog = new MessageDataLog(path, INITIAL_SIZE);
+            messageLog.replay((position, type, payload) -> {
+            });
+            configPositions.clear();
+            configPositions.putAll(newConfigPositions);
+            messagePositions = newMessagePositions;
+            garbageBytes = 0;
+            log.info("compacted the message data log from {} to {} bytes in {}ms", oldSize, messageLog.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return null;
+        });
+    }
+
+    @VisibleForTesting
+    void close() {
+        writeLocked(() -> {
+            messageLog.close();
+            return null;
+        });
+    }
+
+    @FunctionalInterface
+    private interface LogOperation<T> {
+        T run() throws IOException;
+    }
+}
@@ -2,30 +2,59 @@ package de.janno.discord.bot.persistance;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.annotations.VisibleForTesting;
 import lombok.NonNull;
 
+import java.io.IOException;
+import java.util.Base64;
 
+/**
+ * Serializes the config and state data objects. New data is written in a versioned binary format, the prefix of the
+ * serialized string identifies the format. Data without a known prefix was written before the binary format and is
+ * read as YAML.
+ */
 public class Mapper {
 
     public static final String NO_PERSISTED_STATE = "None";
-    private static final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    //version 1: base64 encoded smile without header
+    @VisibleForTesting
+    static final String BINARY_V1_PREFIX = "b1:";
+    private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+    private static final ObjectMapper binaryMapper = new ObjectMapper(SmileFactory.builder()
+            .disable(SmileGenerator.Feature.WRITE_HEADER)
+            .disable(SmileParser.Feature.REQUIRE_HEADER)
+            .build());
 
     public static String serializedObject(@NonNull Object object) {
         try {
-            return mapper.writeValueAsString(object);
+            return BINARY_V1_PREFIX + Base64.getEncoder().encodeToString(binaryMapper.writeValueAsBytes(object));
         } catch (JsonProcessingException e) {
             throw new IllegalStateException(e);
         }
     }
 
-
     public static <T> T deserializeObject(@NonNull String object, @NonNull Class<T> classOfObject) {
         try {
-            return mapper.readValue(object, classOfObject);
-        } catch (JsonProcessingException e) {
+            if (object.startsWith(BINARY_V1_PREFIX)) {
+                return binaryMapper.readValue(Base64.getDecoder().decode(object.substring(BINARY_V1_PREFIX.length())), classOfObject);
+            }
+            //legacy data, it will be replaced with the binary format on the next write of the message data
+            return yamlMapper.readValue(object, classOfObject);
+        } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
+    @VisibleForTesting
+    static String serializedObjectAsYaml(@NonNull Object object) {
+        try {
+            return yamlMapper.writeValueAsString(object);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
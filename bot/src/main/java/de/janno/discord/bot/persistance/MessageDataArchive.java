@@ -0,0 +1,62 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the data of messages that were not used for longer than the archive age into the compressed archive table, so
+ * MESSAGE_DATA, MESSAGE_CONFIG and their indexes contain only the recently used messages. An archived message is moved
+ * back on the next click. The archiving runs once a day at the start time, in small transactions with a pause between
+ * them, like the {@link MessageDataRetention}.
+ */
+@Slf4j
+public class MessageDataArchive extends DailyMessageDataJob {
+
+    private final Duration archiveAfter;
+
+    /**
+     * @param cacheInvalidation the cache in front of the database, the archived messages are invalidated in it
+     * @param archiveAfter      message data that was not used for this duration is archived
+     * @param startTime         the local time of the daily start, should be a time with low usage
+     * @param batchSize         the number of messages that are archived in one transaction
+     * @param minPause          the minimal pause between two batches
+     * @param maxRunDuration    the archiving stops after this duration and continues on the next day
+     */
+    public MessageDataArchive(@NonNull MessageDataDAOImpl messageDataDAO,
+                              @NonNull MessageDataCacheInvalidation cacheInvalidation,
+                              @NonNull Duration archiveAfter,
+                              @NonNull LocalTime startTime,
+                              int batchSize,
+                              @NonNull Duration minPause,
+                              @NonNull Duration maxRunDuration) {
+        super("message data archive", messageDataDAO, cacheInvalidation, batchSize, minPause, maxRunDuration);
+        this.archiveAfter = archiveAfter;
+        scheduleDaily(startTime);
+    }
+
+    /**
+     * Archives all message data that was not used within the archive age
+     *
+     * @return the number of archived messages
+     */
+    @Override
+    int run() throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        messageDataDAO.writeLastAccess();
+        final LocalDateTime threshold = LocalDateTime.now().minus(archiveAfter);
+        final int archived = processSelected(stopwatch,
+                (after, limit) -> messageDataDAO.getArchiveCandidates(threshold, after, limit),
+                batch -> messageDataDAO.archiveMessagesNotAccessedSince(batch, threshold));
+        if (archived > 0) {
+            messageDataDAO.checkpoint();
+        }
+        log.info("message data archive moved {} messages in {}ms", archived, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return archived;
+    }
+}
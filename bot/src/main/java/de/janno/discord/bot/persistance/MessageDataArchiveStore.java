@@ -0,0 +1,281 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import de.janno.discord.bot.BotMetrics;
+import de.janno.discord.bot.persistance.MessageDataDAOImpl.StoredMessage;
+import lombok.NonNull;
+import lombok.Value;
+import org.jetbrains.annotations.Nullable;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The cold tier of the message data. The data of messages that were not used for a long time is moved with a copy of
+ * its config into MESSAGE_DATA_ARCHIVE, an archived message is moved back into MESSAGE_DATA with its next read.
+ */
+class MessageDataArchiveStore {
+
+    private final DataSource dataSource;
+    private final MessageDataStatistics statistics;
+    private final UnusedConfigCleanup unusedConfigCleanup;
+    //false only if the archive was empty at the start and no message was archived since, a miss can skip the archive
+    private volatile boolean hasRows;
+
+    /**
+     * @param hasRows             if the archive contains messages at the start
+     * @param unusedConfigCleanup removes the configs of the archived messages that are not used anymore
+     */
+    MessageDataArchiveStore(@NonNull DataSource dataSource, @NonNull MessageDataStatistics statistics, boolean hasRows, @NonNull UnusedConfigCleanup unusedConfigCleanup) {
+        this.dataSource = dataSource;
+        this.statistics = statistics;
+        this.hasRows = hasRows;
+        this.unusedConfigCleanup = unusedConfigCleanup;
+    }
+
+    static boolean archiveHasRows(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeQuery("SELECT 1 FROM MESSAGE_DATA_ARCHIVE FETCH FIRST 1 ROWS ONLY").next();
+        }
+    }
+
+    /**
+     * False only if the archive contains no message
+     */
+    boolean hasRows() {
+        return hasRows;
+    }
+
+    /**
+     * Moves the message from the archive back into MESSAGE_DATA, in one transaction. The transaction is only started
+     * if the archive contains the message.
+     *
+     * @return the message data or null if the message is not archived
+     */
+    @Nullable MessageDataDTO rehydrateArchivedMessage(Connection con, long channelId, long messageId) throws SQLException, IOException {
+        if (!hasRows) {
+            return null;
+        }
+        try (PreparedStatement preparedStatement = con.prepareStatement("SELECT 1 FROM MESSAGE_DATA_ARCHIVE WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?")) {
+            preparedStatement.setLong(1, channelId);
+            preparedStatement.setLong(2, messageId);
+            if (!preparedStatement.executeQuery().next()) {
+                return null;
+            }
+        }
+        final boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            final UUID configId;
+            final Long guildId;
+            final ArchivedMessageData archivedMessageData;
+            //the delete claims the row, a concurrent rehydration of the same message waits and finds nothing
+            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT CONFIG_ID, GUILD_ID, DATA FROM OLD TABLE (DELETE FROM MESSAGE_DATA_ARCHIVE WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?)")) {
+                preparedStatement.setLong(1, channelId);
+                preparedStatement.setLong(2, messageId);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                if (!resultSet.next()) {
+                    con.commit();
+                    return null;
+                }
+                configId = resultSet.getObject("CONFIG_ID", UUID.class);
+                guildId = resultSet.getObject("GUILD_ID", Long.class);
+                archivedMessageData = ArchivedMessageData.decompress(resultSet.getBytes("DATA"));
+            }
+            final Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            try (PreparedStatement preparedStatement = con.prepareStatement(MessageDataDAOImpl.MERGE_CONFIG_SQL)) {
+                preparedStatement.setObject(1, configId);
+                preparedStatement.setString(2, archivedMessageData.getCommandId());
+                preparedStatement.setString(3, archivedMessageData.getConfigClassId());
+                preparedStatement.setString(4, archivedMessageData.getConfig());
+                preparedStatement.setTimestamp(5, now);
+                preparedStatement.executeUpdate();
+            }
+            try (PreparedStatement preparedStatement = con.prepareStatement("INSERT INTO MESSAGE_DATA(CONFIG_ID, GUILD_ID, CHANNEL_ID, MESSAGE_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                preparedStatement.setObject(1, configId);
+                preparedStatement.setObject(2, guildId);
+                preparedStatement.setLong(3, channelId);
+                preparedStatement.setLong(4, messageId);
+                preparedStatement.setString(5, archivedMessageData.getStateDataClassId());
+                preparedStatement.setString(6, archivedMessageData.getStateData());
+                preparedStatement.setTimestamp(7, new Timestamp(archivedMessageData.getCreationDate()));
+                preparedStatement.setTimestamp(8, now);
+                preparedStatement.setLong(9, archivedMessageData.getVersion());
+                preparedStatement.executeUpdate();
+            }
+            con.commit();
+            statistics.rowAdded(channelId, guildId);
+            BotMetrics.incrementRehydratedMessageDataCounter();
+            return new MessageDataDTO(configId,
+                    Optional.ofNullable(guildId).orElse(0L),
+                    channelId,
+                    messageId,
+                    archivedMessageData.getCommandId(),
+                    archivedMessageData.getConfigClassId(),
+                    archivedMessageData.getConfig(),
+                    archivedMessageData.getStateDataClassId(),
+                    archivedMessageData.getStateData(),
+                    archivedMessageData.getVersion());
+        } catch (SQLException | IOException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * @return up to limit messages after the given message, ordered by the primary key, that were neither created nor
+     * accessed after the threshold and have no state events
+     */
+    List<StoredMessage> getArchiveCandidates(@NonNull LocalDateTime threshold, @Nullable StoredMessage after, int limit) {
+        try (Connection con = dataSource.getConnection()) {
+            //the events would be deleted by the cascade, messages with event sourced state stay in MESSAGE_DATA
+            //paging by the primary key, so skipped messages are not selected again
+            try (PreparedStatement preparedStatement = con.prepareStatement("""
+                    SELECT MD.CONFIG_ID, MD.CHANNEL_ID, MD.MESSAGE_ID FROM MESSAGE_DATA MD
+                    WHERE COALESCE(MD.LAST_ACCESS, MD.CREATION_DATE) < ?
+                    AND (MD.CHANNEL_ID, MD.MESSAGE_ID) > (?, ?)
+                    AND NOT EXISTS (SELECT 1 FROM MESSAGE_STATE_EVENT E WHERE E.CHANNEL_ID = MD.CHANNEL_ID AND E.MESSAGE_ID = MD.MESSAGE_ID)
+                    ORDER BY MD.CHANNEL_ID, MD.MESSAGE_ID
+                    FETCH FIRST ? ROWS ONLY""")) {
+                preparedStatement.setTimestamp(1, Timestamp.valueOf(threshold));
+                preparedStatement.setLong(2, after == null ? Long.MIN_VALUE : after.getChannelId());
+                preparedStatement.setLong(3, after == null ? Long.MIN_VALUE : after.getMessageId());
+                preparedStatement.setInt(4, limit);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                final List<StoredMessage> result = new ArrayList<>();
+                while (resultSet.next()) {
+                    result.add(new StoredMessage(resultSet.getObject("CONFIG_ID", UUID.class),
+                            resultSet.getLong("CHANNEL_ID"),
+                            resultSet.getLong("MESSAGE_ID")));
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Moves the messages into the archive and removes their unused configs, in one transaction. Messages that were
+     * accessed after the threshold or got state events are kept.
+     *
+     * @return the archived messages
+     */
+    List<StoredMessage> archiveMessagesNotAccessedSince(@NonNull Collection<StoredMessage> toArchive, @NonNull LocalDateTime threshold) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final Map<Long, Integer> archivedRowsPerChannel = new HashMap<>();
+        final List<StoredMessage> archived = new ArrayList<>();
+        //set before the commit, so a read never skips an archived message
+        hasRows = true;
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            final Map<UUID, ArchivedConfig> configs = new HashMap<>();
+            try (PreparedStatement configStatement = con.prepareStatement("SELECT COMMAND_ID, CONFIG_CLASS_ID, CONFIG FROM MESSAGE_CONFIG WHERE CONFIG_ID = ?");
+                 PreparedStatement deleteStatement = con.prepareStatement("""
+                         SELECT GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION FROM OLD TABLE (
+                         DELETE FROM MESSAGE_DATA MD WHERE MD.CHANNEL_ID = ? AND MD.MESSAGE_ID = ? AND COALESCE(MD.LAST_ACCESS, MD.CREATION_DATE) < ?
+                         AND NOT EXISTS (SELECT 1 FROM MESSAGE_STATE_EVENT E WHERE E.CHANNEL_ID = MD.CHANNEL_ID AND E.MESSAGE_ID = MD.MESSAGE_ID))""");
+                 PreparedStatement insertStatement = con.prepareStatement("INSERT INTO MESSAGE_DATA_ARCHIVE(CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, LAST_ACCESS, DATA) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (StoredMessage message : toArchive) {
+                    //the config must be read before it is removed with its last message
+                    ArchivedConfig config = configs.get(message.getConfigId());
+                    if (config == null) {
+                        configStatement.setObject(1, message.getConfigId());
+                        ResultSet configResultSet = configStatement.executeQuery();
+                        if (!configResultSet.next()) {
+                            continue;
+                        }
+                        config = new ArchivedConfig(configResultSet.getString("COMMAND_ID"), configResultSet.getString("CONFIG_CLASS_ID"), configResultSet.getString("CONFIG"));
+                        configs.put(message.getConfigId(), config);
+                    }
+                    deleteStatement.setLong(1, message.getChannelId());
+                    deleteStatement.setLong(2, message.getMessageId());
+                    deleteStatement.setTimestamp(3, Timestamp.valueOf(threshold));
+                    ResultSet resultSet = deleteStatement.executeQuery();
+                    if (!resultSet.next()) {
+                        continue;
+                    }
+                    final Timestamp creationDate = resultSet.getTimestamp("CREATION_DATE");
+                    final ArchivedMessageData archivedMessageData = new ArchivedMessageData(config.getCommandId(),
+                            config.getConfigClassId(),
+                            config.getConfig(),
+                            resultSet.getString("STATE_CLASS_ID"),
+                            resultSet.getString("STATE"),
+                            creationDate.getTime(),
+                            resultSet.getLong("VERSION"));
+                    insertStatement.setLong(1, message.getChannelId());
+                    insertStatement.setLong(2, message.getMessageId());
+                    insertStatement.setObject(3, message.getConfigId());
+                    insertStatement.setObject(4, resultSet.getObject("GUILD_ID", Long.class));
+                    insertStatement.setTimestamp(5, Optional.ofNullable(resultSet.getTimestamp("LAST_ACCESS")).orElse(creationDate));
+                    insertStatement.setBytes(6, archivedMessageData.compress());
+                    insertStatement.addBatch();
+                    archivedRowsPerChannel.merge(message.getChannelId(), 1, Integer::sum);
+                    archived.add(message);
+                }
+                insertStatement.executeBatch();
+            }
+            unusedConfigCleanup.deleteUnusedConfigs(con, configs.keySet());
+            con.commit();
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        archivedRowsPerChannel.forEach(statistics::rowsRemoved);
+        BotMetrics.archivedMessageDataRows(archived.size());
+        BotMetrics.databaseTimer("archiveMessagesNotAccessedSince", stopwatch.elapsed());
+        return archived;
+    }
+
+    /**
+     * Deletes up to limit archived messages that were not accessed after the threshold
+     *
+     * @return the number of deleted messages
+     */
+    int deleteArchivedMessagesNotAccessedSince(@NonNull LocalDateTime threshold, int limit) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int deleted;
+        try (Connection con = dataSource.getConnection()) {
+            try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_DATA_ARCHIVE WHERE LAST_ACCESS < ? FETCH FIRST ? ROWS ONLY")) {
+                preparedStatement.setTimestamp(1, Timestamp.valueOf(threshold));
+                preparedStatement.setInt(2, limit);
+                deleted = preparedStatement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        BotMetrics.databaseTimer("deleteArchivedMessagesNotAccessedSince", stopwatch.elapsed());
+        return deleted;
+    }
+
+    @FunctionalInterface
+    interface UnusedConfigCleanup {
+        void deleteUnusedConfigs(Connection con, Set<UUID> configIds) throws SQLException;
+    }
+
+    @Value
+    private static class ArchivedConfig {
+        @NonNull
+        String commandId;
+        @NonNull
+        String configClassId;
+        @NonNull
+        String config;
+    }
+}
@@ -0,0 +1,32 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+
+import java.util.Collection;
+
+/**
+ * Removes message data from a cache in front of the database. Used by the background jobs that remove message data
+ * directly in the database, so the cache doesn't serve or write back the removed messages.
+ */
+public interface MessageDataCacheInvalidation {
+
+    MessageDataCacheInvalidation NONE = new MessageDataCacheInvalidation() {
+        @Override
+        public void invalidateMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        }
+
+        @Override
+        public void invalidateGuild(long guildId) {
+        }
+    };
+
+    /**
+     * Removes the messages of the channel and drops their pending updates
+     */
+    void invalidateMessages(long channelId, @NonNull Collection<Long> messageIds);
+
+    /**
+     * Removes all messages of the guild and drops their pending updates
+     */
+    void invalidateGuild(long guildId);
+}
@@ -0,0 +1,161 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static de.janno.discord.bot.persistance.DataStreams.*;
+
+/**
+ * Writes the cached message data and the deserialized configs into a file on shutdown and loads them into the cache on
+ * the next start, so the first clicks after a restart don't need to read and deserialize the data. Only message data
+ * without pending updates is written, after all pending updates are flushed. The file is deleted after it is loaded,
+ * so it is never used after a restart without a clean shutdown, where the database may be newer than the file.
+ */
+@Slf4j
+public class MessageDataCacheSnapshot {
+
+    private static final int MAGIC = 0x4D444353;
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path file;
+    private final Duration maxAge;
+
+    /**
+     * @param maxAge a snapshot older than this is not loaded, should be the expire time of the cache
+     */
+    public MessageDataCacheSnapshot(@NonNull Path file, @NonNull Duration maxAge) {
+        this.file = file;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Flushes the pending updates of the cache and writes the cached message data into the file
+     */
+    public void write(@NonNull CachingMessageDataDAO cachingMessageDataDAO) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        cachingMessageDataDAO.flush();
+        final Collection<MessageDataDTO> messageData = cachingMessageDataDAO.getPersistedCachedMessageData();
+        //many messages share the same config, it is written only once
+        final Map<UUID, Integer> configIndex = new HashMap<>();
+        final List<MessageDataDTO> configs = new ArrayList<>();
+        messageData.forEach(m -> configIndex.computeIfAbsent(m.getConfigUUID(), id -> {
+            configs.add(m);
+            return configs.size() - 1;
+        }));
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(configs.size());
+                for (MessageDataDTO config : configs) {
+                    out.writeLong(config.getConfigUUID().getMostSignificantBits());
+                    out.writeLong(config.getConfigUUID().getLeastSignificantBits());
+                    writeString(out, config.getConfigClassId());
+                    writeString(out, config.getConfig());
+                    writeString(out, ConfigCache.getIfPresent(config.getConfigUUID()).map(c -> c.getClass().getName()).orElse(null));
+                }
+                out.writeInt(messageData.size());
+                for (MessageDataDTO m : messageData) {
+                    out.writeInt(configIndex.get(m.getConfigUUID()));
+                    writeLong(out, m.getGuildId());
+                    out.writeLong(m.getChannelId());
+                    out.writeLong(m.getMessageId());
+                    writeString(out, m.getCommandId());
+                    writeString(out, m.getStateDataClassId());
+                    writeString(out, m.getStateData());
+                    out.writeLong(m.getVersion());
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Error while writing the message data cache snapshot", e);
+            return;
+        }
+        log.info("wrote {} message data and {} configs into the cache snapshot in {}ms", messageData.size(), configs.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Loads the message data of the file into the cache and deletes the file
+     *
+     * @return the number of loaded message data
+     */
+    public int restore(@NonNull CachingMessageDataDAO cachingMessageDataDAO) {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                log.warn("cache snapshot {} has an unknown format", file);
+                return 0;
+            }
+            final long age = System.currentTimeMillis() - in.readLong();
+            if (age > maxAge.toMillis()) {
+                log.info("cache snapshot {} is too old: {}ms", file, age);
+                return 0;
+            }
+            final int configCount = in.readInt();
+            final List<UUID> configUUIDs = new ArrayList<>(configCount);
+            final List<String> configClassIds = new ArrayList<>(configCount);
+            final List<String> serializedConfigs = new ArrayList<>(configCount);
+            for (int i = 0; i < configCount; i++) {
+                UUID configUUID = new UUID(in.readLong(), in.readLong());
+                String configClassId = readString(in);
+                String serializedConfig = readString(in);
+                String configClassName = readString(in);
+                configUUIDs.add(configUUID);
+                configClassIds.add(configClassId);
+                serializedConfigs.add(serializedConfig);
+                if (configClassName != null) {
+                    try {
+                        ConfigCache.getOrDeserialize(configUUID, Objects.requireNonNull(serializedConfig), Class.forName(configClassName));
+                    } catch (ClassNotFoundException | RuntimeException e) {
+                        //the config is deserialized on the first click
+                        log.warn("config {} of class {} in the cache snapshot can't be deserialized: {}", configUUID, configClassName, e.getMessage());
+                    }
+                }
+            }
+            final int messageCount = in.readInt();
+            final List<MessageDataDTO> messageData = new ArrayList<>(messageCount);
+            for (int i = 0; i < messageCount; i++) {
+                int config = in.readInt();
+                Long guildId = readLong(in);
+                long channelId = in.readLong();
+                long messageId = in.readLong();
+                String commandId = readString(in);
+                String stateDataClassId = readString(in);
+                String stateData = readString(in);
+                long version = in.readLong();
+                messageData.add(new MessageDataDTO(configUUIDs.get(config), guildId, channelId, messageId, Objects.requireNonNull(commandId),
+                        Objects.requireNonNull(configClassIds.get(config)), Objects.requireNonNull(serializedConfigs.get(config)),
+                        Objects.requireNonNull(stateDataClassId), stateData, version));
+            }
+            cachingMessageDataDAO.preload(messageData);
+            log.info("loaded {} message data and {} configs from the cache snapshot in {}ms", messageCount, configCount, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return messageCount;
+        } catch (Exception e) {
+            log.error("Error while loading the message data cache snapshot", e);
+            return 0;
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.error("Error while deleting the message data cache snapshot", e);
+            }
+        }
+    }
+}
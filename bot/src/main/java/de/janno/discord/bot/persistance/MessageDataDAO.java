@@ -3,21 +3,58 @@ package de.janno.discord.bot.persistance;
 import lombok.NonNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 
 public interface MessageDataDAO {
 
+    /**
+     * Starts a unit of work for the current thread. The operations of the thread share one connection until the unit of
+     * work is closed, the connection is acquired with the first operation that needs it. A nested unit of work uses the
+     * connection of the outer one. The write statements of a unit of work are executed on the shared connection too,
+     * they are not collected by a write batcher.
+     */
+    @NonNull UnitOfWork startUnitOfWork();
+
     @NonNull Optional<MessageDataDTO> getDataForMessage(long channelId, long messageId);
 
+    /**
+     * Marks the message as used, message data that was not used for a long time can be removed. Must not block, because
+     * it is called with every read.
+     */
+    void markAsAccessed(long channelId, long messageId);
+
     @NonNull Set<Long> getAllMessageIdsForConfig(@NonNull UUID configUUID);
 
     void deleteDataForMessage(long channelId, long messageId);
 
-    @NonNull Set<Long> deleteDataForChannel(long channelId);
+    /**
+     * Deletes the data of all given messages of the channel in one statement
+     */
+    void deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds);
 
-    void saveMessageData(@NonNull MessageDataDTO messageData);
+    /**
+     * Deletes the data of all messages of the channel in one statement
+     *
+     * @return the ids of the messages whose data was deleted
+     */
+    @NonNull Set<Long> deleteDataForChannel(long channelId);
 
-    void updateCommandConfigOfMessage(long channelId, long messageId, @NonNull String stateDataClassId, @Nullable String stateData);
+    /**
+     * Saves the message data. The config is stored once for all messages with the same config id, so the config of the
+     * message data is only written if there is no config for the config id. Saving an existing message replaces its
+     * config and state, keeps its creation date and increments its version.
+     *
+     * @return the version of the saved message data
+     */
+    long saveMessageData(@NonNull MessageDataDTO messageData);
+
+    /**
+     * Updates the state of the message only if the version of the message data is still the expected version
+     *
+     * @return true if the state was updated, false if the message data has another version or doesn't exist
+     */
+    boolean updateCommandConfigOfMessage(long channelId, long messageId, long expectedVersion, long newVersion, @NonNull String stateDataClassId, @Nullable String stateData);
 }
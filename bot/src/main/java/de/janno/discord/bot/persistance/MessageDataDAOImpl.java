@@ -1,69 +1,117 @@
 package de.janno.discord.bot.persistance;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import de.janno.discord.bot.BotMetrics;
 import io.micrometer.core.instrument.Gauge;
-import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.binder.db.DatabaseTableMetrics;
 import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
-import org.h2.jdbcx.JdbcConnectionPool;
 import org.jetbrains.annotations.Nullable;
 
-import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.function.ToDoubleFunction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static de.janno.discord.bot.persistance.MessageDataSchema.LEGACY_MESSAGE_DATA_TABLE;
 import static io.micrometer.core.instrument.Metrics.globalRegistry;
 
 @Slf4j
-public class MessageDataDAOImpl implements MessageDataDAO {
+public class MessageDataDAOImpl implements MessageDataDAO, StateEventDAO {
 
-    private final JdbcConnectionPool connectionPool;
+    private static final int LAST_ACCESS_BATCH_SIZE = 500;
+    private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+    static final String MERGE_CONFIG_SQL = """
+            MERGE INTO MESSAGE_CONFIG MC
+            USING (VALUES (CAST(? AS UUID), CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS TIMESTAMP))) S(CONFIG_ID, COMMAND_ID, CONFIG_CLASS_ID, CONFIG, CREATION_DATE)
+            ON MC.CONFIG_ID = S.CONFIG_ID
+            WHEN NOT MATCHED THEN INSERT (CONFIG_ID, COMMAND_ID, CONFIG_CLASS_ID, CONFIG, CREATION_DATE) VALUES (S.CONFIG_ID, S.COMMAND_ID, S.CONFIG_CLASS_ID, S.CONFIG, S.CREATION_DATE)
+            """;
+
+    private final InstrumentedConnectionPool connectionPool;
+    private final List<Runnable> beforeShutdownActions = new CopyOnWriteArrayList<>();
+    @Nullable
+    private final MessageDataWriteBatcher writeBatcher;
+    private final MessageDataStatistics statistics = new MessageDataStatistics();
+    private final ThreadLocal<SharedConnection> sharedConnection = new ThreadLocal<>();
+    //accessed messages that are not yet written into LAST_ACCESS, the value identifies the access
+    private final ConcurrentMap<MessageKey, Long> accessedMessages = new ConcurrentHashMap<>();
+    private final AtomicLong accessCounter = new AtomicLong();
+    //ids of configs that are already in the config table
+    private final Set<UUID> knownConfigIds = Collections.newSetFromMap(CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .<UUID, Boolean>build()
+            .asMap());
+    private final LegacyMessageDataMove legacyMove;
+    private final MessageDataArchiveStore archiveStore;
 
     public MessageDataDAOImpl(@NonNull String url, @Nullable String user, @Nullable String password) {
-        connectionPool = JdbcConnectionPool.create(url, user, password);
-        new DatabaseTableMetrics(connectionPool, "h2", "MESSAGE_DATA", ImmutableSet.of()).bindTo(globalRegistry);
+        this(url, user, password, 1, Duration.ZERO);
+    }
 
-        queryGauge("db.channel.count", "select count (distinct CHANNEL_ID) from MESSAGE_DATA;", connectionPool, Set.of());
-        queryGauge("db.guild.count", "select count (distinct GUILD_ID) from MESSAGE_DATA;", connectionPool, Set.of());
-        queryGauge("db.guild-null.count", "select count (distinct CHANNEL_ID) from MESSAGE_DATA where GUILD_ID is null;", connectionPool, Set.of());
+    /**
+     * @param maxBatchSize  the max number of write statements that are committed together, 1 disables the batching
+     * @param maxBatchDelay the max time a write statement waits for other statements to be committed together
+     */
+    public MessageDataDAOImpl(@NonNull String url, @Nullable String user, @Nullable String password, int maxBatchSize, @NonNull Duration maxBatchDelay) {
+        this(url, user, password, maxBatchSize, maxBatchDelay, ConnectionPoolConfig.DEFAULT);
+    }
+
+    /**
+     * @param maxBatchSize         the max number of write statements that are committed together, 1 disables the batching
+     * @param maxBatchDelay        the max time a write statement waits for other statements to be committed together
+     * @param connectionPoolConfig the size and the login timeout of the connection pool
+     */
+    public MessageDataDAOImpl(@NonNull String url, @Nullable String user, @Nullable String password, int maxBatchSize, @NonNull Duration maxBatchDelay, @NonNull ConnectionPoolConfig connectionPoolConfig) {
+        connectionPool = new InstrumentedConnectionPool(url, user, password, connectionPoolConfig);
+        writeBatcher = maxBatchSize > 1 ? new MessageDataWriteBatcher(connectionPool, maxBatchSize, maxBatchDelay) : null;
+        new DatabaseTableMetrics(connectionPool, "h2", "MESSAGE_DATA", ImmutableSet.of()).bindTo(globalRegistry);
 
         try (Connection connection = connectionPool.getConnection()) {
-            Statement statement = connection.createStatement();
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS MESSAGE_DATA(
-                        CONFIG_ID       UUID            NOT NULL,
-                        CHANNEL_ID      BIGINT          NOT NULL,
-                        MESSAGE_ID      BIGINT          NOT NULL,
-                        COMMAND_ID      VARCHAR         NOT NULL,
-                        CONFIG_CLASS_ID VARCHAR         NOT NULL,
-                        CONFIG          VARCHAR         NOT NULL,
-                        STATE_CLASS_ID  VARCHAR         NOT NULL,
-                        STATE           VARCHAR         NULL,
-                        CREATION_DATE   TIMESTAMP       NOT NULL,
-                        PRIMARY KEY (CONFIG_ID, CHANNEL_ID, MESSAGE_ID)
-                    );
-
-                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_ID ON MESSAGE_DATA (CONFIG_ID);
-                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_CHANNEL ON MESSAGE_DATA (CHANNEL_ID);
-                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_CHANNEL_MESSAGE ON MESSAGE_DATA (CHANNEL_ID, MESSAGE_ID);
-                                        
-                    ALTER TABLE MESSAGE_DATA ADD COLUMN IF NOT EXISTS GUILD_ID BIGINT;
-                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_GUILD ON MESSAGE_DATA (GUILD_ID);
-                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_GUILD_CHANNEl ON MESSAGE_DATA (GUILD_ID, CHANNEL_ID);
-                    """);
+            MessageDataSchema.migrateSchema(connection);
+            legacyMove = new LegacyMessageDataMove(connectionPool, statistics, MessageDataSchema.tableExists(connection, LEGACY_MESSAGE_DATA_TABLE), knownConfigIds::clear);
+            archiveStore = new MessageDataArchiveStore(connectionPool, statistics, MessageDataArchiveStore.archiveHasRows(connection), this::deleteUnusedConfigs);
+            statistics.load(connectionPool);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        Gauge.builder("db.channel.count", statistics, MessageDataStatistics::getChannelCount).register(globalRegistry);
+        Gauge.builder("db.guild.count", statistics, MessageDataStatistics::getGuildCount).register(globalRegistry);
+        Gauge.builder("db.guild-null.count", statistics, MessageDataStatistics::getChannelsWithoutGuildCount).register(globalRegistry);
+        new DatabaseTableMetrics(connectionPool, "h2", "MESSAGE_CONFIG", ImmutableSet.of()).bindTo(globalRegistry);
+        new DatabaseTableMetrics(connectionPool, "h2", "MESSAGE_STATE_EVENT", ImmutableSet.of()).bindTo(globalRegistry);
+        new DatabaseTableMetrics(connectionPool, "h2", "MESSAGE_DATA_ARCHIVE", ImmutableSet.of()).bindTo(globalRegistry);
+        legacyMove.start();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             log.info("start db shutdown");
+            beforeShutdownActions.forEach(action -> {
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    log.error("Error in db before shutdown action", e);
+                }
+            });
+            if (writeBatcher != null) {
+                writeBatcher.shutdown();
+            }
             connectionPool.dispose();
             try (Connection connection = DriverManager.getConnection(url, user, password)) {
                 connection.createStatement().execute("SHUTDOWN");
@@ -74,6 +122,39 @@ public class MessageDataDAOImpl implements MessageDataDAO {
         }));
     }
 
+    /**
+     * The action will be executed in the shutdown hook before the connection pool is closed
+     */
+    public void addBeforeShutdownAction(@NonNull Runnable action) {
+        beforeShutdownActions.add(action);
+    }
+
+    @Override
+    public @NonNull UnitOfWork startUnitOfWork() {
+        if (sharedConnection.get() != null) {
+            //the outer unit of work releases the connection
+            return () -> {
+            };
+        }
+        final SharedConnection shared = new SharedConnection();
+        sharedConnection.set(shared);
+        return () -> {
+            sharedConnection.remove();
+            shared.release();
+        };
+    }
+
+    /**
+     * Returns the connection of the unit of work of the current thread or a new connection from the pool
+     */
+    private ConnectionLease leaseConnection() throws SQLException {
+        final SharedConnection shared = sharedConnection.get();
+        if (shared != null) {
+            return new ConnectionLease(shared.getConnection(), false);
+        }
+        return new ConnectionLease(connectionPool.getConnection(), true);
+    }
+
     private MessageDataDTO transformResultSet(ResultSet resultSet) throws SQLException {
         if (resultSet.next()) {
             return new MessageDataDTO(
@@ -85,7 +166,8 @@ public class MessageDataDAOImpl implements MessageDataDAO {
                     resultSet.getString("CONFIG_CLASS_ID"),
                     resultSet.getString("CONFIG"),
                     resultSet.getString("STATE_CLASS_ID"),
-                    resultSet.getString("STATE")
+                    resultSet.getString("STATE"),
+                    resultSet.getLong("VERSION")
             );
         }
         return null;
@@ -95,18 +177,33 @@ public class MessageDataDAOImpl implements MessageDataDAO {
     public @NonNull Optional<MessageDataDTO> getDataForMessage(long channelId, long messageId) {
         Stopwatch stopwatch = Stopwatch.createStarted();
 
-        try (Connection con = connectionPool.getConnection()) {
-            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT * FROM MESSAGE_DATA MC WHERE MC.CHANNEL_ID = ? AND MC.MESSAGE_ID = ?")) {
+        try (ConnectionLease lease = leaseConnection()) {
+            try (PreparedStatement preparedStatement = lease.getConnection().prepareStatement("""
+                    SELECT MD.CONFIG_ID, MD.GUILD_ID, MD.CHANNEL_ID, MD.MESSAGE_ID, MC.COMMAND_ID, MC.CONFIG_CLASS_ID, MC.CONFIG, MD.STATE_CLASS_ID, MD.STATE, MD.VERSION
+                    FROM MESSAGE_DATA MD JOIN MESSAGE_CONFIG MC ON MC.CONFIG_ID = MD.CONFIG_ID
+                    WHERE MD.CHANNEL_ID = ? AND MD.MESSAGE_ID = ?""")) {
                 preparedStatement.setLong(1, channelId);
                 preparedStatement.setLong(2, messageId);
                 ResultSet resultSet = preparedStatement.executeQuery();
                 MessageDataDTO messageDataDTO = transformResultSet(resultSet);
+                if (messageDataDTO == null) {
+                    messageDataDTO = archiveStore.rehydrateArchivedMessage(lease.getConnection(), channelId, messageId);
+                    if (messageDataDTO != null) {
+                        knownConfigIds.add(messageDataDTO.getConfigUUID());
+                    }
+                }
+                //a concurrent call could have rehydrated the message, or the message is not yet moved by the migration
+                if (messageDataDTO == null && (legacyMove.moveLegacyMessage(lease.getConnection(), channelId, messageId) || archiveStore.hasRows())) {
+                    resultSet = preparedStatement.executeQuery();
+                    messageDataDTO = transformResultSet(resultSet);
+                }
 
                 BotMetrics.databaseTimer("getDataForMessage", stopwatch.elapsed());
 
                 if (messageDataDTO == null) {
                     return Optional.empty();
                 }
+                markAsAccessed(channelId, messageId);
                 return Optional.of(messageDataDTO);
             }
         } catch (Exception e) {
@@ -114,13 +211,253 @@ public class MessageDataDAOImpl implements MessageDataDAO {
         }
     }
 
+    @Override
+    public void markAsAccessed(long channelId, long messageId) {
+        accessedMessages.put(new MessageKey(channelId, messageId), accessCounter.incrementAndGet());
+    }
+
+    /**
+     * Writes the access time of all messages that were marked as accessed since the last call
+     *
+     * @return the number of updated messages
+     */
+    int writeLastAccess() {
+        if (accessedMessages.isEmpty()) {
+            return 0;
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        final List<Map.Entry<MessageKey, Long>> accesses = ImmutableList.copyOf(accessedMessages.entrySet());
+        try (Connection con = connectionPool.getConnection()) {
+            for (List<Map.Entry<MessageKey, Long>> partition : Lists.partition(accesses, LAST_ACCESS_BATCH_SIZE)) {
+                try (PreparedStatement preparedStatement = con.prepareStatement("UPDATE MESSAGE_DATA SET LAST_ACCESS = ? WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?")) {
+                    for (Map.Entry<MessageKey, Long> access : partition) {
+                        preparedStatement.setTimestamp(1, now);
+                        preparedStatement.setLong(2, access.getKey().getChannelId());
+                        preparedStatement.setLong(3, access.getKey().getMessageId());
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                }
+                //only the written access is removed, a message that was accessed again is written with the next call
+                partition.forEach(access -> accessedMessages.remove(access.getKey(), access.getValue()));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        BotMetrics.databaseTimer("writeLastAccess", stopwatch.elapsed());
+        return accesses.size();
+    }
+
+    /**
+     * @param after the candidates start after this message in the key order, null for the first candidates
+     * @return up to limit messages that were neither created nor accessed after the threshold, in the key order
+     */
+    List<StoredMessage> getMessagesNotAccessedSince(@NonNull LocalDateTime threshold, @Nullable StoredMessage after, int limit) {
+        try (Connection con = connectionPool.getConnection()) {
+            //paging by the primary key, so skipped messages are not selected again
+            try (PreparedStatement preparedStatement = con.prepareStatement("""
+                    SELECT MD.CONFIG_ID, MD.CHANNEL_ID, MD.MESSAGE_ID FROM MESSAGE_DATA MD
+                    WHERE COALESCE(MD.LAST_ACCESS, MD.CREATION_DATE) < ?
+                    AND (MD.CHANNEL_ID, MD.MESSAGE_ID) > (?, ?)
+                    ORDER BY MD.CHANNEL_ID, MD.MESSAGE_ID
+                    FETCH FIRST ? ROWS ONLY""")) {
+                preparedStatement.setTimestamp(1, Timestamp.valueOf(threshold));
+                preparedStatement.setLong(2, after == null ? Long.MIN_VALUE : after.getChannelId());
+                preparedStatement.setLong(3, after == null ? Long.MIN_VALUE : after.getMessageId());
+                preparedStatement.setInt(4, limit);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                final List<StoredMessage> result = new ArrayList<>();
+                while (resultSet.next()) {
+                    result.add(new StoredMessage(resultSet.getObject("CONFIG_ID", UUID.class),
+                            resultSet.getLong("CHANNEL_ID"),
+                            resultSet.getLong("MESSAGE_ID")));
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes the messages and their unused configs in one transaction. Messages that were accessed after the threshold
+     * are kept.
+     *
+     * @return the deleted messages
+     */
+    List<StoredMessage> deleteMessagesNotAccessedSince(@NonNull Collection<StoredMessage> messages, @NonNull LocalDateTime threshold) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        //marked messages are not yet in LAST_ACCESS
+        final List<StoredMessage> toDelete = messages.stream()
+                .filter(m -> !accessedMessages.containsKey(new MessageKey(m.getChannelId(), m.getMessageId())))
+                .toList();
+        final List<StoredMessage> deleted = new ArrayList<>();
+        try (Connection con = connectionPool.getConnection()) {
+            con.setAutoCommit(false);
+            final int[] deletedRows;
+            try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_DATA WHERE CHANNEL_ID = ? AND MESSAGE_ID = ? AND COALESCE(LAST_ACCESS, CREATION_DATE) < ?")) {
+                for (StoredMessage message : toDelete) {
+                    preparedStatement.setLong(1, message.getChannelId());
+                    preparedStatement.setLong(2, message.getMessageId());
+                    preparedStatement.setTimestamp(3, Timestamp.valueOf(threshold));
+                    preparedStatement.addBatch();
+                }
+                deletedRows = preparedStatement.executeBatch();
+            }
+            deleteUnusedConfigs(con, toDelete.stream().map(StoredMessage::getConfigId).collect(ImmutableSet.toImmutableSet()));
+            con.commit();
+            for (int i = 0; i < toDelete.size(); i++) {
+                if (deletedRows[i] > 0) {
+                    statistics.rowsRemoved(toDelete.get(i).getChannelId(), deletedRows[i]);
+                    deleted.add(toDelete.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        BotMetrics.databaseTimer("deleteMessagesNotAccessedSince", stopwatch.elapsed());
+        return deleted;
+    }
+
+    /**
+     * @return up to limit messages after the given message, ordered by the primary key, that were neither created nor
+     * accessed after the threshold and have no state events
+     */
+    List<StoredMessage> getArchiveCandidates(@NonNull LocalDateTime threshold, @Nullable StoredMessage after, int limit) {
+        return archiveStore.getArchiveCandidates(threshold, after, limit);
+    }
+
+    /**
+     * Moves the messages into the archive and removes their unused configs, in one transaction. Messages that were
+     * accessed after the threshold or got state events are kept.
+     *
+     * @return the archived messages
+     */
+    List<StoredMessage> archiveMessagesNotAccessedSince(@NonNull Collection<StoredMessage> messages, @NonNull LocalDateTime threshold) {
+        //marked messages are not yet in LAST_ACCESS
+        final List<StoredMessage> toArchive = messages.stream()
+                .filter(m -> !accessedMessages.containsKey(new MessageKey(m.getChannelId(), m.getMessageId())))
+                .toList();
+        return archiveStore.archiveMessagesNotAccessedSince(toArchive, threshold);
+    }
+
+    /**
+     * Deletes up to limit archived messages that were not accessed after the threshold
+     *
+     * @return the number of deleted messages
+     */
+    int deleteArchivedMessagesNotAccessedSince(@NonNull LocalDateTime threshold, int limit) {
+        return archiveStore.deleteArchivedMessagesNotAccessedSince(threshold, limit);
+    }
+
+    /**
+     * @return the ids of all guilds that have message data
+     */
+    Set<Long> getAllGuildIds() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement preparedStatement = con.prepareStatement("""
+                    SELECT DISTINCT GUILD_ID FROM MESSAGE_DATA WHERE GUILD_ID IS NOT NULL
+                    UNION SELECT DISTINCT GUILD_ID FROM MESSAGE_DATA_ARCHIVE WHERE GUILD_ID IS NOT NULL""")) {
+                ResultSet resultSet = preparedStatement.executeQuery();
+                final ImmutableSet.Builder<Long> resultBuilder = ImmutableSet.builder();
+                while (resultSet.next()) {
+                    resultBuilder.add(resultSet.getLong("GUILD_ID"));
+                }
+                BotMetrics.databaseTimer("getAllGuildIds", stopwatch.elapsed());
+                return resultBuilder.build();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes up to limit messages of the guild and their unused configs in one transaction
+     *
+     * @return the number of deleted messages, less than the limit if the guild has no more messages
+     */
+    int deleteDataForGuild(long guildId, int limit) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final Map<Long, Integer> deletedRowsPerChannel = new HashMap<>();
+        final ImmutableSet.Builder<UUID> configIdBuilder = ImmutableSet.builder();
+        int deleted = 0;
+        try (Connection con = connectionPool.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT CHANNEL_ID, CONFIG_ID FROM OLD TABLE (DELETE FROM MESSAGE_DATA WHERE GUILD_ID = ? FETCH FIRST ? ROWS ONLY)")) {
+                preparedStatement.setLong(1, guildId);
+                preparedStatement.setInt(2, limit);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    deletedRowsPerChannel.merge(resultSet.getLong("CHANNEL_ID"), 1, Integer::sum);
+                    configIdBuilder.add(resultSet.getObject("CONFIG_ID", UUID.class));
+                    deleted++;
+                }
+            }
+            if (deleted < limit) {
+                deleted += legacyMove.deleteLegacyMessageData(con, "GUILD_ID = ?", preparedStatement -> preparedStatement.setLong(1, guildId)).size();
+            }
+            if (deleted < limit) {
+                //the archived messages are deleted after the messages in MESSAGE_DATA
+                try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_DATA_ARCHIVE WHERE GUILD_ID = ? FETCH FIRST ? ROWS ONLY")) {
+                    preparedStatement.setLong(1, guildId);
+                    preparedStatement.setInt(2, limit - deleted);
+                    deleted += preparedStatement.executeUpdate();
+                }
+            }
+            deleteUnusedConfigs(con, configIdBuilder.build());
+            con.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        deletedRowsPerChannel.forEach(statistics::rowsRemoved);
+        BotMetrics.databaseTimer("deleteDataForGuild", stopwatch.elapsed());
+        return deleted;
+    }
+
+    /**
+     * Writes all changes into the database file, the space of deleted rows is reused by H2 after it
+     */
+    void checkpoint() {
+        try (Connection con = connectionPool.getConnection()) {
+            con.createStatement().execute("CHECKPOINT SYNC");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //configs that are not used by any message are removed with the last message
+    private void deleteUnusedConfigs(Connection con, Set<UUID> configIds) throws SQLException {
+        if (legacyMove.tableExists()) {
+            //the legacy rows can still use the configs, the unused configs are removed after the move
+            return;
+        }
+        knownConfigIds.removeAll(configIds);
+        try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_CONFIG MC WHERE MC.CONFIG_ID = ? AND NOT EXISTS (SELECT 1 FROM MESSAGE_DATA MD WHERE MD.CONFIG_ID = MC.CONFIG_ID)")) {
+            for (UUID configId : configIds) {
+                preparedStatement.setObject(1, configId);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
 
     @Override
     public @NonNull Set<Long> getAllMessageIdsForConfig(@NonNull UUID configUUID) {
         Stopwatch stopwatch = Stopwatch.createStarted();
-        try (Connection con = connectionPool.getConnection()) {
-            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT DISTINCT MC.MESSAGE_ID FROM MESSAGE_DATA MC WHERE MC.CONFIG_ID = ?")) {
+        legacyMove.tableReadLock().lock();
+        try (ConnectionLease lease = leaseConnection()) {
+            final boolean withLegacyTable = legacyMove.tableExists();
+            try (PreparedStatement preparedStatement = lease.getConnection().prepareStatement("""
+                    SELECT MD.MESSAGE_ID FROM MESSAGE_DATA MD WHERE MD.CONFIG_ID = ?
+                    UNION SELECT MA.MESSAGE_ID FROM MESSAGE_DATA_ARCHIVE MA WHERE MA.CONFIG_ID = ?"""
+                    + (withLegacyTable ? " UNION SELECT ML.MESSAGE_ID FROM " + LEGACY_MESSAGE_DATA_TABLE + " ML WHERE ML.CONFIG_ID = ?" : ""))) {
                 preparedStatement.setObject(1, configUUID);
+                preparedStatement.setObject(2, configUUID);
+                if (withLegacyTable) {
+                    preparedStatement.setObject(3, configUUID);
+                }
                 ResultSet resultSet = preparedStatement.executeQuery();
                 final ImmutableSet.Builder<Long> resultBuilder = ImmutableSet.builder();
                 while (resultSet.next()) {
@@ -132,108 +469,334 @@ public class MessageDataDAOImpl implements MessageDataDAO {
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            legacyMove.tableReadLock().unlock();
         }
     }
 
-    public void queryGauge(String name, String query, DataSource dataSource, Set<Tag> tags) {
-        ToDoubleFunction<DataSource> totalRows = ds -> {
-            try (Connection conn = ds.getConnection();
-                 PreparedStatement ps = conn.prepareStatement(query);
-                 ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getInt(1);
-            } catch (SQLException ignored) {
-                return 0;
-            }
-        };
-
-        Gauge.builder(name, dataSource, totalRows).tags(tags)
-                .register(globalRegistry);
+    @Override
+    public void deleteDataForMessage(long channelId, long messageId) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        deleteMessagesWithUnusedConfigs(channelId, List.of(messageId));
+        BotMetrics.databaseTimer("deleteDataForMessage", stopwatch.elapsed());
     }
 
     @Override
-    public void deleteDataForMessage(long channelId, long messageId) {
+    public void deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
         Stopwatch stopwatch = Stopwatch.createStarted();
-        try (Connection con = connectionPool.getConnection()) {
-            try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_DATA WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?")) {
-                preparedStatement.setLong(1, channelId);
-                preparedStatement.setLong(2, messageId);
-                preparedStatement.execute();
-                BotMetrics.databaseTimer("deleteDataForMessage", stopwatch.elapsed());
+        deleteMessagesWithUnusedConfigs(channelId, messageIds);
+        BotMetrics.databaseTimer("deleteDataForMessages", stopwatch.elapsed());
+    }
+
+    //the messages and their unused configs are deleted in one transaction, so no config is left without a message
+    private void deleteMessagesWithUnusedConfigs(long channelId, Collection<Long> messageIds) {
+        final ImmutableSet.Builder<UUID> configIdBuilder = ImmutableSet.builder();
+        int deletedRows = 0;
+        try (ConnectionLease lease = leaseConnection()) {
+            final Connection con = lease.getConnection();
+            con.setAutoCommit(false);
+            try {
+                try (PreparedStatement preparedStatement = con.prepareStatement("SELECT CONFIG_ID FROM OLD TABLE (DELETE FROM MESSAGE_DATA WHERE CHANNEL_ID = ? AND MESSAGE_ID = ANY(?))")) {
+                    preparedStatement.setLong(1, channelId);
+                    preparedStatement.setObject(2, messageIds.toArray(new Long[0]));
+                    ResultSet resultSet = preparedStatement.executeQuery();
+                    while (resultSet.next()) {
+                        configIdBuilder.add(resultSet.getObject("CONFIG_ID", UUID.class));
+                        deletedRows++;
+                    }
+                }
+                try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_DATA_ARCHIVE WHERE CHANNEL_ID = ? AND MESSAGE_ID = ANY(?)")) {
+                    preparedStatement.setLong(1, channelId);
+                    preparedStatement.setObject(2, messageIds.toArray(new Long[0]));
+                    preparedStatement.executeUpdate();
+                }
+                legacyMove.deleteLegacyMessageData(con, "CHANNEL_ID = ? AND MESSAGE_ID = ANY(?)", preparedStatement -> {
+                    preparedStatement.setLong(1, channelId);
+                    preparedStatement.setObject(2, messageIds.toArray(new Long[0]));
+                });
+                deleteUnusedConfigs(con, configIdBuilder.build());
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                //the connection of a unit of work is used by the next operations
+                con.setAutoCommit(true);
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        statistics.rowsRemoved(channelId, deletedRows);
     }
 
     @Override
     public @NonNull Set<Long> deleteDataForChannel(long channelId) {
         Stopwatch stopwatch = Stopwatch.createStarted();
-        final ImmutableSet<Long> ids;
+        final ImmutableSet.Builder<Long> messageIdBuilder = ImmutableSet.builder();
+        final ImmutableSet.Builder<UUID> configIdBuilder = ImmutableSet.builder();
         try (Connection con = connectionPool.getConnection()) {
             con.setAutoCommit(false);
-            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT DISTINCT MC.MESSAGE_ID FROM MESSAGE_DATA MC WHERE MC.CHANNEL_ID = ?")) {
-                preparedStatement.setObject(1, channelId);
+            //selects the deleted rows, so the list and delete is one statement
+            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT MESSAGE_ID, CONFIG_ID FROM OLD TABLE (DELETE FROM MESSAGE_DATA WHERE CHANNEL_ID = ?)")) {
+                preparedStatement.setLong(1, channelId);
                 ResultSet resultSet = preparedStatement.executeQuery();
-                final ImmutableSet.Builder<Long> resultBuilder = ImmutableSet.builder();
                 while (resultSet.next()) {
-                    resultBuilder.add(resultSet.getLong("MESSAGE_ID"));
+                    messageIdBuilder.add(resultSet.getLong("MESSAGE_ID"));
+                    configIdBuilder.add(resultSet.getObject("CONFIG_ID", UUID.class));
                 }
-                ids = resultBuilder.build();
             }
-
-            try (PreparedStatement preparedStatement = con.prepareStatement("DELETE FROM MESSAGE_DATA WHERE CHANNEL_ID = ?")) {
+            try (PreparedStatement preparedStatement = con.prepareStatement("SELECT MESSAGE_ID FROM OLD TABLE (DELETE FROM MESSAGE_DATA_ARCHIVE WHERE CHANNEL_ID = ?)")) {
                 preparedStatement.setLong(1, channelId);
-                preparedStatement.execute();
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    messageIdBuilder.add(resultSet.getLong("MESSAGE_ID"));
+                }
             }
+            messageIdBuilder.addAll(legacyMove.deleteLegacyMessageData(con, "CHANNEL_ID = ?", preparedStatement -> preparedStatement.setLong(1, channelId)));
+            deleteUnusedConfigs(con, configIdBuilder.build());
             con.commit();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        statistics.channelRemoved(channelId);
         BotMetrics.databaseTimer("deleteDataForChannel", stopwatch.elapsed());
-        return ids;
+        return messageIdBuilder.build();
     }
 
     @Override
-    public void saveMessageData(@NonNull MessageDataDTO messageData) {
+    public long saveMessageData(@NonNull MessageDataDTO messageData) {
         Stopwatch stopwatch = Stopwatch.createStarted();
-        try (Connection con = connectionPool.getConnection()) {
-            try (PreparedStatement preparedStatement =
-                         con.prepareStatement("INSERT INTO MESSAGE_DATA(CONFIG_ID, GUILD_ID, CHANNEL_ID, MESSAGE_ID, COMMAND_ID, CONFIG_CLASS_ID, CONFIG, STATE_CLASS_ID, STATE, CREATION_DATE) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+        if (!knownConfigIds.contains(messageData.getConfigUUID())) {
+            //the config is written only with the first message of the config
+            executeUpdate(MERGE_CONFIG_SQL, preparedStatement -> {
+                preparedStatement.setObject(1, messageData.getConfigUUID());
+                preparedStatement.setString(2, messageData.getCommandId());
+                preparedStatement.setString(3, messageData.getConfigClassId());
+                preparedStatement.setString(4, messageData.getConfig());
+                preparedStatement.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+            });
+            knownConfigIds.add(messageData.getConfigUUID());
+        }
+        final Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        while (true) {
+            if (insertMessageData(messageData, now)) {
+                statistics.rowAdded(messageData.getChannelId(), messageData.getGuildId());
+                BotMetrics.databaseTimer("saveMessageData", stopwatch.elapsed());
+                return messageData.getVersion();
+            }
+            //the data of a pinned legacy message is saved with every click, the update replaces the data of the last click
+            final Optional<Long> updatedVersion = replaceMessageData(messageData, now);
+            if (updatedVersion.isPresent()) {
+                BotMetrics.databaseTimer("saveMessageData", stopwatch.elapsed());
+                return updatedVersion.get();
+            }
+            //the message was deleted between the insert and the update
+        }
+    }
+
+    //false if the message data exists already
+    private boolean insertMessageData(MessageDataDTO messageData, Timestamp now) {
+        try {
+            executeUpdate("INSERT INTO MESSAGE_DATA(CONFIG_ID, GUILD_ID, CHANNEL_ID, MESSAGE_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", preparedStatement -> {
                 preparedStatement.setObject(1, messageData.getConfigUUID());
                 preparedStatement.setObject(2, messageData.getGuildId());
-                preparedStatement.setObject(3, messageData.getChannelId());
+                preparedStatement.setLong(3, messageData.getChannelId());
                 preparedStatement.setLong(4, messageData.getMessageId());
-                preparedStatement.setString(5, messageData.getCommandId());
-                preparedStatement.setString(6, messageData.getConfigClassId());
-                preparedStatement.setString(7, messageData.getConfig());
-                preparedStatement.setString(8, messageData.getStateDataClassId());
-                preparedStatement.setString(9, messageData.getStateData());
-                preparedStatement.setTimestamp(10, Timestamp.valueOf(LocalDateTime.now()));
-                preparedStatement.execute();
+                preparedStatement.setString(5, messageData.getStateDataClassId());
+                preparedStatement.setString(6, messageData.getStateData());
+                preparedStatement.setTimestamp(7, now);
+                preparedStatement.setTimestamp(8, now);
+                preparedStatement.setLong(9, messageData.getVersion());
+            });
+            return true;
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SQLException sqlException && DUPLICATE_KEY_SQL_STATE.equals(sqlException.getSQLState())) {
+                return false;
             }
-        } catch (Exception e) {
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the config and state of the existing message data. The creation date is kept and the version is
+     * incremented, so a concurrent update with the old version fails.
+     *
+     * @return the new version, empty if the message data doesn't exist
+     */
+    private Optional<Long> replaceMessageData(MessageDataDTO messageData, Timestamp now) {
+        try (ConnectionLease lease = leaseConnection()) {
+            try (PreparedStatement preparedStatement = lease.getConnection().prepareStatement("""
+                    SELECT VERSION FROM FINAL TABLE (
+                    UPDATE MESSAGE_DATA SET CONFIG_ID = ?, GUILD_ID = ?, STATE_CLASS_ID = ?, STATE = ?, LAST_ACCESS = ?, VERSION = VERSION + 1
+                    WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?)""")) {
+                preparedStatement.setObject(1, messageData.getConfigUUID());
+                preparedStatement.setObject(2, messageData.getGuildId());
+                preparedStatement.setString(3, messageData.getStateDataClassId());
+                preparedStatement.setString(4, messageData.getStateData());
+                preparedStatement.setTimestamp(5, now);
+                preparedStatement.setLong(6, messageData.getChannelId());
+                preparedStatement.setLong(7, messageData.getMessageId());
+                ResultSet resultSet = preparedStatement.executeQuery();
+                return resultSet.next() ? Optional.of(resultSet.getLong("VERSION")) : Optional.empty();
+            }
+        } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        BotMetrics.databaseTimer("saveMessageData", stopwatch.elapsed());
     }
 
     @Override
-    public void updateCommandConfigOfMessage(long channelId, long messageId, @NonNull String stateDataClassId, @Nullable String stateData) {
+    public boolean updateCommandConfigOfMessage(long channelId, long messageId, long expectedVersion, long newVersion, @NonNull String stateDataClassId, @Nullable String stateData) {
         Stopwatch stopwatch = Stopwatch.createStarted();
-        try (Connection con = connectionPool.getConnection()) {
-            try (PreparedStatement preparedStatement =
-                         con.prepareStatement("UPDATE MESSAGE_DATA SET STATE_CLASS_ID = ?, STATE = ? WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?")) {
-                preparedStatement.setString(1, stateDataClassId);
-                preparedStatement.setString(2, stateData);
-                preparedStatement.setLong(3, channelId);
-                preparedStatement.setLong(4, messageId);
-                preparedStatement.execute();
+        int updatedRows = executeUpdate("UPDATE MESSAGE_DATA SET STATE_CLASS_ID = ?, STATE = ?, LAST_ACCESS = ?, VERSION = ? WHERE CHANNEL_ID = ? AND MESSAGE_ID = ? AND VERSION = ?", preparedStatement -> {
+            preparedStatement.setString(1, stateDataClassId);
+            preparedStatement.setString(2, stateData);
+            preparedStatement.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+            preparedStatement.setLong(4, newVersion);
+            preparedStatement.setLong(5, channelId);
+            preparedStatement.setLong(6, messageId);
+            preparedStatement.setLong(7, expectedVersion);
+        });
+        BotMetrics.databaseTimer("updateCommandConfigOfMessage", stopwatch.elapsed());
+        return updatedRows > 0;
+    }
+
+    @Override
+    public @NonNull List<StateEventDTO> getStateEvents(long channelId, long messageId, long afterSequence) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try (ConnectionLease lease = leaseConnection()) {
+            try (PreparedStatement preparedStatement = lease.getConnection().prepareStatement("""
+                    SELECT SEQUENCE, BUTTON_VALUE, USER_NAME FROM MESSAGE_STATE_EVENT
+                    WHERE CHANNEL_ID = ? AND MESSAGE_ID = ? AND SEQUENCE > ?
+                    ORDER BY SEQUENCE""")) {
+                preparedStatement.setLong(1, channelId);
+                preparedStatement.setLong(2, messageId);
+                preparedStatement.setLong(3, afterSequence);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                final List<StateEventDTO> result = new ArrayList<>();
+                while (resultSet.next()) {
+                    result.add(new StateEventDTO(resultSet.getLong("SEQUENCE"), resultSet.getString("BUTTON_VALUE"), resultSet.getString("USER_NAME")));
+                }
+                BotMetrics.databaseTimer("getStateEvents", stopwatch.elapsed());
+                return result;
             }
-        } catch (Exception e) {
+        } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        BotMetrics.databaseTimer("saveMessageData", stopwatch.elapsed());
     }
 
+    @Override
+    public boolean appendStateEvent(long channelId, long messageId, long sequence, @NonNull String buttonValue, @Nullable String userName) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final int insertedRows;
+        try {
+            //the select returns no row if the message data is missing, has a newer snapshot or the sequence exists
+            insertedRows = executeUpdate("""
+                    INSERT INTO MESSAGE_STATE_EVENT(CHANNEL_ID, MESSAGE_ID, SEQUENCE, BUTTON_VALUE, USER_NAME, CREATION_DATE)
+                    SELECT MD.CHANNEL_ID, MD.MESSAGE_ID, CAST(? AS BIGINT), CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS TIMESTAMP) FROM MESSAGE_DATA MD
+                    WHERE MD.CHANNEL_ID = ? AND MD.MESSAGE_ID = ? AND MD.VERSION < ?
+                    AND NOT EXISTS (SELECT 1 FROM MESSAGE_STATE_EVENT E WHERE E.CHANNEL_ID = MD.CHANNEL_ID AND E.MESSAGE_ID = MD.MESSAGE_ID AND E.SEQUENCE = ?)
+                    """, preparedStatement -> {
+                preparedStatement.setLong(1, sequence);
+                preparedStatement.setString(2, buttonValue);
+                preparedStatement.setString(3, userName);
+                preparedStatement.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+                preparedStatement.setLong(5, channelId);
+                preparedStatement.setLong(6, messageId);
+                preparedStatement.setLong(7, sequence);
+                preparedStatement.setLong(8, sequence);
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SQLException sqlException && DUPLICATE_KEY_SQL_STATE.equals(sqlException.getSQLState())) {
+                //a concurrent click inserted the same sequence
+                return false;
+            }
+            throw e;
+        }
+        markAsAccessed(channelId, messageId);
+        BotMetrics.databaseTimer("appendStateEvent", stopwatch.elapsed());
+        return insertedRows > 0;
+    }
+
+    @Override
+    public void snapshotState(long channelId, long messageId, long version, @NonNull String stateDataClassId, @Nullable String stateData) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        executeUpdate("UPDATE MESSAGE_DATA SET STATE_CLASS_ID = ?, STATE = ?, LAST_ACCESS = ?, VERSION = ? WHERE CHANNEL_ID = ? AND MESSAGE_ID = ? AND VERSION < ?", preparedStatement -> {
+            preparedStatement.setString(1, stateDataClassId);
+            preparedStatement.setString(2, stateData);
+            preparedStatement.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+            preparedStatement.setLong(4, version);
+            preparedStatement.setLong(5, channelId);
+            preparedStatement.setLong(6, messageId);
+            preparedStatement.setLong(7, version);
+        });
+        BotMetrics.databaseTimer("snapshotState", stopwatch.elapsed());
+    }
+
+    private int executeUpdate(String sql, MessageDataWriteBatcher.StatementBinder binder) {
+        //the batcher would wait for a second connection while the unit of work holds one
+        if (writeBatcher != null && sharedConnection.get() == null) {
+            return writeBatcher.execute(sql, binder);
+        }
+        try (ConnectionLease lease = leaseConnection()) {
+            try (PreparedStatement preparedStatement = lease.getConnection().prepareStatement(sql)) {
+                binder.bind(preparedStatement);
+                return preparedStatement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The connection of a unit of work, it is acquired with the first operation that needs it
+     */
+    private class SharedConnection {
+        private Connection connection;
+        private int operations;
+
+        Connection getConnection() throws SQLException {
+            if (connection == null) {
+                connection = connectionPool.getConnection();
+            }
+            operations++;
+            return connection;
+        }
+
+        void release() {
+            //without the unit of work every operation would have acquired its own connection
+            BotMetrics.unitOfWorkConnections(connection == null ? 0 : 1, operations);
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    @Value
+    private static class ConnectionLease implements AutoCloseable {
+        @NonNull
+        Connection connection;
+        boolean owned;
+
+        @Override
+        public void close() throws SQLException {
+            if (owned) {
+                connection.close();
+            }
+        }
+    }
+
+    @Value
+    static class StoredMessage {
+        @NonNull
+        UUID configId;
+        long channelId;
+        long messageId;
+    }
 }
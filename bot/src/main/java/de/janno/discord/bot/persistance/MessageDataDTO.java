@@ -3,6 +3,7 @@ package de.janno.discord.bot.persistance;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.Value;
+import lombok.With;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.UUID;
@@ -26,6 +27,15 @@ public class MessageDataDTO {
     String stateDataClassId;
     @Nullable
     String stateData;
+    /**
+     * Is increased with every state update, used to detect concurrent updates
+     */
+    @With
+    long version;
+
+    public MessageDataDTO(@NonNull UUID configUUID, Long guildId, long channelId, long messageId, @NonNull String commandId, @NonNull String configClassId, @NonNull String config, @NonNull String stateDataClassId, @Nullable String stateData) {
+        this(configUUID, guildId, channelId, messageId, commandId, configClassId, config, stateDataClassId, stateData, 0);
+    }
 
     public MessageDataDTO(@NonNull UUID configUUID, Long guildId, long channelId, long messageId, @NonNull String commandId, @NonNull String configClassId, @NonNull String config) {
         this.configUUID = configUUID;
@@ -37,5 +47,6 @@ public class MessageDataDTO {
         this.config = config;
         this.stateDataClassId = Mapper.NO_PERSISTED_STATE;
         this.stateData = null;
+        this.version = 0;
     }
 }
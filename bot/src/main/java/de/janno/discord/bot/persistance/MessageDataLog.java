@@ -0,0 +1,134 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only log of records in a memory mapped file. A record is the length, a checksum, the type and the payload.
+ * After a crash the log is read until the first record with a wrong checksum, the records after it are discarded. The
+ * file is mapped larger than the written records and grows by doubling. Not thread safe.
+ */
+@Slf4j
+class MessageDataLog implements Closeable {
+
+    //length and checksum
+    private static final int HEADER_SIZE = 8;
+    //a single mapping can't be larger than an int
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    MessageDataLog(@NonNull Path path, int initialSize) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(MAX_SIZE, Math.max(initialSize, channel.size())));
+        position = 0;
+    }
+
+    private static int checksum(ByteBuffer record, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads all valid records from the start and sets the append position after the last valid record
+     */
+    void replay(@NonNull RecordConsumer consumer) {
+        position = 0;
+        while (position + HEADER_SIZE < buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()
+                    || checksum(buffer, position + HEADER_SIZE, length) != buffer.getInt(position + 4)) {
+                break;
+            }
+            consumer.accept(position, buffer.get(position + HEADER_SIZE), buffer.slice(position + HEADER_SIZE + 1, length - 1));
+            position += HEADER_SIZE + length;
+        }
+        if (position + HEADER_SIZE < buffer.capacity() && buffer.getInt(position) != 0) {
+            //the rest of an interrupted write, it is removed so it can't be mistaken as record after the next appends
+            log.warn("Discard invalid data after position {} of the message data log", position);
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @return the position of the record
+     */
+    long append(byte type, @NonNull ByteBuffer payload) throws IOException {
+        int length = 1 + payload.remaining();
+        ensureCapacity((long) position + HEADER_SIZE + length);
+        int recordPosition = position;
+        buffer.put(recordPosition + HEADER_SIZE, type);
+        buffer.put(recordPosition + HEADER_SIZE + 1, payload, payload.position(), payload.remaining());
+        buffer.putInt(recordPosition + 4, checksum(buffer, recordPosition + HEADER_SIZE, length));
+        buffer.putInt(recordPosition, length);
+        position += HEADER_SIZE + length;
+        return recordPosition;
+    }
+
+    byte getType(long recordPosition) {
+        return buffer.get((int) recordPosition + HEADER_SIZE);
+    }
+
+    /**
+     * @return a read only view of the payload of the record
+     */
+    ByteBuffer getPayload(long recordPosition) {
+        int length = buffer.getInt((int) recordPosition);
+        return buffer.slice((int) recordPosition + HEADER_SIZE + 1, length - 1).asReadOnlyBuffer();
+    }
+
+    int getRecordSize(long recordPosition) {
+        return HEADER_SIZE + buffer.getInt((int) recordPosition);
+    }
+
+    /**
+     * @return the number of bytes of all records
+     */
+    int size() {
+        return position;
+    }
+
+    /**
+     * Writes the changed pages to the disk
+     */
+    void force() {
+        buffer.force();
+    }
+
+    private void ensureCapacity(long requiredSize) throws IOException {
+        if (requiredSize <= buffer.capacity()) {
+            return;
+        }
+        if (requiredSize > MAX_SIZE) {
+            throw new IllegalStateException("The message data log is full");
+        }
+        long newSize = Math.min(MAX_SIZE, Math.max(requiredSize, (long) buffer.capacity() * 2));
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(long recordPosition, byte type, ByteBuffer payload);
+    }
+}
@@ -0,0 +1,87 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the data of messages that were not used for longer than the max age, including the archived messages. The deletion runs once a day at the start
+ * time, in small transactions with a pause between them, so it doesn't block the interactions. The access times of the
+ * messages are written periodically.
+ */
+@Slf4j
+public class MessageDataRetention extends DailyMessageDataJob {
+
+    private static final Duration LAST_ACCESS_WRITE_INTERVAL = Duration.ofMinutes(10);
+
+    private final Duration maxAge;
+
+    /**
+     * @param cacheInvalidation the cache in front of the database, the deleted messages are invalidated in it
+     * @param maxAge            message data that was not used for this duration is removed
+     * @param startTime         the local time of the daily start, should be a time with low usage
+     * @param batchSize         the number of messages that are deleted in one transaction
+     * @param minPause          the minimal pause between two batches
+     * @param maxRunDuration    the deletion stops after this duration and continues on the next day
+     */
+    public MessageDataRetention(@NonNull MessageDataDAOImpl messageDataDAO,
+                                @NonNull MessageDataCacheInvalidation cacheInvalidation,
+                                @NonNull Duration maxAge,
+                                @NonNull LocalTime startTime,
+                                int batchSize,
+                                @NonNull Duration minPause,
+                                @NonNull Duration maxRunDuration) {
+        super("message data retention", messageDataDAO, cacheInvalidation, batchSize, minPause, maxRunDuration);
+        this.maxAge = maxAge;
+        executorService.scheduleWithFixedDelay(this::writeLastAccessSafe, LAST_ACCESS_WRITE_INTERVAL.toMillis(), LAST_ACCESS_WRITE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        scheduleDaily(startTime);
+        messageDataDAO.addBeforeShutdownAction(messageDataDAO::writeLastAccess);
+    }
+
+    private void writeLastAccessSafe() {
+        try {
+            messageDataDAO.writeLastAccess();
+        } catch (Exception e) {
+            log.error("Error while writing the message access", e);
+        }
+    }
+
+    /**
+     * Deletes all message data that was not used within the max age
+     *
+     * @return the number of deleted messages
+     */
+    @Override
+    int run() throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        messageDataDAO.writeLastAccess();
+        final LocalDateTime threshold = LocalDateTime.now().minus(maxAge);
+        int deleted = processSelected(stopwatch,
+                (after, limit) -> messageDataDAO.getMessagesNotAccessedSince(threshold, after, limit),
+                batch -> messageDataDAO.deleteMessagesNotAccessedSince(batch, threshold));
+        //the archived messages have only one row each, they are deleted in larger batches
+        int deletedArchived;
+        do {
+            if (isRunDurationExceeded(stopwatch)) {
+                log.info("message data retention stopped after {}ms, deleted {} messages", stopwatch.elapsed(TimeUnit.MILLISECONDS), deleted);
+                return deleted;
+            }
+            Stopwatch batchStopwatch = Stopwatch.createStarted();
+            deletedArchived = messageDataDAO.deleteArchivedMessagesNotAccessedSince(threshold, batchSize * PAUSE_FACTOR);
+            deleted += deletedArchived;
+            if (deletedArchived > 0) {
+                pauseAfter(batchStopwatch);
+            }
+        } while (deletedArchived == batchSize * PAUSE_FACTOR);
+        if (deleted > 0) {
+            messageDataDAO.checkpoint();
+        }
+        log.info("message data retention deleted {} messages in {}ms", deleted, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return deleted;
+    }
+}
@@ -0,0 +1,258 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The versioned migrations of the message data tables, used by the {@link MessageDataDAOImpl} at the start and by the
+ * tools that open the database while the bot is stopped
+ */
+@Slf4j
+final class MessageDataSchema {
+
+    static final int LATEST_SCHEMA_VERSION = 5;
+    //the message data table before schema version 2, its rows are moved into MESSAGE_DATA by the LegacyMessageDataMove
+    static final String LEGACY_MESSAGE_DATA_TABLE = "MESSAGE_DATA_V1";
+
+    private MessageDataSchema() {
+    }
+
+    /**
+     * Executes all migrations that are newer than the version in SCHEMA_VERSION. Each migration must be restartable,
+     * because the version is only written after the migration is complete.
+     */
+    static void migrateSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS SCHEMA_VERSION(VERSION INT NOT NULL)");
+        }
+        int schemaVersion = getSchemaVersion(connection);
+        if (schemaVersion < 1 && !tableExists(connection, "MESSAGE_DATA")) {
+            //a new database gets the latest schema without the migrations
+            createLatestSchema(connection);
+            setSchemaVersion(connection, LATEST_SCHEMA_VERSION);
+            return;
+        }
+        if (schemaVersion < 1) {
+            createSchemaV1(connection);
+            setSchemaVersion(connection, 1);
+        }
+        if (schemaVersion < 2) {
+            migrateToSchemaV2(connection);
+            setSchemaVersion(connection, 2);
+        }
+        if (schemaVersion < 3) {
+            //for the purge of the data of guilds the bot left, the table of schema version 2 has the index already
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX IF NOT EXISTS MESSAGE_DATA_GUILD_ID ON MESSAGE_DATA (GUILD_ID)");
+            }
+            setSchemaVersion(connection, 3);
+        }
+        if (schemaVersion < 4) {
+            createStateEventTable(connection);
+            setSchemaVersion(connection, 4);
+        }
+        if (schemaVersion < 5) {
+            createArchiveTable(connection);
+            setSchemaVersion(connection, 5);
+        }
+    }
+
+    private static void createLatestSchema(Connection connection) throws SQLException {
+        createMessageDataTable(connection);
+        createConfigTable(connection);
+        createStateEventTable(connection);
+        createArchiveTable(connection);
+    }
+
+    private static int getSchemaVersion(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT MAX(VERSION) FROM SCHEMA_VERSION")) {
+            ResultSet resultSet = preparedStatement.executeQuery();
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private static void setSchemaVersion(Connection connection, int version) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO SCHEMA_VERSION(VERSION) VALUES (?)")) {
+            preparedStatement.setInt(1, version);
+            preparedStatement.execute();
+        }
+        log.info("message data schema version {}", version);
+    }
+
+    /**
+     * The schema before the versioned migrations, the statements bring every older schema to this version
+     */
+    private static void createSchemaV1(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS MESSAGE_DATA(
+                        CONFIG_ID       UUID            NOT NULL,
+                        CHANNEL_ID      BIGINT          NOT NULL,
+                        MESSAGE_ID      BIGINT          NOT NULL,
+                        STATE_CLASS_ID  VARCHAR         NOT NULL,
+                        STATE           VARCHAR         NULL,
+                        CREATION_DATE   TIMESTAMP       NOT NULL,
+                        PRIMARY KEY (CONFIG_ID, CHANNEL_ID, MESSAGE_ID)
+                    );
+
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_ID ON MESSAGE_DATA (CONFIG_ID);
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_CHANNEL ON MESSAGE_DATA (CHANNEL_ID);
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_CHANNEL_MESSAGE ON MESSAGE_DATA (CHANNEL_ID, MESSAGE_ID);
+                                        
+                    ALTER TABLE MESSAGE_DATA ADD COLUMN IF NOT EXISTS GUILD_ID BIGINT;
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_GUILD ON MESSAGE_DATA (GUILD_ID);
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_GUILD_CHANNEl ON MESSAGE_DATA (GUILD_ID, CHANNEL_ID);
+                                        
+                    ALTER TABLE MESSAGE_DATA ADD COLUMN IF NOT EXISTS LAST_ACCESS TIMESTAMP;
+                    ALTER TABLE MESSAGE_DATA ADD COLUMN IF NOT EXISTS VERSION BIGINT DEFAULT 0 NOT NULL;
+                    """);
+        }
+        createConfigTable(connection);
+        migrateConfigsIntoConfigTable(connection);
+    }
+
+    private static void createConfigTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS MESSAGE_CONFIG(
+                        CONFIG_ID       UUID            NOT NULL,
+                        COMMAND_ID      VARCHAR         NOT NULL,
+                        CONFIG_CLASS_ID VARCHAR         NOT NULL,
+                        CONFIG          VARCHAR         NOT NULL,
+                        CREATION_DATE   TIMESTAMP       NOT NULL,
+                        PRIMARY KEY (CONFIG_ID)
+                    );
+                    """);
+        }
+    }
+
+    /**
+     * The old table is renamed to MESSAGE_DATA_V1 and replaced by an empty table with the new schema, so the start is not
+     * delayed by the size of the old table. The rows are moved in the background after the start, a message that is not
+     * yet moved is moved with its first read.
+     */
+    private static void migrateToSchemaV2(Connection connection) throws SQLException {
+        //the rename is skipped on the restart of an interrupted migration
+        if (!tableExists(connection, LEGACY_MESSAGE_DATA_TABLE)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE MESSAGE_DATA RENAME TO " + LEGACY_MESSAGE_DATA_TABLE);
+            }
+        }
+        createMessageDataTable(connection);
+        log.info("renamed MESSAGE_DATA to {}, the rows are moved after the start", LEGACY_MESSAGE_DATA_TABLE);
+    }
+
+    /**
+     * All lookups use the channel and message id, so they are the primary key. The config id needs an index for the
+     * message ids of a config and the removal of unused configs, the guild id for the purge of the guilds the bot left.
+     */
+    private static void createMessageDataTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS MESSAGE_DATA(
+                        CHANNEL_ID      BIGINT          NOT NULL,
+                        MESSAGE_ID      BIGINT          NOT NULL,
+                        CONFIG_ID       UUID            NOT NULL,
+                        GUILD_ID        BIGINT,
+                        STATE_CLASS_ID  VARCHAR         NOT NULL,
+                        STATE           VARCHAR         NULL,
+                        CREATION_DATE   TIMESTAMP       NOT NULL,
+                        LAST_ACCESS     TIMESTAMP,
+                        VERSION         BIGINT          DEFAULT 0 NOT NULL,
+                        PRIMARY KEY (CHANNEL_ID, MESSAGE_ID)
+                    );
+                                        
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_CONFIG_ID ON MESSAGE_DATA (CONFIG_ID);
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_GUILD_ID ON MESSAGE_DATA (GUILD_ID);
+                    """);
+        }
+    }
+
+    /**
+     * The clicks of the messages with event sourced state. The events are kept until the message is deleted, the
+     * snapshot in MESSAGE_DATA only marks the events that are already applied.
+     */
+    private static void createStateEventTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS MESSAGE_STATE_EVENT(
+                        CHANNEL_ID      BIGINT          NOT NULL,
+                        MESSAGE_ID      BIGINT          NOT NULL,
+                        SEQUENCE        BIGINT          NOT NULL,
+                        BUTTON_VALUE    VARCHAR         NOT NULL,
+                        USER_NAME       VARCHAR         NULL,
+                        CREATION_DATE   TIMESTAMP       NOT NULL,
+                        PRIMARY KEY (CHANNEL_ID, MESSAGE_ID, SEQUENCE),
+                        FOREIGN KEY (CHANNEL_ID, MESSAGE_ID) REFERENCES MESSAGE_DATA (CHANNEL_ID, MESSAGE_ID) ON DELETE CASCADE
+                    );
+                    """);
+        }
+    }
+
+    /**
+     * The cold tier for messages that were not used for a long time. The row contains only the keys and the access time
+     * uncompressed, the config and state are compressed in DATA. The archived rows are not in the indexes of
+     * MESSAGE_DATA and MESSAGE_CONFIG, so the hot tables stay small.
+     */
+    private static void createArchiveTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS MESSAGE_DATA_ARCHIVE(
+                        CHANNEL_ID      BIGINT          NOT NULL,
+                        MESSAGE_ID      BIGINT          NOT NULL,
+                        CONFIG_ID       UUID            NOT NULL,
+                        GUILD_ID        BIGINT,
+                        LAST_ACCESS     TIMESTAMP       NOT NULL,
+                        DATA            VARBINARY       NOT NULL,
+                        PRIMARY KEY (CHANNEL_ID, MESSAGE_ID)
+                    );
+                                        
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_ARCHIVE_CONFIG_ID ON MESSAGE_DATA_ARCHIVE (CONFIG_ID);
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_ARCHIVE_GUILD_ID ON MESSAGE_DATA_ARCHIVE (GUILD_ID);
+                    CREATE INDEX IF NOT EXISTS MESSAGE_DATA_ARCHIVE_LAST_ACCESS ON MESSAGE_DATA_ARCHIVE (LAST_ACCESS);
+                    """);
+        }
+    }
+
+    static boolean tableExists(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = ?")) {
+            preparedStatement.setString(1, tableName);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            return resultSet.next() && resultSet.getInt(1) > 0;
+        }
+    }
+
+    /**
+     * Before the config table existed, every message row contained a copy of the config. The configs are moved into the
+     * config table and the copies are removed.
+     */
+    private static void migrateConfigsIntoConfigTable(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = 'MESSAGE_DATA' AND COLUMN_NAME = 'CONFIG'")) {
+            ResultSet resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next() || resultSet.getInt(1) == 0) {
+                return;
+            }
+        }
+        log.info("start migration of the configs into MESSAGE_CONFIG");
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try (Statement statement = connection.createStatement()) {
+            //all rows of a config id have the same config, the not exists makes a restart of an interrupted migration possible
+            int configCount = statement.executeUpdate("""
+                    INSERT INTO MESSAGE_CONFIG(CONFIG_ID, COMMAND_ID, CONFIG_CLASS_ID, CONFIG, CREATION_DATE)
+                    SELECT MD.CONFIG_ID, MIN(MD.COMMAND_ID), MIN(MD.CONFIG_CLASS_ID), MIN(MD.CONFIG), MIN(MD.CREATION_DATE)
+                    FROM MESSAGE_DATA MD
+                    WHERE NOT EXISTS (SELECT 1 FROM MESSAGE_CONFIG MC WHERE MC.CONFIG_ID = MD.CONFIG_ID)
+                    GROUP BY MD.CONFIG_ID
+                    """);
+            statement.execute("ALTER TABLE MESSAGE_DATA DROP COLUMN (COMMAND_ID, CONFIG_CLASS_ID, CONFIG)");
+            log.info("migrated {} configs into MESSAGE_CONFIG in {}ms", configCount, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        }
+    }
+}
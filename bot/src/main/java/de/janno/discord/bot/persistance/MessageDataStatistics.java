@@ -0,0 +1,108 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the distinct channels and guilds of the message data in memory, so the metrics don't need to query the database.
+ * The counts are loaded once at the start and updated with every write. A channel stays counted as channel without guild
+ * until all its rows are removed, even if only the rows without guild were removed.
+ */
+class MessageDataStatistics {
+
+    private final Map<Long, ChannelStatistic> channels = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> channelsPerGuild = new ConcurrentHashMap<>();
+    private final AtomicInteger channelsWithoutGuild = new AtomicInteger();
+
+    void load(@NonNull DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("""
+                     SELECT CHANNEL_ID, MAX(GUILD_ID) AS GUILD_ID, COUNT(*) AS ROW_COUNT, SUM(CASE WHEN GUILD_ID IS NULL THEN 1 ELSE 0 END) AS WITHOUT_GUILD_COUNT
+                     FROM MESSAGE_DATA
+                     GROUP BY CHANNEL_ID
+                     """);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                add(resultSet.getLong("CHANNEL_ID"),
+                        resultSet.getObject("GUILD_ID", Long.class),
+                        resultSet.getInt("ROW_COUNT"),
+                        resultSet.getInt("WITHOUT_GUILD_COUNT") > 0);
+            }
+        }
+    }
+
+    void rowAdded(long channelId, @Nullable Long guildId) {
+        add(channelId, guildId, 1, guildId == null);
+    }
+
+    void rowsRemoved(long channelId, int rowCount) {
+        channels.computeIfPresent(channelId, (id, statistic) -> {
+            statistic.rowCount -= rowCount;
+            if (statistic.rowCount > 0) {
+                return statistic;
+            }
+            removeChannel(statistic);
+            return null;
+        });
+    }
+
+    void channelRemoved(long channelId) {
+        channels.computeIfPresent(channelId, (id, statistic) -> {
+            removeChannel(statistic);
+            return null;
+        });
+    }
+
+    int getChannelCount() {
+        return channels.size();
+    }
+
+    int getGuildCount() {
+        return channelsPerGuild.size();
+    }
+
+    int getChannelsWithoutGuildCount() {
+        return channelsWithoutGuild.get();
+    }
+
+    private void add(long channelId, @Nullable Long guildId, int rowCount, boolean withoutGuild) {
+        //all changes of a channel are done inside the compute of the channel, so they can't interleave
+        channels.compute(channelId, (id, current) -> {
+            ChannelStatistic statistic = current == null ? new ChannelStatistic() : current;
+            if (guildId != null && statistic.guildId == null) {
+                statistic.guildId = guildId;
+                channelsPerGuild.merge(guildId, 1, Integer::sum);
+            }
+            if (withoutGuild && !statistic.withoutGuild) {
+                statistic.withoutGuild = true;
+                channelsWithoutGuild.incrementAndGet();
+            }
+            statistic.rowCount += rowCount;
+            return statistic;
+        });
+    }
+
+    private void removeChannel(ChannelStatistic statistic) {
+        if (statistic.guildId != null) {
+            channelsPerGuild.computeIfPresent(statistic.guildId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+        if (statistic.withoutGuild) {
+            channelsWithoutGuild.decrementAndGet();
+        }
+    }
+
+    private static class ChannelStatistic {
+        private Long guildId;
+        private boolean withoutGuild;
+        private int rowCount;
+    }
+}
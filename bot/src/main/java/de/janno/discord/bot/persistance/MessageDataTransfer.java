@@ -0,0 +1,299 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static de.janno.discord.bot.persistance.DataStreams.*;
+
+/**
+ * Copies the message data between databases through a gzip binary file, without loading the tables into memory. The
+ * export reads MESSAGE_CONFIG, MESSAGE_DATA, MESSAGE_STATE_EVENT and MESSAGE_DATA_ARCHIVE with lazy forward-only cursors
+ * in one transaction, so the file is consistent. The import merges the rows in batches, each batch in its own transaction, so an interrupted
+ * import can be started again. The bot should be stopped during the export, because the open transaction keeps the old
+ * versions of all changed rows.
+ * <p>
+ * Usage: {@code MessageDataTransfer export|import <file> <h2Url> [user] [password]}
+ */
+@Slf4j
+public class MessageDataTransfer {
+
+    private static final int MAGIC = 0x4D445446;
+    private static final int FORMAT_VERSION = 2;
+    //version 1 has no archive section
+    private static final int FORMAT_VERSION_WITHOUT_ARCHIVE = 1;
+    private static final byte ROW = 1;
+    private static final byte END_OF_TABLE = 0;
+    private static final int FETCH_SIZE = 1_000;
+    private static final int REPORT_INTERVAL = 100_000;
+
+    private final int batchSize;
+
+    public MessageDataTransfer(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || !("export".equals(args[0]) || "import".equals(args[0]))) {
+            System.err.println("Usage: MessageDataTransfer export|import <file> <h2Url> [user] [password]");
+            System.exit(1);
+        }
+        final Path file = Path.of(args[1]);
+        final String user = args.length >= 4 ? args[3] : null;
+        final String password = args.length >= 5 ? args[4] : null;
+        try (Connection connection = DriverManager.getConnection(args[2], user, password)) {
+            MessageDataSchema.migrateSchema(connection);
+            //the bot is stopped, so the rows of an old schema are moved before the transfer
+            LegacyMessageDataMove.moveAllLegacyMessageData(connection);
+            MessageDataTransfer transfer = new MessageDataTransfer(1_000);
+            if ("export".equals(args[0])) {
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    transfer.exportData(connection, out);
+                }
+            } else {
+                try (InputStream in = Files.newInputStream(file)) {
+                    transfer.importData(connection, in);
+                }
+            }
+        }
+    }
+
+    private static Timestamp toTimestamp(long epochMillis) {
+        return new Timestamp(epochMillis);
+    }
+
+    private static Long toEpochMillis(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.getTime();
+    }
+
+    /**
+     * @return the number of exported rows of all tables
+     */
+    public long exportData(@NonNull Connection connection, @NonNull OutputStream outputStream) throws SQLException, IOException {
+        final boolean autoCommit = connection.getAutoCommit();
+        final int isolation = connection.getTransactionIsolation();
+        //the three tables are read from the same snapshot
+        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        connection.setAutoCommit(false);
+        final Throughput throughput = new Throughput("export");
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(outputStream)))) {
+            //without lazy execution h2 materializes the complete result before the first row is returned
+            statement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            statement.setFetchSize(FETCH_SIZE);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            try (ResultSet resultSet = statement.executeQuery("SELECT CONFIG_ID, COMMAND_ID, CONFIG_CLASS_ID, CONFIG, CREATION_DATE FROM MESSAGE_CONFIG")) {
+                while (resultSet.next()) {
+                    out.writeByte(ROW);
+                    UUID configUUID = resultSet.getObject("CONFIG_ID", UUID.class);
+                    out.writeLong(configUUID.getMostSignificantBits());
+                    out.writeLong(configUUID.getLeastSignificantBits());
+                    writeString(out, resultSet.getString("COMMAND_ID"));
+                    writeString(out, resultSet.getString("CONFIG_CLASS_ID"));
+                    writeString(out, resultSet.getString("CONFIG"));
+                    out.writeLong(resultSet.getTimestamp("CREATION_DATE").getTime());
+                    throughput.row();
+                }
+                out.writeByte(END_OF_TABLE);
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION FROM MESSAGE_DATA")) {
+                while (resultSet.next()) {
+                    out.writeByte(ROW);
+                    out.writeLong(resultSet.getLong("CHANNEL_ID"));
+                    out.writeLong(resultSet.getLong("MESSAGE_ID"));
+                    UUID configUUID = resultSet.getObject("CONFIG_ID", UUID.class);
+                    out.writeLong(configUUID.getMostSignificantBits());
+                    out.writeLong(configUUID.getLeastSignificantBits());
+                    writeLong(out, resultSet.getObject("GUILD_ID", Long.class));
+                    writeString(out, resultSet.getString("STATE_CLASS_ID"));
+                    writeString(out, resultSet.getString("STATE"));
+                    out.writeLong(resultSet.getTimestamp("CREATION_DATE").getTime());
+                    writeLong(out, toEpochMillis(resultSet.getTimestamp("LAST_ACCESS")));
+                    out.writeLong(resultSet.getLong("VERSION"));
+                    throughput.row();
+                }
+                out.writeByte(END_OF_TABLE);
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT CHANNEL_ID, MESSAGE_ID, SEQUENCE, BUTTON_VALUE, USER_NAME, CREATION_DATE FROM MESSAGE_STATE_EVENT")) {
+                while (resultSet.next()) {
+                    out.writeByte(ROW);
+                    out.writeLong(resultSet.getLong("CHANNEL_ID"));
+                    out.writeLong(resultSet.getLong("MESSAGE_ID"));
+                    out.writeLong(resultSet.getLong("SEQUENCE"));
+                    writeString(out, resultSet.getString("BUTTON_VALUE"));
+                    writeString(out, resultSet.getString("USER_NAME"));
+                    out.writeLong(resultSet.getTimestamp("CREATION_DATE").getTime());
+                    throughput.row();
+                }
+                out.writeByte(END_OF_TABLE);
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, LAST_ACCESS, DATA FROM MESSAGE_DATA_ARCHIVE")) {
+                while (resultSet.next()) {
+                    out.writeByte(ROW);
+                    out.writeLong(resultSet.getLong("CHANNEL_ID"));
+                    out.writeLong(resultSet.getLong("MESSAGE_ID"));
+                    UUID configUUID = resultSet.getObject("CONFIG_ID", UUID.class);
+                    out.writeLong(configUUID.getMostSignificantBits());
+                    out.writeLong(configUUID.getLeastSignificantBits());
+                    writeLong(out, resultSet.getObject("GUILD_ID", Long.class));
+                    out.writeLong(resultSet.getTimestamp("LAST_ACCESS").getTime());
+                    //the data is already compressed and copied unchanged
+                    byte[] data = resultSet.getBytes("DATA");
+                    out.writeInt(data.length);
+                    out.write(data);
+                    throughput.row();
+                }
+                out.writeByte(END_OF_TABLE);
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            connection.setTransactionIsolation(isolation);
+        }
+        return throughput.done();
+    }
+
+    /**
+     * Existing rows with the same key are replaced
+     *
+     * @return the number of imported rows of all tables
+     */
+    public long importData(@NonNull Connection connection, @NonNull InputStream inputStream) throws SQLException, IOException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        final Throughput throughput = new Throughput("import");
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(inputStream)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("unknown message data export format");
+            }
+            final int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION && formatVersion != FORMAT_VERSION_WITHOUT_ARCHIVE) {
+                throw new IOException("unknown message data export format version: " + formatVersion);
+            }
+            //the configs and the message data must exist before the rows that reference them
+            try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                    MERGE INTO MESSAGE_CONFIG(CONFIG_ID, COMMAND_ID, CONFIG_CLASS_ID, CONFIG, CREATION_DATE) KEY (CONFIG_ID) VALUES (?, ?, ?, ?, ?)""")) {
+                int batchCount = 0;
+                while (in.readByte() == ROW) {
+                    preparedStatement.setObject(1, new UUID(in.readLong(), in.readLong()));
+                    preparedStatement.setString(2, readString(in));
+                    preparedStatement.setString(3, readString(in));
+                    preparedStatement.setString(4, readString(in));
+                    preparedStatement.setTimestamp(5, toTimestamp(in.readLong()));
+                    batchCount = addToBatch(connection, preparedStatement, batchCount, throughput);
+                }
+                executeBatch(connection, preparedStatement, batchCount);
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                    MERGE INTO MESSAGE_DATA(CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, STATE_CLASS_ID, STATE, CREATION_DATE, LAST_ACCESS, VERSION)
+                    KEY (CHANNEL_ID, MESSAGE_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)""")) {
+                int batchCount = 0;
+                while (in.readByte() == ROW) {
+                    preparedStatement.setLong(1, in.readLong());
+                    preparedStatement.setLong(2, in.readLong());
+                    preparedStatement.setObject(3, new UUID(in.readLong(), in.readLong()));
+                    preparedStatement.setObject(4, readLong(in));
+                    preparedStatement.setString(5, readString(in));
+                    preparedStatement.setString(6, readString(in));
+                    preparedStatement.setTimestamp(7, toTimestamp(in.readLong()));
+                    Long lastAccess = readLong(in);
+                    preparedStatement.setTimestamp(8, lastAccess == null ? null : toTimestamp(lastAccess));
+                    preparedStatement.setLong(9, in.readLong());
+                    batchCount = addToBatch(connection, preparedStatement, batchCount, throughput);
+                }
+                executeBatch(connection, preparedStatement, batchCount);
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                    MERGE INTO MESSAGE_STATE_EVENT(CHANNEL_ID, MESSAGE_ID, SEQUENCE, BUTTON_VALUE, USER_NAME, CREATION_DATE)
+                    KEY (CHANNEL_ID, MESSAGE_ID, SEQUENCE) VALUES (?, ?, ?, ?, ?, ?)""")) {
+                int batchCount = 0;
+                while (in.readByte() == ROW) {
+                    preparedStatement.setLong(1, in.readLong());
+                    preparedStatement.setLong(2, in.readLong());
+                    preparedStatement.setLong(3, in.readLong());
+                    preparedStatement.setString(4, readString(in));
+                    preparedStatement.setString(5, readString(in));
+                    preparedStatement.setTimestamp(6, toTimestamp(in.readLong()));
+                    batchCount = addToBatch(connection, preparedStatement, batchCount, throughput);
+                }
+                executeBatch(connection, preparedStatement, batchCount);
+            }
+            if (formatVersion != FORMAT_VERSION_WITHOUT_ARCHIVE) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                        MERGE INTO MESSAGE_DATA_ARCHIVE(CHANNEL_ID, MESSAGE_ID, CONFIG_ID, GUILD_ID, LAST_ACCESS, DATA)
+                        KEY (CHANNEL_ID, MESSAGE_ID) VALUES (?, ?, ?, ?, ?, ?)""")) {
+                    int batchCount = 0;
+                    while (in.readByte() == ROW) {
+                        preparedStatement.setLong(1, in.readLong());
+                        preparedStatement.setLong(2, in.readLong());
+                        preparedStatement.setObject(3, new UUID(in.readLong(), in.readLong()));
+                        preparedStatement.setObject(4, readLong(in));
+                        preparedStatement.setTimestamp(5, toTimestamp(in.readLong()));
+                        byte[] data = new byte[in.readInt()];
+                        in.readFully(data);
+                        preparedStatement.setBytes(6, data);
+                        batchCount = addToBatch(connection, preparedStatement, batchCount, throughput);
+                    }
+                    executeBatch(connection, preparedStatement, batchCount);
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return throughput.done();
+    }
+
+    private int addToBatch(Connection connection, PreparedStatement preparedStatement, int batchCount, Throughput throughput) throws SQLException {
+        preparedStatement.addBatch();
+        throughput.row();
+        if (batchCount + 1 >= batchSize) {
+            executeBatch(connection, preparedStatement, batchCount + 1);
+            return 0;
+        }
+        return batchCount + 1;
+    }
+
+    private void executeBatch(Connection connection, PreparedStatement preparedStatement, int batchCount) throws SQLException {
+        if (batchCount > 0) {
+            preparedStatement.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private static class Throughput {
+        private final String name;
+        private final Stopwatch stopwatch = Stopwatch.createStarted();
+        private long rows = 0;
+
+        Throughput(String name) {
+            this.name = name;
+        }
+
+        void row() {
+            rows++;
+            if (rows % REPORT_INTERVAL == 0) {
+                log.info("{}: {} rows, {} rows/s", name, rows, rowsPerSecond());
+            }
+        }
+
+        long done() {
+            log.info("{} finished: {} rows in {}s, {} rows/s", name, rows, stopwatch.elapsed(TimeUnit.SECONDS), rowsPerSecond());
+            return rows;
+        }
+
+        private long rowsPerSecond() {
+            return rows * 1000 / Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package de.janno.discord.bot.persistance;
+
+/**
+ * The message data can't be accessed, because the database is not responding and the data is not in memory
+ */
+public class MessageDataUnavailableException extends RuntimeException {
+
+    public MessageDataUnavailableException(String message) {
+        super(message);
+    }
+}
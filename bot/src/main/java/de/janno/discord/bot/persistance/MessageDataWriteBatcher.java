@@ -0,0 +1,286 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Stopwatch;
+import de.janno.discord.bot.BotMetrics;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Collects the write statements of concurrent callers and executes them as JDBC batches in a single transaction.
+ * A batch is executed if it contains maxBatchSize statements or maxBatchDelay is over. The statements are executed in the
+ * order they were submitted, so the writes for the same message stay in order. The caller is blocked until the batch is
+ * committed or the wait time is over. A statement whose wait time is over is not executed anymore, unless the writer
+ * thread already started to execute it, then the caller waits for its commit.
+ */
+@Slf4j
+class MessageDataWriteBatcher {
+
+    //the max time to commit a batch after it is complete
+    private static final Duration MAX_EXECUTION_TIME = Duration.ofSeconds(30);
+
+    private final DataSource dataSource;
+    private final int maxBatchSize;
+    private final Duration maxBatchDelay;
+    private final Duration maxExecutionTime;
+    private final BlockingQueue<WriteOperation> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    MessageDataWriteBatcher(@NonNull DataSource dataSource, int maxBatchSize, @NonNull Duration maxBatchDelay) {
+        this(dataSource, maxBatchSize, maxBatchDelay, MAX_EXECUTION_TIME);
+    }
+
+    /**
+     * @param maxExecutionTime the max time to commit a batch after it is complete
+     */
+    MessageDataWriteBatcher(@NonNull DataSource dataSource, int maxBatchSize, @NonNull Duration maxBatchDelay, @NonNull Duration maxExecutionTime) {
+        this.dataSource = dataSource;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelay = maxBatchDelay;
+        this.maxExecutionTime = maxExecutionTime;
+        writerThread = new Thread(this::processQueue, "message-data-write-batcher");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Submits the statement and waits until the batch with the statement is committed
+     *
+     * @return the update count of the statement
+     */
+    int execute(@NonNull String sql, @NonNull StatementBinder binder) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        WriteOperation operation = new WriteOperation(sql, binder, result, new AtomicReference<>(OperationState.QUEUED));
+        //the shutdown waits for the lock, so no statement can be queued after the writer thread stopped taking them
+        final boolean queued;
+        stateLock.readLock().lock();
+        try {
+            queued = running && queue.add(operation);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (!queued) {
+            //after the shutdown the statements are executed directly
+            try (Connection con = dataSource.getConnection()) {
+                return executeSingle(con, operation);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try {
+            return result.get(maxBatchDelay.plus(maxExecutionTime).toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (operation.cancel()) {
+                queue.remove(operation);
+                throw new RuntimeException("Write statement was not committed in time", e);
+            }
+            //the writer thread executes the statement, it is committed or fails with its batch
+            return awaitExecutedOperation(operation);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (operation.cancel()) {
+                queue.remove(operation);
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int awaitExecutedOperation(WriteOperation operation) {
+        try {
+            return operation.getResult().get(maxExecutionTime.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Write statement was executed but its commit was not confirmed in time", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Executes all queued statements and stops the writer thread. Statements that are still queued after the writer
+     * thread stopped are failed.
+     */
+    void shutdown() {
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        try {
+            writerThread.join(Duration.ofSeconds(10).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processQueue() {
+        final List<WriteOperation> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                WriteOperation first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxBatchDelay.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    WriteOperation next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(o -> o.getResult().completeExceptionally(e));
+                failQueued();
+                return;
+            } catch (Exception e) {
+                log.error("Error in message data write batcher", e);
+                batch.forEach(o -> o.getResult().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        //only reached if the writer thread stops, no new statement is queued after the shutdown
+        final List<WriteOperation> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(o -> o.getResult().completeExceptionally(new IllegalStateException("Message data write batcher is stopped")));
+    }
+
+    private void flush(List<WriteOperation> batch) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                int[] updateCounts = executeInOrder(con, batch);
+                con.commit();
+                for (int i = 0; i < batch.size(); i++) {
+                    //the update count of a cancelled statement is -1, its caller doesn't wait anymore
+                    batch.get(i).getResult().complete(updateCounts[i]);
+                }
+            } catch (SQLException e) {
+                log.warn("Batch with {} statements failed, execute them one by one: {}", batch.size(), e.getMessage());
+                con.rollback();
+                con.setAutoCommit(true);
+                //one failing statement should not fail the other statements of the batch
+                for (WriteOperation operation : batch) {
+                    if (!operation.claim()) {
+                        continue;
+                    }
+                    try {
+                        operation.getResult().complete(executeSingle(con, operation));
+                    } catch (SQLException singleException) {
+                        operation.getResult().completeExceptionally(singleException);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            batch.forEach(o -> o.getResult().completeExceptionally(e));
+        }
+        BotMetrics.databaseBatchSize(batch.size());
+        BotMetrics.databaseTimer("batchFlush", stopwatch.elapsed());
+    }
+
+    private int[] executeInOrder(Connection con, List<WriteOperation> batch) throws SQLException {
+        final int[] updateCounts = new int[batch.size()];
+        int start = 0;
+        while (start < batch.size()) {
+            //consecutive statements with the same sql are executed as one jdbc batch
+            final String sql = batch.get(start).getSql();
+            int end = start;
+            final List<Integer> executedIndexes = new ArrayList<>();
+            try (PreparedStatement preparedStatement = con.prepareStatement(sql)) {
+                while (end < batch.size() && batch.get(end).getSql().equals(sql)) {
+                    //a statement is claimed before it is bound, a cancelled statement is skipped
+                    if (batch.get(end).claim()) {
+                        batch.get(end).getBinder().bind(preparedStatement);
+                        preparedStatement.addBatch();
+                        executedIndexes.add(end);
+                    } else {
+                        updateCounts[end] = -1;
+                    }
+                    end++;
+                }
+                if (!executedIndexes.isEmpty()) {
+                    int[] batchUpdateCounts = preparedStatement.executeBatch();
+                    for (int i = 0; i < batchUpdateCounts.length; i++) {
+                        updateCounts[executedIndexes.get(i)] = batchUpdateCounts[i];
+                    }
+                }
+            }
+            start = end;
+        }
+        return updateCounts;
+    }
+
+    private int executeSingle(Connection con, WriteOperation operation) throws SQLException {
+        try (PreparedStatement preparedStatement = con.prepareStatement(operation.getSql())) {
+            operation.getBinder().bind(preparedStatement);
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    @FunctionalInterface
+    interface StatementBinder {
+        void bind(PreparedStatement preparedStatement) throws SQLException;
+    }
+
+    private enum OperationState {
+        QUEUED,
+        //the writer thread executes the statement
+        CLAIMED,
+        //the caller doesn't wait anymore
+        CANCELLED
+    }
+
+    @Value
+    private static class WriteOperation {
+        @NonNull
+        String sql;
+        @NonNull
+        StatementBinder binder;
+        @NonNull
+        CompletableFuture<Integer> result;
+        @NonNull
+        AtomicReference<OperationState> state;
+
+        boolean claim() {
+            return state.get() == OperationState.CLAIMED || state.compareAndSet(OperationState.QUEUED, OperationState.CLAIMED);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(OperationState.QUEUED, OperationState.CANCELLED);
+        }
+    }
+}
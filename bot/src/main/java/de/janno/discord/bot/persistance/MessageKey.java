@@ -0,0 +1,9 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.Value;
+
+@Value
+class MessageKey {
+    long channelId;
+    long messageId;
+}
@@ -0,0 +1,28 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking access to the message data. The operations are executed on a bounded database scheduler, so the threads
+ * of the event handling don't wait for the database.
+ */
+public interface ReactiveMessageDataDAO {
+
+    /**
+     * Executes blocking operations of the {@link MessageDataDAO} in one unit of work on the database scheduler
+     *
+     * @return the result of the work, empty if the result is null
+     */
+    <T> @NonNull Mono<T> inUnitOfWork(@NonNull Supplier<T> work);
+
+    @NonNull Mono<Void> deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds);
+
+    @NonNull Mono<Set<Long>> deleteDataForChannel(long channelId);
+
+    @NonNull Mono<Void> saveMessageData(@NonNull MessageDataDTO messageData);
+}
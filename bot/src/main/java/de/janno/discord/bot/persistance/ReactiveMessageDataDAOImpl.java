@@ -0,0 +1,81 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Executes the operations of a blocking {@link MessageDataDAO} on a scheduler with a limited number of threads. More
+ * load queues the operations instead of creating more threads.
+ */
+public class ReactiveMessageDataDAOImpl implements ReactiveMessageDataDAO {
+
+    private static final int QUEUED_TASK_CAP = 100_000;
+    private static Scheduler databaseScheduler;
+
+    private final MessageDataDAO delegate;
+    private final Scheduler scheduler;
+
+    /**
+     * Uses the database scheduler that is shared by all instances
+     */
+    public ReactiveMessageDataDAOImpl(@NonNull MessageDataDAO delegate) {
+        this(delegate, getDatabaseScheduler());
+    }
+
+    /**
+     * Creates the shared database scheduler with one thread for each connection of the pool, more threads would only
+     * wait for a connection. Must be called before the first instance is created, otherwise the default pool size is
+     * used.
+     */
+    public static synchronized void initDatabaseScheduler(@NonNull ConnectionPoolConfig connectionPoolConfig) {
+        Preconditions.checkState(databaseScheduler == null, "The database scheduler is already created");
+        //the adaptive max is never smaller than the max connections
+        databaseScheduler = Schedulers.newBoundedElastic(connectionPoolConfig.getAdaptiveMaxConnections(), QUEUED_TASK_CAP, "message-data", 60, true);
+    }
+
+    private static synchronized Scheduler getDatabaseScheduler() {
+        if (databaseScheduler == null) {
+            initDatabaseScheduler(ConnectionPoolConfig.DEFAULT);
+        }
+        return databaseScheduler;
+    }
+
+    public ReactiveMessageDataDAOImpl(@NonNull MessageDataDAO delegate, @NonNull Scheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public <T> @NonNull Mono<T> inUnitOfWork(@NonNull Supplier<T> work) {
+        return Mono.fromCallable(() -> {
+            try (UnitOfWork ignored = delegate.startUnitOfWork()) {
+                return work.get();
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @Override
+    public @NonNull Mono<Void> deleteDataForMessages(long channelId, @NonNull Collection<Long> messageIds) {
+        return Mono.<Void>fromRunnable(() -> delegate.deleteDataForMessages(channelId, messageIds))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public @NonNull Mono<Set<Long>> deleteDataForChannel(long channelId) {
+        return Mono.fromCallable(() -> delegate.deleteDataForChannel(channelId))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public @NonNull Mono<Void> saveMessageData(@NonNull MessageDataDTO messageData) {
+        return Mono.<Void>fromRunnable(() -> delegate.saveMessageData(messageData))
+                .subscribeOn(scheduler);
+    }
+}
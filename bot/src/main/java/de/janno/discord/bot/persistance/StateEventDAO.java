@@ -0,0 +1,29 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The clicks of the messages whose state is rebuilt from the events after the last snapshot of the message data
+ */
+public interface StateEventDAO {
+
+    /**
+     * @return the clicks of the message with a sequence larger than the given one, ordered by the sequence
+     */
+    @NonNull List<StateEventDTO> getStateEvents(long channelId, long messageId, long afterSequence);
+
+    /**
+     * Appends the click to the message, the sequence is the version of the message state after the click
+     *
+     * @return false if the sequence already exists, is not newer than the state of the message data or the message data doesn't exist
+     */
+    boolean appendStateEvent(long channelId, long messageId, long sequence, @NonNull String buttonValue, @Nullable String userName);
+
+    /**
+     * Writes the state that is the result of all clicks up to the version, if the message data has an older version
+     */
+    void snapshotState(long channelId, long messageId, long version, @NonNull String stateDataClassId, @Nullable String stateData);
+}
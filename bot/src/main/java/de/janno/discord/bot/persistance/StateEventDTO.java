@@ -0,0 +1,17 @@
+package de.janno.discord.bot.persistance;
+
+import lombok.NonNull;
+import lombok.Value;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A click on a button of a message, the state of the message is the result of its clicks
+ */
+@Value
+public class StateEventDTO {
+    long sequence;
+    @NonNull
+    String buttonValue;
+    @Nullable
+    String userName;
+}
@@ -0,0 +1,13 @@
+package de.janno.discord.bot.persistance;
+
+/**
+ * All operations of a thread between the start and the close of the unit of work share one database connection.
+ */
+public interface UnitOfWork extends AutoCloseable {
+
+    /**
+     * Releases the shared connection, must be called in the thread that started the unit of work
+     */
+    @Override
+    void close();
+}
@@ -361,7 +361,7 @@ class CustomParameterCommandTest {
         State<CustomParameterStateData> state = new State<>("5", new CustomParameterStateData(ImmutableList.of("5"), "userName"));
         Optional<MessageDataDTO> toSave = underTest.createMessageDataForNewMessage(configUUID, 1L, channelId, messageId, config, state);
         messageDataDAO.saveMessageData(toSave.orElseThrow());
-        underTest.updateCurrentMessageStateData(channelId, messageId, config, state);
+        underTest.updateCurrentMessageStateData(channelId, messageId, 0L, config, state);
 
         MessageDataDTO loaded = messageDataDAO.getDataForMessage(channelId, messageId).orElseThrow();
 
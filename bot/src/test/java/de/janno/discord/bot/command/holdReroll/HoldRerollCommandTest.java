@@ -445,7 +445,7 @@ class HoldRerollCommandTest {
         State<HoldRerollStateData> state = new State<>("reroll", new HoldRerollStateData(ImmutableList.of(1, 2, 10), 2));
         Optional<MessageDataDTO> toSave = underTest.createMessageDataForNewMessage(configUUID, 1L, channelId, messageId, config, state);
         messageDataDAO.saveMessageData(toSave.orElseThrow());
-        underTest.updateCurrentMessageStateData(channelId, messageId, config, state);
+        underTest.updateCurrentMessageStateData(channelId, messageId, 0L, config, state);
 
         MessageDataDTO loaded = messageDataDAO.getDataForMessage(channelId, messageId).orElseThrow();
 
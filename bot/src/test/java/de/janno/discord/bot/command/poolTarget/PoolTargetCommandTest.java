@@ -537,6 +537,7 @@ class PoolTargetCommandTest {
                 doReroll: null
                 """)));
         when(messageDataDAO.getAllMessageIdsForConfig(any())).thenReturn(ImmutableSet.of(1L, 2L));
+        when(messageDataDAO.updateCommandConfigOfMessage(anyLong(), anyLong(), anyLong(), anyLong(), any(), any())).thenReturn(true);
 
 
         Mono<Void> res = underTest.handleComponentInteractEvent(buttonEventAdaptor);
@@ -574,6 +575,7 @@ class PoolTargetCommandTest {
 
 
         Mono<Void> res = underTest.handleComponentInteractEvent(buttonEventAdaptor);
+        res.block();
 
 
         assertThat(res).isNotNull();
@@ -771,7 +773,7 @@ class PoolTargetCommandTest {
         State<PoolTargetStateData> state = new State<>("3", new PoolTargetStateData(5, null, null));
         Optional<MessageDataDTO> toSave = underTest.createMessageDataForNewMessage(configUUID, 1L, channelId, messageId, config, state);
         messageDataDAO.saveMessageData(toSave.orElseThrow());
-        underTest.updateCurrentMessageStateData(channelId, messageId, config, state);
+        underTest.updateCurrentMessageStateData(channelId, messageId, 0L, config, state);
 
         MessageDataDTO loaded = messageDataDAO.getDataForMessage(channelId, messageId).orElseThrow();
 
@@ -4,15 +4,24 @@ import com.google.common.collect.ImmutableList;
 import de.janno.discord.bot.ButtonEventAdaptorMock;
 import de.janno.discord.bot.ButtonEventAdaptorMockFactory;
 import de.janno.discord.bot.command.ButtonIdLabelAndDiceExpression;
+import de.janno.discord.bot.persistance.ConnectionPoolConfig;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDAOImpl;
+import de.janno.discord.bot.persistance.MessageDataDTO;
+import de.janno.discord.bot.persistance.StateEventDTO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 
+import java.time.Duration;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static de.janno.discord.bot.ButtonEventAdaptorMock.CHANNEL_ID;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 
 public class SumCustomSetCommandMockTest {
 
@@ -217,4 +226,72 @@ public class SumCustomSetCommandMockTest {
                 "editMessage: message:Click the buttons to add dice to the set and then on Roll, buttonValues=1_button,2_button,roll,clear,back",
                 "createAnswer: title=1 = 1, description=[1], fieldValues:, answerChannel:2");
     }
+
+    @Test
+    void stateEvents_snapshotAtInterval() {
+        MessageDataDAOImpl messageDataDAOImpl = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        underTest = new SumCustomSetCommand(messageDataDAOImpl, messageDataDAOImpl, 2);
+        SumCustomSetConfig config = new SumCustomSetConfig(null, ImmutableList.of(new ButtonIdLabelAndDiceExpression("1_button", "+1", "1"),
+                new ButtonIdLabelAndDiceExpression("2_button", "+2", "2")));
+        ButtonEventAdaptorMockFactory<SumCustomSetConfig, SumCustomSetStateData> factory = new ButtonEventAdaptorMockFactory<>("sum_custom_st", underTest, config, messageDataDAOImpl, false);
+
+        ButtonEventAdaptorMock click1 = factory.getButtonClickOnLastButtonMessage("1_button");
+        underTest.handleComponentInteractEvent(click1).block();
+        ButtonEventAdaptorMock click2 = factory.getButtonClickOnLastButtonMessage("2_button");
+        underTest.handleComponentInteractEvent(click2).block();
+        ButtonEventAdaptorMock click3 = factory.getButtonClickOnLastButtonMessage("1_button");
+        underTest.handleComponentInteractEvent(click3).block();
+
+        assertThat(click3.getActions()).containsExactly(
+                "acknowledge", "editMessage: message:invokingUser∶ 1+2+1, buttonValues=");
+        //the second click wrote the snapshot, only the third click is an event after it
+        assertThat(messageDataDAOImpl.getDataForMessage(CHANNEL_ID, 0L).map(MessageDataDTO::getVersion)).contains(2L);
+        assertThat(messageDataDAOImpl.getStateEvents(CHANNEL_ID, 0L, 2L)).containsExactly(new StateEventDTO(3L, "1_button", "invokingUser"));
+    }
+
+    @Test
+    void stateEvents_writesOfTheUnitOfWorkDontWaitForASecondConnection() {
+        //the batcher can't get a connection while the unit of work of the click holds the only one
+        MessageDataDAOImpl messageDataDAOImpl = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null, 10, Duration.ofMillis(10),
+                new ConnectionPoolConfig(1, Duration.ofSeconds(2), 1, Duration.ZERO));
+        underTest = new SumCustomSetCommand(messageDataDAOImpl, messageDataDAOImpl, 2);
+        SumCustomSetConfig config = new SumCustomSetConfig(null, ImmutableList.of(new ButtonIdLabelAndDiceExpression("1_button", "+1", "1"),
+                new ButtonIdLabelAndDiceExpression("2_button", "+2", "2")));
+        ButtonEventAdaptorMockFactory<SumCustomSetConfig, SumCustomSetStateData> factory = new ButtonEventAdaptorMockFactory<>("sum_custom_st", underTest, config, messageDataDAOImpl, false);
+
+        ButtonEventAdaptorMock click1 = factory.getButtonClickOnLastButtonMessage("1_button");
+        underTest.handleComponentInteractEvent(click1).block(Duration.ofSeconds(1));
+        ButtonEventAdaptorMock click2 = factory.getButtonClickOnLastButtonMessage("2_button");
+        underTest.handleComponentInteractEvent(click2).block(Duration.ofSeconds(1));
+
+        assertThat(click2.getActions()).containsExactly(
+                "acknowledge", "editMessage: message:invokingUser∶ 1+2, buttonValues=");
+        assertThat(messageDataDAOImpl.getDataForMessage(CHANNEL_ID, 0L).map(MessageDataDTO::getVersion)).contains(2L);
+    }
+
+    @Test
+    void stateEvents_conflictingAppendIsRetried() {
+        MessageDataDAOImpl messageDataDAOImpl = Mockito.spy(new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null));
+        underTest = new SumCustomSetCommand(messageDataDAOImpl, messageDataDAOImpl, 10);
+        SumCustomSetConfig config = new SumCustomSetConfig(null, ImmutableList.of(new ButtonIdLabelAndDiceExpression("1_button", "+1", "1"),
+                new ButtonIdLabelAndDiceExpression("2_button", "+2", "2")));
+        ButtonEventAdaptorMockFactory<SumCustomSetConfig, SumCustomSetStateData> factory = new ButtonEventAdaptorMockFactory<>("sum_custom_st", underTest, config, messageDataDAOImpl, false);
+        AtomicBoolean concurrentClick = new AtomicBoolean(true);
+        Mockito.doAnswer(invocation -> {
+            if (concurrentClick.getAndSet(false)) {
+                //another click appends the same sequence first
+                messageDataDAOImpl.appendStateEvent(CHANNEL_ID, 0L, invocation.getArgument(2), "2_button", "invokingUser");
+            }
+            return invocation.callRealMethod();
+        }).when(messageDataDAOImpl).appendStateEvent(anyLong(), anyLong(), anyLong(), any(), any());
+
+        ButtonEventAdaptorMock click = factory.getButtonClickOnLastButtonMessage("1_button");
+        underTest.handleComponentInteractEvent(click).block();
+
+        assertThat(click.getActions()).containsExactly(
+                "acknowledge", "editMessage: message:invokingUser∶ 2+1, buttonValues=");
+        assertThat(messageDataDAOImpl.getStateEvents(CHANNEL_ID, 0L, 0L)).containsExactly(
+                new StateEventDTO(1L, "2_button", "invokingUser"),
+                new StateEventDTO(2L, "1_button", "invokingUser"));
+    }
 }
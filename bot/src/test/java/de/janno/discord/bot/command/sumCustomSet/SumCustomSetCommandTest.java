@@ -9,6 +9,7 @@ import de.janno.discord.bot.dice.DiceParserHelper;
 import de.janno.discord.bot.persistance.MessageDataDAO;
 import de.janno.discord.bot.persistance.MessageDataDAOImpl;
 import de.janno.discord.bot.persistance.MessageDataDTO;
+import de.janno.discord.bot.persistance.StateEventDTO;
 import de.janno.discord.connector.api.ButtonEventAdaptor;
 import de.janno.discord.connector.api.Requester;
 import de.janno.discord.connector.api.message.ButtonDefinition;
@@ -619,7 +620,7 @@ class SumCustomSetCommandTest {
         Optional<MessageDataDTO> toSave = underTest.createMessageDataForNewMessage(configUUID, 1L, channelId, messageId, config, state);
         messageDataDAO.saveMessageData(toSave.orElseThrow());
 
-        underTest.updateCurrentMessageStateData(channelId, messageId, config, state);
+        underTest.updateCurrentMessageStateData(channelId, messageId, 0L, config, state);
 
         MessageDataDTO loaded = messageDataDAO.getDataForMessage(channelId, messageId).orElseThrow();
 
@@ -661,5 +662,29 @@ class SumCustomSetCommandTest {
         assertThat(configAndState.getState().getData()).isEqualTo(new SumCustomSetStateData(ImmutableList.of("2d4", "+1d6"), "testUser"));
     }
 
+    @Test
+    void deserialization_withStateEvents() {
+        UUID configUUID = UUID.randomUUID();
+        MessageDataDTO savedData = new MessageDataDTO(configUUID, 1L, 1660644934298L, 1660644934298L, "sum_custom_set", "SumCustomSetConfig", """
+                ---
+                answerTargetChannelId: 123
+                labelAndExpression:
+                - buttonId: "1_button"
+                  label: "Label"
+                  diceExpression: "+1d6"
+                - buttonId: "2_button"
+                  label: "+2d4"
+                  diceExpression: "+2d4"
+                """,
+                "None", null);
+
+        ConfigAndState<SumCustomSetConfig, SumCustomSetStateData> configAndState = underTest.deserializeAndUpdateState(savedData, ImmutableList.of(
+                new StateEventDTO(1L, "1_button", "testUser"),
+                new StateEventDTO(2L, "roll", "testUser"),
+                new StateEventDTO(3L, "2_button", "otherUser")
+        ), "1_button", "otherUser");
 
-}
\ No newline at end of file
+        assertThat(configAndState.getMessageDataVersion()).isEqualTo(3L);
+        assertThat(configAndState.getState().getData()).isEqualTo(new SumCustomSetStateData(ImmutableList.of("+2d4", "+1d6"), "otherUser"));
+    }
+}
@@ -0,0 +1,85 @@
+package de.janno.discord.bot.dice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BoundedRandomTest {
+
+    BoundedRandom underTest = new BoundedRandom(new Sfc64Random());
+
+    @Test
+    void fill() {
+        int[] res = new int[100_000];
+
+        underTest.fill(res, 6);
+
+        assertThat(res).allMatch(i -> i >= 1 && i <= 6);
+        assertThat(Arrays.stream(res).average().orElseThrow()).isBetween(3.45, 3.55);
+    }
+
+    @Test
+    void fill_uniform() {
+        int[] res = new int[300_000];
+        int[] counts = new int[3];
+
+        underTest.fill(res, 3);
+
+        Arrays.stream(res).forEach(i -> counts[i - 1]++);
+        assertThat(counts).allMatch(c -> c > 99_000 && c < 101_000);
+    }
+
+    @Test
+    void fill_oneSide() {
+        int[] res = new int[10];
+
+        underTest.fill(res, 1);
+
+        assertThat(res).containsOnly(1);
+    }
+
+    @Test
+    void fill_invalidSides() {
+        assertThatThrownBy(() -> underTest.fill(new int[1], 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void fill_usesBothHalvesOfTheOutput() {
+        //upper half 3, lower half 1
+        RandomGenerator generator = () -> (3L << 32) | 1L;
+        int[] res = new int[2];
+
+        new BoundedRandom(generator).fill(res, 1 << 30);
+
+        //the upper 32 bit of word * bound, that is word / 4, plus 1
+        assertThat(res).containsExactly(1, 1);
+        new BoundedRandom(() -> (8L << 32) | 4L).fill(res, 1 << 30);
+        assertThat(res).containsExactly(2, 3);
+    }
+
+    @Test
+    void get() {
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(underTest.get(0, 6)).isBetween(1, 6);
+            assertThat(underTest.get(-10, -5)).isBetween(-9, -5);
+        }
+    }
+
+    @Test
+    void get_fullIntRange() {
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(underTest.get(Integer.MIN_VALUE, Integer.MAX_VALUE)).isGreaterThan(Integer.MIN_VALUE);
+        }
+    }
+
+    @Test
+    void get_emptyRange() {
+        assertThatThrownBy(() -> underTest.get(6, 6))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
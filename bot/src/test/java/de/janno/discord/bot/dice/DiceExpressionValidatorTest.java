@@ -0,0 +1,89 @@
+package de.janno.discord.bot.dice;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiceExpressionValidatorTest {
+
+    private static Stream<Arguments> generateData() {
+        return Stream.of(
+                Arguments.of("d6", true),
+                Arguments.of("3d20", true),
+                Arguments.of("3d6k2", true),
+                Arguments.of("3d6l2", true),
+                Arguments.of("d10X", true),
+                Arguments.of("2d10X", true),
+                Arguments.of("dF", true),
+                Arguments.of("3dF", true),
+                Arguments.of("dF.1", true),
+                Arguments.of("2dF.1", true),
+                Arguments.of("4d6!", true),
+                Arguments.of("3d6!>5", true),
+                Arguments.of("3d6^", true),
+                Arguments.of("3d6!!", true),
+                Arguments.of("3d6!!>5", true),
+                Arguments.of("3d6=6", true),
+                Arguments.of("(4d8-2)>6", true),
+                Arguments.of("42", true),
+                Arguments.of("2d6 + 2", true),
+                Arguments.of("2 - 1", true),
+                Arguments.of("1d4*2d6", true),
+                Arguments.of("4 / 2", true),
+                Arguments.of("-1d6", true),
+                Arguments.of("10d10asc", true),
+                Arguments.of("10d10desc", true),
+                Arguments.of("2d6min3d4", true),
+                Arguments.of("2d6max3d4", true),
+                Arguments.of("1000d1000!", true),
+                Arguments.of("2d2!", true),
+                Arguments.of("3d6!>2", true),
+                Arguments.of("1d1!", false),
+                Arguments.of("1d1!!", false),
+                Arguments.of("3d6!>1", false),
+                Arguments.of("3d6!!>0", false),
+                Arguments.of("1000d1000!>999=1000", true),
+                Arguments.of("4d6!k3", true),
+                Arguments.of("3d6k2k2", false),
+                Arguments.of("3d6k2l1", false),
+                Arguments.of("3d6!!!", false),
+                Arguments.of("3d6!^", false),
+                Arguments.of("3d6^^", false),
+                Arguments.of("3d6>2<3=4", false),
+                Arguments.of("3d6=6!", false),
+                Arguments.of("3d6k2!", false),
+                Arguments.of("2d10Xk1", false),
+                Arguments.of("10d10ascdesc", false),
+                Arguments.of("1d6 ", true),
+                Arguments.of("", false),
+                Arguments.of("a", false),
+                Arguments.of("1d4/", false),
+                Arguments.of("1d", false),
+                Arguments.of("1d0", false),
+                Arguments.of("0d6", false),
+                Arguments.of("(1d6", false),
+                Arguments.of("1d6 + [1d20]!!", false),
+                Arguments.of("4/0", false),
+                Arguments.of("2147483647+1", false),
+                Arguments.of("2147483648", false),
+                Arguments.of("2147483647+1d6", false),
+                Arguments.of("1d6 + 2147483647", false),
+                Arguments.of("-2147483647-1d6-1d6", false),
+                Arguments.of("2147483647-1d6", true),
+                Arguments.of("2147483647+(1d6-1)", true),
+                Arguments.of("2147483000+1d1000", true),
+                Arguments.of("2147483647+1d6*2", true),
+                Arguments.of("1d6/0", false)
+        );
+    }
+
+    @ParameterizedTest(name = "{index} expression:{0} -> {1}")
+    @MethodSource("generateData")
+    void isKnownValid(String expression, boolean expected) {
+        assertThat(DiceExpressionValidator.isKnownValid(expression)).isEqualTo(expected);
+    }
+}
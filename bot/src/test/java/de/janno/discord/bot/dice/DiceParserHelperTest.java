@@ -16,12 +16,34 @@ import java.util.stream.Stream;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class DiceParserHelperTest {
 
     DiceParserHelper underTest;
 
+    private static Stream<Arguments> generateNormalizeWhitespaceData() {
+        return Stream.of(
+                Arguments.of("2d6 + 2", "2d6+2"),
+                Arguments.of(" 3x[ 1d6 ] ", "3x[1d6]"),
+                Arguments.of("1d6 >= 5?Hit it:Miss it", "1d6>=5?Hit it:Miss it"),
+                Arguments.of("1d6 = 6?Six: Other & 2d4 + 1", "1d6=6?Six: Other &2d4+1")
+        );
+    }
+
+    private static Stream<Arguments> generateOriginalSpellingData() {
+        return Stream.of(
+                Arguments.of("2d6+2", 0, 5, "2d6+2"),
+                Arguments.of(" 2d6 + 2 ", 0, 5, "2d6 + 2"),
+                Arguments.of("1d6 = 6?Six: Other & 2d6 + 2", 0, 3, "1d6"),
+                Arguments.of("1d6 = 6?Six: Other & 2d6 + 2", 18, 23, "2d6 + 2"),
+                Arguments.of("3x[ 1d6 ]", 3, 6, "1d6")
+        );
+    }
+
     private static Stream<Arguments> generateValidateData() {
         return Stream.of(
                 Arguments.of(ImmutableList.of(), "You must configure at least one dice expression. Use '/custom_dice help' to get more information on how to use the command."),
@@ -159,6 +181,134 @@ class DiceParserHelperTest {
         assertThat(res).isEqualTo(expected);
     }
 
+    @Test
+    void getCompiledExpression_cached() {
+        DiceParserHelper.CompiledExpression res = underTest.getCompiledExpression("3x[+1d6=6?Six:Other]@Attack", "@");
+
+        assertThat(underTest.getCompiledExpression("3x[+1d6=6?Six:Other]@Attack", "@")).isSameAs(res);
+        assertThat(res.isMultipleRolls()).isTrue();
+        assertThat(res.getLabel()).isEqualTo("Attack");
+        assertThat(res.getRolls()).hasSize(3);
+        assertThat(res.getRolls().get(0).getDiceExpression()).isEqualTo("1d6");
+        assertThat(res.getRolls().get(0).getBooleanExpression()).isNotNull();
+    }
+
+    @Test
+    void getCompiledExpression_whitespaceVariantsShareTheCachedExpression() {
+        DiceParserHelper.CompiledExpression res = underTest.getCompiledExpression("2d6+2@Attack roll", "@");
+
+        assertThat(underTest.getCompiledExpression(" 2d6 + 2 @Attack roll", "@")).isSameAs(res);
+        assertThat(res.getRolls().get(0).getDiceExpression()).isEqualTo("2d6+2");
+        assertThat(res.getLabel()).isEqualTo("Attack roll");
+    }
+
+    @Test
+    void roll_whitespaceVariantsShowTheirSpelling() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+        when(diceMock.detailedRoll(any())).thenReturn(new ResultTree(mock(DiceExpression.class), 6, ImmutableList.of()));
+
+        assertThat(underTest.roll("2d6+2", null).getTitle()).isEqualTo("2d6+2 = 6");
+        assertThat(underTest.roll(" 2d6 + 2 ", null).getTitle()).isEqualTo("2d6 + 2 = 6");
+        assertThat(underTest.rollWithOptionalLabel("2x[+ 1d6 = 6?Six: Other]@Attack", "@").getFields())
+                .extracting(EmbedDefinition.Field::getName)
+                .containsExactly("+ 1d6: Six", "+ 1d6: Six");
+        assertThat(underTest.roll("1d6 = 6?Six: Other & 2d6 + 2", null).getFields())
+                .extracting(EmbedDefinition.Field::getName)
+                .containsExactly("1d6: Six", "2d6 + 2 = 6");
+        verify(diceMock, never()).detailedRoll("2d6 + 2");
+    }
+
+    @ParameterizedTest
+    @MethodSource("generateOriginalSpellingData")
+    void getOriginalSpelling(String expression, int start, int end, String expected) {
+        String normalizedExpression = DiceParserHelper.normalizeWhitespace(expression, null);
+
+        assertThat(DiceParserHelper.getOriginalSpelling(expression, normalizedExpression, start, end)).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @MethodSource("generateNormalizeWhitespaceData")
+    void normalizeWhitespace(String input, String expected) {
+        assertThat(DiceParserHelper.normalizeWhitespace(input, null)).isEqualTo(expected);
+    }
+
+    @Test
+    void getCompiledExpression_labelDelimiterIsPartOfTheKey() {
+        DiceParserHelper.CompiledExpression withLabel = underTest.getCompiledExpression("1d6&2d6@Roll", "@");
+        DiceParserHelper.CompiledExpression withoutLabel = underTest.getCompiledExpression("1d6&2d6", null);
+
+        assertThat(withLabel.getLabel()).isEqualTo("Roll");
+        assertThat(withLabel.getRolls()).extracting(DiceParserHelper.CompiledRoll::getDiceExpression).containsExactly("1d6", "2d6");
+        assertThat(withoutLabel.getLabel()).isNull();
+    }
+
+    @Test
+    void rollWithOptionalLabel() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+        when(diceMock.detailedRoll(any())).thenReturn(new ResultTree(mock(DiceExpression.class), 3, ImmutableList.of()));
+
+        EmbedDefinition res = underTest.rollWithOptionalLabel("+1d6@Attack", "@");
+
+        assertThat(res).isEqualTo(underTest.roll("1d6", "Attack"));
+    }
+
+    @Test
+    void rollWithOptionalLabel_invalid() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+        when(diceMock.detailedRoll(any())).thenThrow(new IllegalArgumentException());
+
+        EmbedDefinition res = underTest.rollWithOptionalLabel("1d@Attack", "@");
+
+        assertThat(res.getDescription()).isEqualTo("Could not execute the dice expression: 1d");
+    }
+
+    @Test
+    void validExpression_knownSyntaxIsNotRolled() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+
+        boolean res = underTest.validExpression("2x[1000d1000!>999=1000?a:b]");
+
+        assertThat(res).isTrue();
+        verify(diceMock, never()).detailedRoll(any());
+    }
+
+    @Test
+    void validExpression_unknownSyntaxIsCheckedByTheDiceParser() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+        when(diceMock.detailedRoll("1d6 + [1d20]!!")).thenThrow(new IllegalArgumentException());
+
+        assertThat(underTest.validExpression("1d6 + [1d20]!!")).isFalse();
+        assertThat(underTest.validExpression("1d6 + [1d20]!!")).isFalse();
+        verify(diceMock, times(1)).detailedRoll("1d6 + [1d20]!!");
+    }
+
+    @Test
+    void validExpression_whitespaceVariantsShareTheValidation() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+        when(diceMock.detailedRoll("1d6 + [1d20]!!")).thenThrow(new IllegalArgumentException());
+
+        assertThat(underTest.validExpression("1d6 + [1d20]!!")).isFalse();
+        assertThat(underTest.validExpression("1d6+[1d20]!!")).isFalse();
+        verify(diceMock, times(1)).detailedRoll(any());
+    }
+
+    @Test
+    void validExpression_explodingOnEveryRollIsCheckedOnceByTheDiceParser() {
+        Dice diceMock = mock(Dice.class);
+        DiceParserHelper underTest = new DiceParserHelper(diceMock);
+        when(diceMock.detailedRoll("1d1!")).thenThrow(new IllegalArgumentException());
+
+        assertThat(underTest.validExpression("1d1!")).isFalse();
+        assertThat(underTest.validExpression("1d1!")).isFalse();
+        verify(diceMock, times(1)).detailedRoll("1d1!");
+    }
+
     @Test
     void getMultipleExecution() {
         int res = DiceParserHelper.getNumberOfMultipleRolls("11x[1d6 + [1d20]!!]");
@@ -4,6 +4,7 @@ import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -20,4 +21,39 @@ class DiceUtilsTest {
 
         assertThat(res.stream().mapToInt(i -> i).average().orElseThrow()).isCloseTo(3.5, Offset.offset(0.05));
     }
-}
\ No newline at end of file
+
+    @Test
+    void explodingReroll() {
+        DiceUtils underTest = new DiceUtils(6, 2, 3);
+
+        int[] res = underTest.explodingReroll(6, new int[]{1, 6, 6}, Set.of(6));
+
+        //each 6 is rerolled, the reroll of a 6 is rerolled again
+        assertThat(res).containsExactly(1, 6, 6, 6, 2, 3);
+    }
+
+    @Test
+    void explodingReroll_noRerollSet() {
+        int[] results = {1, 6};
+
+        assertThat(new DiceUtils().explodingReroll(6, results, Set.of())).isSameAs(results);
+    }
+
+    @Test
+    void countResults() {
+        int[] results = {1, 2, 5, 6, 6};
+
+        assertThat(DiceUtils.numberOfDiceResultsGreaterEqual(results, 5)).isEqualTo(3);
+        assertThat(DiceUtils.numberOfDiceResultsEqual(results, Set.of(1, 6))).isEqualTo(3);
+        assertThat(DiceUtils.numberOfDiceResultsEqual(List.of(1, 2, 5, 6, 6), Set.of(1, 6))).isEqualTo(3);
+    }
+
+    @Test
+    void rollFateArray() {
+        int[] res = new DiceUtils(1, 2, 3, 3).rollFateArray();
+
+        assertThat(res).containsExactly(-1, 0, 1, 1);
+        assertThat(DiceUtils.fateResult(res)).isEqualTo(1);
+        assertThat(DiceUtils.convertFateNumberToString(res)).isEqualTo("[" + DiceUtils.MINUS + ",▢,＋,＋]");
+    }
+}
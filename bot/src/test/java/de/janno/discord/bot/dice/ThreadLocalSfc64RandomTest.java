@@ -0,0 +1,46 @@
+package de.janno.discord.bot.dice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThreadLocalSfc64RandomTest {
+
+    @Test
+    void testRandom() {
+        ThreadLocalSfc64Random underTest = new ThreadLocalSfc64Random();
+        long sum = 0;
+        long totalCount = 10_000;
+        for (int i = 0; i < totalCount; i++) {
+            int next = underTest.nextInt(100);
+            assertThat(next).isBetween(0, 99);
+            sum += next;
+        }
+
+        assertThat(sum).isBetween(totalCount * 45, totalCount * 55);
+    }
+
+    @Test
+    void threadsHaveDifferentSequences() throws Exception {
+        ThreadLocalSfc64Random underTest = new ThreadLocalSfc64Random();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Callable<List<Long>> task = () -> {
+                //both threads are active at the same time, so they can't share the thread local
+                barrier.await(10, TimeUnit.SECONDS);
+                return IntStream.range(0, 10).mapToObj(i -> underTest.nextLong()).toList();
+            };
+            Future<List<Long>> first = executorService.submit(task);
+            Future<List<Long>> second = executorService.submit(task);
+
+            assertThat(first.get(10, TimeUnit.SECONDS)).doesNotContainAnyElementsOf(second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+
+class CachingMessageDataDAOTest {
+
+    MessageDataDAOImpl delegate;
+    CachingMessageDataDAO underTest;
+
+    @BeforeEach
+    void setup() {
+        delegate = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        underTest = new CachingMessageDataDAO(delegate, 2, Duration.ofHours(1), Duration.ofHours(1));
+    }
+
+    @Test
+    void getDataForMessage_servedFromCache() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        delegate.deleteDataForMessage(2L, 4L);
+
+        assertThat(underTest.getDataForMessage(2L, 4L)).isPresent();
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_writeBehind() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+
+        assertThat(underTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state");
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).isEmpty();
+
+        underTest.flush();
+
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state");
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_flushedOnEviction() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "configClass"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 6L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state");
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_evictedPendingUpdateReadableUntilWritten() {
+        MessageDataDAOImpl failingDelegate = Mockito.spy(new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null));
+        CachingMessageDataDAO failingUnderTest = new CachingMessageDataDAO(failingDelegate, 2, Duration.ofHours(1), Duration.ofHours(1));
+        failingUnderTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        failingUnderTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+        //the flush on the eviction fails, the update stays pending
+        doThrow(new IllegalStateException("stalled")).doCallRealMethod()
+                .when(failingDelegate).updateCommandConfigOfMessage(anyLong(), anyLong(), anyLong(), anyLong(), any(), any());
+
+        failingUnderTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "configClass"));
+        failingUnderTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 6L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(failingDelegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).isEmpty();
+        assertThat(failingUnderTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state");
+        assertThat(failingUnderTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(1L);
+
+        failingUnderTest.flush();
+
+        assertThat(failingDelegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state");
+        assertThat(failingDelegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(1L);
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_versionConflict() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state1")).isTrue();
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state2")).isFalse();
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 4L, 1L, 2L, "testStateClass", "state3")).isTrue();
+
+        underTest.flush();
+
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state3");
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(2L);
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_conflictingPendingUpdateDropped() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+        delegate.updateCommandConfigOfMessage(2L, 4L, 0L, 5L, "testStateClass", "otherState");
+
+        underTest.flush();
+
+        //the newer concurrent update is not overwritten
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("otherState");
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(5L);
+        assertThat(underTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("otherState");
+        assertThat(underTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(5L);
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_evictedPendingUpdateWrittenBeforeWriteThrough() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state1");
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "configClass"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 6L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 4L, 1L, 2L, "testStateClass", "state2")).isTrue();
+
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state2");
+        assertThat(delegate.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(2L);
+    }
+
+    @Test
+    void deleteDataForMessage_discardPendingUpdate() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+
+        underTest.deleteDataForMessage(2L, 4L);
+        underTest.flush();
+
+        assertThat(underTest.getDataForMessage(2L, 4L)).isEmpty();
+        assertThat(delegate.getDataForMessage(2L, 4L)).isEmpty();
+    }
+
+    @Test
+    void deleteDataForChannel() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 3L, 6L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(underTest.deleteDataForChannel(2L)).containsExactly(4L);
+        assertThat(underTest.getDataForMessage(2L, 4L)).isEmpty();
+        assertThat(underTest.getDataForMessage(3L, 6L)).isPresent();
+    }
+
+    @Test
+    void getStateEvents_servedFromCachedTail() {
+        StateEventDAO stateEventView = underTest.withStateEvents(delegate);
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        assertThat(stateEventView.appendStateEvent(2L, 4L, 1L, "1_button", "user")).isTrue();
+        assertThat(stateEventView.getStateEvents(2L, 4L, 0L)).containsExactly(new StateEventDTO(1L, "1_button", "user"));
+
+        //written beside the view, so the cached tail doesn't know it
+        delegate.appendStateEvent(2L, 4L, 2L, "2_button", "other");
+        assertThat(stateEventView.getStateEvents(2L, 4L, 0L)).containsExactly(new StateEventDTO(1L, "1_button", "user"));
+
+        //the failed append drops the tail
+        assertThat(stateEventView.appendStateEvent(2L, 4L, 2L, "1_button", "user")).isFalse();
+        assertThat(stateEventView.getStateEvents(2L, 4L, 0L)).containsExactly(
+                new StateEventDTO(1L, "1_button", "user"),
+                new StateEventDTO(2L, "2_button", "other"));
+
+        stateEventView.snapshotState(2L, 4L, 2L, "testStateClass", "state2");
+        assertThat(stateEventView.appendStateEvent(2L, 4L, 3L, "1_button", "user")).isTrue();
+
+        assertThat(underTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getVersion)).contains(2L);
+        assertThat(stateEventView.getStateEvents(2L, 4L, 2L)).containsExactly(new StateEventDTO(3L, "1_button", "user"));
+        assertThat(delegate.getStateEvents(2L, 4L, 2L)).containsExactly(new StateEventDTO(3L, "1_button", "user"));
+    }
+}
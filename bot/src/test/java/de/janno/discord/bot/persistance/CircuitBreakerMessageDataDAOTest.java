@@ -0,0 +1,139 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+
+class CircuitBreakerMessageDataDAOTest {
+
+    MessageDataDAOImpl delegate;
+    CircuitBreakerMessageDataDAO underTest;
+
+    @BeforeEach
+    void setup() {
+        delegate = Mockito.spy(new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null));
+        underTest = new CircuitBreakerMessageDataDAO(delegate, 2, Duration.ofMinutes(1), Duration.ofHours(1), 100);
+    }
+
+    private void openBreaker() {
+        doThrow(new IllegalStateException("stalled")).when(delegate).getDataForMessage(anyLong(), anyLong());
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> underTest.getDataForMessage(2L, 5L)).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(underTest.getState()).isEqualTo(CircuitBreakerMessageDataDAO.State.OPEN);
+    }
+
+    @Test
+    void open_writesQueuedAndReplayed() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        openBreaker();
+
+        assertThatThrownBy(() -> underTest.getDataForMessage(2L, 4L)).isInstanceOf(MessageDataUnavailableException.class);
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state")).isTrue();
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 6L, "testCommand", "testConfigClass", "config"));
+        assertThat(underTest.appendStateEvent(2L, 4L, 2L, "1", "user")).isTrue();
+        underTest.snapshotState(2L, 4L, 2L, "testStateClass", "state2");
+
+        Mockito.reset(delegate);
+        underTest.recover();
+
+        assertThat(underTest.getState()).isEqualTo(CircuitBreakerMessageDataDAO.State.CLOSED);
+        assertThat(underTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state2");
+        assertThat(underTest.getStateEvents(2L, 4L, 0L)).containsExactly(new StateEventDTO(2L, "1", "user"));
+        assertThat(underTest.getDataForMessage(2L, 6L)).isPresent();
+    }
+
+    @Test
+    void open_replacedMessageDataHasTheReturnedVersion() {
+        UUID configUUID = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 3L, "testStateClass", "state");
+        openBreaker();
+
+        long version = underTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 4L, version, version + 1, "testStateClass", "state2")).isTrue();
+
+        Mockito.reset(delegate);
+        underTest.recover();
+
+        assertThat(version).isZero();
+        assertThat(underTest.getDataForMessage(2L, 4L)).contains(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config", "testStateClass", "state2", 1L));
+    }
+
+    @Test
+    void recover_readsFailUntilAllWritesAreReplayed() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        openBreaker();
+        underTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+        Mockito.reset(delegate);
+        doThrow(new IllegalStateException("stalled")).when(delegate).updateCommandConfigOfMessage(anyLong(), anyLong(), anyLong(), anyLong(), any(), any());
+
+        underTest.recover();
+
+        assertThat(underTest.getState()).isEqualTo(CircuitBreakerMessageDataDAO.State.OPEN);
+        assertThatThrownBy(() -> underTest.getDataForMessage(2L, 4L)).isInstanceOf(MessageDataUnavailableException.class);
+
+        Mockito.reset(delegate);
+        underTest.recover();
+
+        assertThat(underTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state");
+    }
+
+    @Test
+    void lockTimeoutOpensTheBreaker() throws SQLException {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID();
+        MessageDataDAOImpl timeoutDelegate = new MessageDataDAOImpl(url, null, null, 1, Duration.ZERO,
+                new ConnectionPoolConfig(10, Duration.ofSeconds(5), 10, Duration.ofMillis(100)));
+        CircuitBreakerMessageDataDAO timeoutUnderTest = new CircuitBreakerMessageDataDAO(timeoutDelegate, 2, Duration.ofMinutes(1), Duration.ofHours(1), 100);
+        timeoutUnderTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+
+        //the open transaction holds the lock of the row
+        try (Connection connection = DriverManager.getConnection(url)) {
+            connection.setAutoCommit(false);
+            connection.createStatement().executeUpdate("UPDATE MESSAGE_DATA SET STATE = 'locked' WHERE CHANNEL_ID = 2 AND MESSAGE_ID = 4");
+
+            for (int i = 0; i < 2; i++) {
+                assertThatThrownBy(() -> timeoutUnderTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state")).isInstanceOf(RuntimeException.class);
+            }
+            connection.rollback();
+        }
+
+        assertThat(timeoutUnderTest.getState()).isEqualTo(CircuitBreakerMessageDataDAO.State.OPEN);
+    }
+
+    @Test
+    void recover_failedProbeStaysOpen() {
+        openBreaker();
+        doThrow(new IllegalStateException("stalled")).when(delegate).getAllMessageIdsForConfig(any());
+
+        underTest.recover();
+
+        assertThat(underTest.getState()).isEqualTo(CircuitBreakerMessageDataDAO.State.OPEN);
+    }
+
+    @Test
+    void slowCallsOpenTheBreaker() {
+        CircuitBreakerMessageDataDAO slowUnderTest = new CircuitBreakerMessageDataDAO(delegate, 2, Duration.ZERO, Duration.ofHours(1), 100);
+        Mockito.doAnswer(invocation -> {
+            Thread.sleep(5);
+            return invocation.callRealMethod();
+        }).when(delegate).deleteDataForMessage(anyLong(), anyLong());
+
+        slowUnderTest.deleteDataForMessage(2L, 4L);
+        slowUnderTest.deleteDataForMessage(2L, 5L);
+
+        assertThat(slowUnderTest.getState()).isEqualTo(CircuitBreakerMessageDataDAO.State.OPEN);
+    }
+}
@@ -0,0 +1,32 @@
+package de.janno.discord.bot.persistance;
+
+import de.janno.discord.bot.command.Config;
+import de.janno.discord.bot.command.fate.FateConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConfigCacheTest {
+
+    @Test
+    void getOrDeserialize_cached() {
+        UUID configUUID = UUID.randomUUID();
+        FateConfig first = ConfigCache.getOrDeserialize(configUUID, Mapper.serializedObject(new FateConfig(123L, "simple")), FateConfig.class);
+
+        FateConfig second = ConfigCache.getOrDeserialize(configUUID, Mapper.serializedObject(new FateConfig(123L, "simple")), FateConfig.class);
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void getOrDeserialize_otherClass() {
+        UUID configUUID = UUID.randomUUID();
+        ConfigCache.getOrDeserialize(configUUID, Mapper.serializedObject(new Config(123L)), Config.class);
+
+        FateConfig res = ConfigCache.getOrDeserialize(configUUID, Mapper.serializedObject(new FateConfig(123L, "simple")), FateConfig.class);
+
+        assertThat(res).isEqualTo(new FateConfig(123L, "simple"));
+    }
+}
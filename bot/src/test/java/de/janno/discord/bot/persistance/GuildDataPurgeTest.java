@@ -0,0 +1,73 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GuildDataPurgeTest {
+
+    MessageDataDAOImpl messageDataDAO = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+    //the long grace period prevents the scheduled purges, the test calls them directly
+    GuildDataPurge underTest = new GuildDataPurge(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ofDays(1), Duration.ofDays(1), 2, Duration.ZERO);
+
+    @Test
+    void purge_deleteAllDataOfGuildInChunks() throws InterruptedException {
+        UUID configUUID = UUID.randomUUID();
+        messageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 5L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 3L, 6L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 7L, 8L, 9L, "testCommand", "testConfigClass", "config"));
+
+        underTest.guildLeft(1L);
+
+        assertThat(underTest.purge(1L)).isEqualTo(3);
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isEmpty();
+        assertThat(messageDataDAO.getDataForMessage(3L, 6L)).isEmpty();
+        assertThat(messageDataDAO.getDataForMessage(8L, 9L)).isPresent();
+        assertThat(messageDataDAO.getAllGuildIds()).containsExactly(7L);
+    }
+
+    @Test
+    void purge_canceledByJoin() throws InterruptedException {
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+
+        underTest.guildLeft(1L);
+        underTest.guildJoined(1L);
+
+        assertThat(underTest.purge(1L)).isEqualTo(0);
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isPresent();
+    }
+
+    @Test
+    void reconcile_purgeGuildsTheBotIsNotIn() throws InterruptedException {
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 7L, 8L, 9L, "testCommand", "testConfigClass", "config"));
+        underTest.allGuildsReady(() -> Set.of(7L));
+
+        assertThat(underTest.reconcile()).isEqualTo(1);
+        assertThat(underTest.purge(1L)).isEqualTo(1);
+        assertThat(underTest.purge(7L)).isEqualTo(0);
+        assertThat(messageDataDAO.getDataForMessage(8L, 9L)).isPresent();
+    }
+
+    @Test
+    void purge_messagesOfGuildInvalidatedInCache() throws InterruptedException {
+        CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(messageDataDAO, 10, Duration.ofHours(1), Duration.ofHours(1));
+        GuildDataPurge cachedUnderTest = new GuildDataPurge(messageDataDAO, cachingMessageDataDAO, Duration.ofDays(1), Duration.ofDays(1), 2, Duration.ZERO);
+        cachingMessageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        cachingMessageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 7L, 8L, 9L, "testCommand", "testConfigClass", "config"));
+        cachingMessageDataDAO.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state");
+
+        cachedUnderTest.guildLeft(1L);
+
+        assertThat(cachedUnderTest.purge(1L)).isEqualTo(1);
+        //the pending update of the purged message is dropped
+        cachingMessageDataDAO.flush();
+        assertThat(cachingMessageDataDAO.getDataForMessage(2L, 4L)).isEmpty();
+        assertThat(cachingMessageDataDAO.getDataForMessage(8L, 9L)).isPresent();
+    }
+}
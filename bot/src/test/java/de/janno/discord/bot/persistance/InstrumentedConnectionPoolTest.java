@@ -0,0 +1,53 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InstrumentedConnectionPoolTest {
+
+    InstrumentedConnectionPool underTest = new InstrumentedConnectionPool("jdbc:h2:mem:" + UUID.randomUUID(), null, null,
+            new ConnectionPoolConfig(1, Duration.ofSeconds(5), 3, Duration.ZERO));
+
+    @Test
+    void adjustMaxConnections_growOnWaitAndShrinkWhenIdle() throws Exception {
+        Connection first = underTest.getConnection();
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try (Connection ignored = underTest.getConnection()) {
+                //only waits for the first connection
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        first.close();
+        waiting.get();
+
+        underTest.adjustMaxConnections();
+        assertThat(underTest.getMaxConnections()).isEqualTo(2);
+
+        underTest.adjustMaxConnections();
+        assertThat(underTest.getMaxConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void adjustMaxConnections_notBelowConfiguredSize() {
+        underTest.adjustMaxConnections();
+
+        assertThat(underTest.getMaxConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void connectionPoolConfig_invalidSizesAndTimeoutsAreRejected() {
+        assertThatThrownBy(() -> new ConnectionPoolConfig(0, Duration.ofSeconds(5), 0, Duration.ZERO)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConnectionPoolConfig(5, Duration.ofSeconds(5), 3, Duration.ZERO)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConnectionPoolConfig(5, Duration.ZERO, 5, Duration.ZERO)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConnectionPoolConfig(5, Duration.ofSeconds(5), 5, Duration.ofSeconds(-1))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,51 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongPairIndexTest {
+
+    LongPairIndex underTest = new LongPairIndex(4);
+
+    @Test
+    void putGetRemove() {
+        assertThat(underTest.put(1L, 2L, 0L)).isEqualTo(-1L);
+        assertThat(underTest.put(1L, 3L, 10L)).isEqualTo(-1L);
+        assertThat(underTest.put(1L, 2L, 5L)).isEqualTo(0L);
+
+        assertThat(underTest.get(1L, 2L)).isEqualTo(5L);
+        assertThat(underTest.get(2L, 1L)).isEqualTo(-1L);
+        assertThat(underTest.size()).isEqualTo(2);
+
+        assertThat(underTest.remove(1L, 2L)).isEqualTo(5L);
+        assertThat(underTest.remove(1L, 2L)).isEqualTo(-1L);
+        assertThat(underTest.get(1L, 2L)).isEqualTo(-1L);
+        assertThat(underTest.get(1L, 3L)).isEqualTo(10L);
+        assertThat(underTest.size()).isEqualTo(1);
+    }
+
+    @Test
+    void growAndReuseDeletedSlots() {
+        for (long i = 0; i < 10_000; i++) {
+            underTest.put(i, i * 7, i);
+        }
+        for (long i = 0; i < 10_000; i += 2) {
+            underTest.remove(i, i * 7);
+        }
+        for (long i = 0; i < 10_000; i += 2) {
+            underTest.put(i, i * 7, i + 1);
+        }
+
+        Map<Long, Long> entries = new HashMap<>();
+        underTest.forEach((first, second, value) -> entries.put(first, value));
+
+        assertThat(underTest.size()).isEqualTo(10_000);
+        assertThat(entries).hasSize(10_000);
+        assertThat(entries.get(2L)).isEqualTo(3L);
+        assertThat(entries.get(3L)).isEqualTo(3L);
+    }
+}
@@ -0,0 +1,138 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedMessageDataDAOTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MappedMessageDataDAO create() {
+        return new MappedMessageDataDAO(tempDir.resolve("message_data.log"), Duration.ofHours(1));
+    }
+
+    @Test
+    void saveAndGet() {
+        MappedMessageDataDAO underTest = create();
+        UUID uuid = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config", "testStateClass", "state"));
+        underTest.saveMessageData(new MessageDataDTO(uuid, null, 2L, 4L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.getDataForMessage(2L, 3L)).contains(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config", "testStateClass", "state"));
+        assertThat(underTest.getDataForMessage(2L, 4L)).contains(new MessageDataDTO(uuid, null, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        assertThat(underTest.getDataForMessage(2L, 5L)).isEmpty();
+        assertThat(underTest.getAllMessageIdsForConfig(uuid)).containsExactlyInAnyOrder(3L, 4L);
+    }
+
+    @Test
+    void updateCommandConfigOfMessage() {
+        MappedMessageDataDAO underTest = create();
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 3L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 3L, 0L, 1L, "testStateClass", "state1")).isTrue();
+        assertThat(underTest.updateCommandConfigOfMessage(2L, 3L, 0L, 1L, "testStateClass", "state2")).isFalse();
+
+        assertThat(underTest.getDataForMessage(2L, 3L).map(MessageDataDTO::getStateData)).contains("state1");
+        assertThat(underTest.getDataForMessage(2L, 3L).map(MessageDataDTO::getVersion)).contains(1L);
+    }
+
+    @Test
+    void deleteDataForChannel() {
+        MappedMessageDataDAO underTest = create();
+        UUID uuid = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 5L, 6L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.deleteDataForChannel(2L)).containsExactlyInAnyOrder(3L, 4L);
+
+        assertThat(underTest.getDataForMessage(2L, 3L)).isEmpty();
+        assertThat(underTest.getAllMessageIdsForConfig(uuid)).isEmpty();
+        assertThat(underTest.getDataForMessage(5L, 6L)).isPresent();
+    }
+
+    @Test
+    void reopen() {
+        MappedMessageDataDAO underTest = create();
+        UUID uuid = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        underTest.updateCommandConfigOfMessage(2L, 3L, 0L, 1L, "testStateClass", "state");
+        underTest.deleteDataForMessage(2L, 4L);
+        underTest.close();
+
+        MappedMessageDataDAO reopened = create();
+
+        assertThat(reopened.getDataForMessage(2L, 3L)).contains(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config", "testStateClass", "state", 1L));
+        assertThat(reopened.getDataForMessage(2L, 4L)).isEmpty();
+    }
+
+    @Test
+    void reopen_invalidRecordIsDiscarded() throws IOException {
+        MappedMessageDataDAO underTest = create();
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 3L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        underTest.close();
+        //a partially written record at the end of the log
+        try (FileChannel channel = FileChannel.open(tempDir.resolve("message_data.log"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), findLastRecord(channel) + 12);
+        }
+
+        MappedMessageDataDAO reopened = create();
+
+        assertThat(reopened.getDataForMessage(2L, 3L)).isPresent();
+        assertThat(reopened.getDataForMessage(2L, 4L)).isEmpty();
+
+        reopened.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "config"));
+        reopened.close();
+        assertThat(create().getDataForMessage(2L, 5L)).isPresent();
+    }
+
+    @Test
+    void compact() {
+        MappedMessageDataDAO underTest = create();
+        UUID uuid = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        for (long version = 0; version < 100; version++) {
+            underTest.updateCommandConfigOfMessage(2L, 3L, version, version + 1, "testStateClass", "state" + version);
+        }
+        underTest.deleteDataForMessage(2L, 4L);
+
+        underTest.compact();
+
+        assertThat(underTest.getDataForMessage(2L, 3L)).contains(new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "config", "testStateClass", "state99", 100L));
+        assertThat(underTest.getDataForMessage(2L, 4L)).isEmpty();
+        underTest.close();
+
+        assertThat(create().getDataForMessage(2L, 3L).map(MessageDataDTO::getVersion)).contains(100L);
+    }
+
+    //the position of the last record, a record starts with the length and the checksum
+    private long findLastRecord(FileChannel channel) throws IOException {
+        long position = 0;
+        long last = 0;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (true) {
+            length.clear();
+            channel.read(length, position);
+            int recordLength = length.flip().getInt();
+            if (recordLength == 0) {
+                return last;
+            }
+            last = position;
+            position += 8 + recordLength;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.collect.ImmutableList;
+import de.janno.discord.bot.command.ButtonIdLabelAndDiceExpression;
+import de.janno.discord.bot.command.customDice.CustomDiceConfig;
+import de.janno.discord.bot.command.poolTarget.PoolTargetStateData;
+import de.janno.discord.bot.command.sumCustomSet.SumCustomSetStateData;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MapperTest {
+
+    @Test
+    void roundTrip_config() {
+        CustomDiceConfig config = new CustomDiceConfig(123L, ImmutableList.of(
+                new ButtonIdLabelAndDiceExpression("1_button", "Label", "+1d6"),
+                new ButtonIdLabelAndDiceExpression("2_button", "+2d4", "+2d4")));
+
+        String res = Mapper.serializedObject(config);
+
+        assertThat(res).startsWith(Mapper.BINARY_V1_PREFIX);
+        assertThat(Mapper.deserializeObject(res, CustomDiceConfig.class)).isEqualTo(config);
+    }
+
+    @Test
+    void roundTrip_stateData() {
+        SumCustomSetStateData stateData = new SumCustomSetStateData(ImmutableList.of("1d6", "2d8"), null);
+
+        String res = Mapper.serializedObject(stateData);
+
+        assertThat(Mapper.deserializeObject(res, SumCustomSetStateData.class)).isEqualTo(stateData);
+    }
+
+    @Test
+    void binaryIsSmallerThanYaml() {
+        PoolTargetStateData stateData = new PoolTargetStateData(15, 8, true);
+
+        assertThat(Mapper.serializedObject(stateData).length()).isLessThan(Mapper.serializedObjectAsYaml(stateData).length());
+    }
+
+    @Test
+    void deserializeLegacyYaml() {
+        String yaml = """
+                ---
+                dicePool: 15
+                targetNumber: 8
+                doReroll: true
+                """;
+
+        assertThat(Mapper.deserializeObject(yaml, PoolTargetStateData.class)).isEqualTo(new PoolTargetStateData(15, 8, true));
+    }
+
+    @Test
+    void deserializeInvalidBinary() {
+        assertThatThrownBy(() -> Mapper.deserializeObject(Mapper.BINARY_V1_PREFIX + "AAAA", PoolTargetStateData.class))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
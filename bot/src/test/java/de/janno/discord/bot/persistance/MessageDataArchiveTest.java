@@ -0,0 +1,49 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDataArchiveTest {
+
+    MessageDataDAOImpl messageDataDAO = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+
+    @Test
+    void run_keepRecentlyUsed() throws InterruptedException {
+        MessageDataArchive underTest = new MessageDataArchive(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ofDays(1), LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.run()).isEqualTo(0);
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isPresent();
+    }
+
+    @Test
+    void run_archiveOld() throws InterruptedException {
+        MessageDataArchive underTest = new MessageDataArchive(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ZERO, LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+        UUID configUUID = UUID.randomUUID();
+        messageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 5L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 3L, 6L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.run()).isEqualTo(3);
+        //the archived message is rehydrated on access
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).contains(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        assertThat(messageDataDAO.deleteDataForChannel(2L)).containsExactlyInAnyOrder(4L, 5L);
+    }
+
+    @Test
+    void retention_deletesArchived() throws InterruptedException {
+        MessageDataArchive underTest = new MessageDataArchive(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ZERO, LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        assertThat(underTest.run()).isEqualTo(1);
+
+        MessageDataRetention retention = new MessageDataRetention(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ZERO, LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+
+        assertThat(retention.run()).isEqualTo(1);
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isEmpty();
+    }
+}
@@ -0,0 +1,65 @@
+package de.janno.discord.bot.persistance;
+
+import de.janno.discord.bot.command.fate.FateConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDataCacheSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writeAndRestore() {
+        MessageDataDAOImpl delegate = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(delegate, 100, Duration.ofHours(1), Duration.ofHours(1));
+        UUID configUUID = UUID.randomUUID();
+        String config = Mapper.serializedObject(new FateConfig(123L, "simple"));
+        ConfigCache.getOrDeserialize(configUUID, config, FateConfig.class);
+        cachingMessageDataDAO.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 4L, "fate", "FateConfig", config));
+        cachingMessageDataDAO.saveMessageData(new MessageDataDTO(configUUID, null, 2L, 5L, "fate", "FateConfig", config));
+        cachingMessageDataDAO.updateCommandConfigOfMessage(2L, 5L, 0L, 1L, "testStateClass", "state");
+        MessageDataCacheSnapshot underTest = new MessageDataCacheSnapshot(tempDir.resolve("snapshot"), Duration.ofHours(1));
+
+        underTest.write(cachingMessageDataDAO);
+
+        //the database is not read for the restored message data
+        MessageDataDAOImpl emptyDelegate = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        CachingMessageDataDAO restoredCachingMessageDataDAO = new CachingMessageDataDAO(emptyDelegate, 100, Duration.ofHours(1), Duration.ofHours(1));
+        int res = underTest.restore(restoredCachingMessageDataDAO);
+
+        assertThat(res).isEqualTo(2);
+        assertThat(restoredCachingMessageDataDAO.getDataForMessage(2L, 4L)).contains(new MessageDataDTO(configUUID, 1L, 2L, 4L, "fate", "FateConfig", config));
+        assertThat(restoredCachingMessageDataDAO.getDataForMessage(2L, 5L)).contains(new MessageDataDTO(configUUID, null, 2L, 5L, "fate", "FateConfig", config, "testStateClass", "state", 1L));
+        assertThat(tempDir.resolve("snapshot")).doesNotExist();
+    }
+
+    @Test
+    void restore_tooOld() throws Exception {
+        CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null), 100, Duration.ofHours(1), Duration.ofHours(1));
+        cachingMessageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        new MessageDataCacheSnapshot(tempDir.resolve("snapshot"), Duration.ofHours(1)).write(cachingMessageDataDAO);
+        assertThat(Files.exists(tempDir.resolve("snapshot"))).isTrue();
+
+        int res = new MessageDataCacheSnapshot(tempDir.resolve("snapshot"), Duration.ofMillis(-1)).restore(cachingMessageDataDAO);
+
+        assertThat(res).isZero();
+        assertThat(tempDir.resolve("snapshot")).doesNotExist();
+    }
+
+    @Test
+    void restore_noFile() {
+        CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null), 100, Duration.ofHours(1), Duration.ofHours(1));
+
+        int res = new MessageDataCacheSnapshot(tempDir.resolve("snapshot"), Duration.ofHours(1)).restore(cachingMessageDataDAO);
+
+        assertThat(res).isZero();
+    }
+}
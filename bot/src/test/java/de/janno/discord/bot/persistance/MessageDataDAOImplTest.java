@@ -2,8 +2,18 @@ package de.janno.discord.bot.persistance;
 
 import org.junit.jupiter.api.Test;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -34,6 +44,35 @@ class MessageDataDAOImplTest {
         assertThat(underTest.getDataForMessage(2L, 5L)).isPresent();
     }
 
+    @Test
+    void deleteDataForMessages() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 13L, 4L, "testCommand", "testConfigClass", "configClass"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 13L, 5L, "testCommand", "testConfigClass", "configClass"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 13L, 6L, "testCommand", "testConfigClass", "configClass"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 14L, 4L, "testCommand", "testConfigClass", "configClass"));
+
+        underTest.deleteDataForMessages(13L, List.of(4L, 5L));
+
+        assertThat(underTest.getDataForMessage(13L, 4L)).isEmpty();
+        assertThat(underTest.getDataForMessage(13L, 5L)).isEmpty();
+        assertThat(underTest.getDataForMessage(13L, 6L)).isPresent();
+        assertThat(underTest.getDataForMessage(14L, 4L)).isPresent();
+    }
+
+    @Test
+    void deleteDataForMessages_unusedConfigIsDeleted() throws SQLException {
+        UUID unused = UUID.randomUUID();
+        UUID used = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(unused, 1L, 15L, 4L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(used, 1L, 15L, 5L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(used, 1L, 16L, 6L, "testCommand", "testConfigClass", "config"));
+
+        underTest.deleteDataForMessages(15L, List.of(4L, 5L));
+
+        assertThat(countConfigs(unused)).isZero();
+        assertThat(countConfigs(used)).isEqualTo(1);
+    }
+
     @Test
     void deleteDataForChannel() {
         underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
@@ -48,4 +87,318 @@ class MessageDataDAOImplTest {
         assertThat(underTest.getDataForMessage(3L, 6L)).isPresent();
     }
 
-}
\ No newline at end of file
+    @Test
+    void saveMessageData_configIsWrittenOnce() {
+        UUID uuid = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 10L, 2L, "testCommand", "testConfigClass", "config1"));
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 10L, 3L, "testCommand", "testConfigClass", "config2"));
+
+        assertThat(underTest.getDataForMessage(10L, 3L).map(MessageDataDTO::getConfig)).contains("config1");
+    }
+
+    @Test
+    void deleteDataForChannel_configOfOtherChannelIsKept() {
+        UUID uuid = UUID.randomUUID();
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 11L, 4L, "testCommand", "testConfigClass", "config"));
+        underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 12L, 5L, "testCommand", "testConfigClass", "config"));
+
+        underTest.deleteDataForChannel(11L);
+
+        assertThat(underTest.getDataForMessage(12L, 5L).map(MessageDataDTO::getConfig)).contains("config");
+    }
+
+    @Test
+    void migrateConfigsIntoConfigTable() throws SQLException {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID();
+        UUID uuid = UUID.randomUUID();
+        //keeps the in memory db open
+        try (Connection connection = DriverManager.getConnection(url)) {
+            connection.createStatement().execute("""
+                    CREATE TABLE MESSAGE_DATA(
+                        CONFIG_ID       UUID            NOT NULL,
+                        CHANNEL_ID      BIGINT          NOT NULL,
+                        MESSAGE_ID      BIGINT          NOT NULL,
+                        COMMAND_ID      VARCHAR         NOT NULL,
+                        CONFIG_CLASS_ID VARCHAR         NOT NULL,
+                        CONFIG          VARCHAR         NOT NULL,
+                        STATE_CLASS_ID  VARCHAR         NOT NULL,
+                        STATE           VARCHAR         NULL,
+                        CREATION_DATE   TIMESTAMP       NOT NULL,
+                        GUILD_ID        BIGINT,
+                        PRIMARY KEY (CONFIG_ID, CHANNEL_ID, MESSAGE_ID)
+                    );
+                    """);
+            PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO MESSAGE_DATA VALUES (?, 1, ?, 'testCommand', 'testConfigClass', 'config', 'testStateClass', 'state', CURRENT_TIMESTAMP, 3)");
+            preparedStatement.setObject(1, uuid);
+            preparedStatement.setLong(2, 2L);
+            preparedStatement.execute();
+            preparedStatement.setLong(2, 3L);
+            preparedStatement.execute();
+
+            MessageDataDAOImpl migrated = new MessageDataDAOImpl(url, null, null);
+
+            assertThat(migrated.getDataForMessage(1L, 2L)).contains(new MessageDataDTO(uuid, 3L, 1L, 2L, "testCommand", "testConfigClass", "config", "testStateClass", "state"));
+            assertThat(migrated.getDataForMessage(1L, 3L).map(MessageDataDTO::getConfig)).contains("config");
+
+            ResultSet primaryKey = connection.createStatement().executeQuery("""
+                    SELECT LISTAGG(KCU.COLUMN_NAME, ',') WITHIN GROUP (ORDER BY KCU.ORDINAL_POSITION)
+                    FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS TC
+                    JOIN INFORMATION_SCHEMA.KEY_COLUMN_USAGE KCU ON KCU.CONSTRAINT_NAME = TC.CONSTRAINT_NAME
+                    WHERE TC.TABLE_NAME = 'MESSAGE_DATA' AND TC.CONSTRAINT_TYPE = 'PRIMARY KEY'
+                    """);
+            primaryKey.next();
+            assertThat(primaryKey.getString(1)).isEqualTo("CHANNEL_ID,MESSAGE_ID");
+            ResultSet schemaVersion = connection.createStatement().executeQuery("SELECT MAX(VERSION) FROM SCHEMA_VERSION");
+            schemaVersion.next();
+            assertThat(schemaVersion.getInt(1)).isEqualTo(5);
+        }
+    }
+
+    @Test
+    void migrateToSchemaV2_legacyRowsAreMoved() throws Exception {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID();
+        UUID uuid = UUID.randomUUID();
+        //keeps the in memory db open
+        try (Connection connection = DriverManager.getConnection(url)) {
+            connection.createStatement().execute("""
+                    CREATE TABLE MESSAGE_DATA(
+                        CONFIG_ID       UUID            NOT NULL,
+                        CHANNEL_ID      BIGINT          NOT NULL,
+                        MESSAGE_ID      BIGINT          NOT NULL,
+                        COMMAND_ID      VARCHAR         NOT NULL,
+                        CONFIG_CLASS_ID VARCHAR         NOT NULL,
+                        CONFIG          VARCHAR         NOT NULL,
+                        STATE_CLASS_ID  VARCHAR         NOT NULL,
+                        STATE           VARCHAR         NULL,
+                        CREATION_DATE   TIMESTAMP       NOT NULL,
+                        GUILD_ID        BIGINT,
+                        PRIMARY KEY (CONFIG_ID, CHANNEL_ID, MESSAGE_ID)
+                    );
+                    """);
+            PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO MESSAGE_DATA VALUES (?, 1, ?, 'testCommand', 'testConfigClass', 'config', 'testStateClass', 'state', CURRENT_TIMESTAMP, 3)");
+            preparedStatement.setObject(1, uuid);
+            for (long messageId = 1; messageId <= 5; messageId++) {
+                preparedStatement.setLong(2, messageId);
+                preparedStatement.execute();
+            }
+
+            MessageDataDAOImpl migrated = new MessageDataDAOImpl(url, null, null);
+            migrated.deleteDataForMessage(1L, 5L);
+            //the rows are moved in the background
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (legacyTableExists(connection) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertThat(legacyTableExists(connection)).isFalse();
+            assertThat(migrated.getAllMessageIdsForConfig(uuid)).containsExactlyInAnyOrder(1L, 2L, 3L, 4L);
+            assertThat(migrated.getDataForMessage(1L, 2L).map(MessageDataDTO::getStateData)).contains("state");
+        }
+    }
+
+    @Test
+    void migrateSchema_newDatabaseGetsLatestSchema() throws SQLException {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID();
+        //keeps the in memory db open
+        try (Connection connection = DriverManager.getConnection(url)) {
+            new MessageDataDAOImpl(url, null, null);
+
+            ResultSet schemaVersions = connection.createStatement().executeQuery("SELECT LISTAGG(VERSION, ',') FROM SCHEMA_VERSION");
+            schemaVersions.next();
+            assertThat(schemaVersions.getString(1)).isEqualTo("5");
+            ResultSet guildIndex = connection.createStatement().executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'MESSAGE_DATA_GUILD_ID'");
+            guildIndex.next();
+            assertThat(guildIndex.getInt(1)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void saveMessageData_existingMessageKeepsCreationDateAndGetsNewVersion() throws SQLException {
+        assertThat(underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 20L, 4L, "testCommand", "testConfigClass", "config", "testStateClass", "state1"))).isZero();
+        Timestamp creationDate = getCreationDate(20L, 4L);
+
+        assertThat(underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 20L, 4L, "testCommand", "testConfigClass", "config", "testStateClass", "state2"))).isEqualTo(1L);
+
+        assertThat(underTest.getDataForMessage(20L, 4L).map(MessageDataDTO::getVersion)).contains(1L);
+        assertThat(getCreationDate(20L, 4L)).isEqualTo(creationDate);
+        assertThat(underTest.updateCommandConfigOfMessage(20L, 4L, 0L, 1L, "testStateClass", "state3")).isFalse();
+    }
+
+    @Test
+    void saveMessageData_sameMessageIsReplaced() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 17L, 4L, "testCommand", "testConfigClass", "config", "testStateClass", "state1"));
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 17L, 4L, "testCommand", "testConfigClass", "config", "testStateClass", "state2"));
+
+        assertThat(underTest.getDataForMessage(17L, 4L).map(MessageDataDTO::getStateData)).contains("state2");
+    }
+
+    @Test
+    void batchedWrites() {
+        MessageDataDAOImpl batchingUnderTest = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null, 10, Duration.ofMillis(5));
+        UUID uuid = UUID.randomUUID();
+
+        LongStream.range(0, 100).parallel()
+                .forEach(i -> batchingUnderTest.saveMessageData(new MessageDataDTO(uuid, 1L, 1L, i, "testCommand", "testConfigClass", "configClass")));
+
+        assertThat(batchingUnderTest.getAllMessageIdsForConfig(uuid)).hasSize(100);
+    }
+
+    @Test
+    void unitOfWork() {
+        UUID uuid = UUID.randomUUID();
+        try (UnitOfWork ignored = underTest.startUnitOfWork()) {
+            underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 16L, 4L, "testCommand", "testConfigClass", "configClass"));
+            try (UnitOfWork nested = underTest.startUnitOfWork()) {
+                underTest.saveMessageData(new MessageDataDTO(uuid, 1L, 16L, 5L, "testCommand", "testConfigClass", "configClass"));
+            }
+            assertThat(underTest.getAllMessageIdsForConfig(uuid)).containsExactlyInAnyOrder(4L, 5L);
+        }
+
+        assertThat(underTest.getDataForMessage(16L, 5L)).isPresent();
+    }
+
+    @Test
+    void updateCommandConfigOfMessage_versionConflict() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 15L, 4L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(underTest.updateCommandConfigOfMessage(15L, 4L, 0L, 1L, "testStateClass", "state1")).isTrue();
+        assertThat(underTest.updateCommandConfigOfMessage(15L, 4L, 0L, 1L, "testStateClass", "state2")).isFalse();
+
+        assertThat(underTest.getDataForMessage(15L, 4L).map(MessageDataDTO::getStateData)).contains("state1");
+        assertThat(underTest.getDataForMessage(15L, 4L).map(MessageDataDTO::getVersion)).contains(1L);
+    }
+
+    @Test
+    void stateEvents() {
+        underTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 18L, 4L, "testCommand", "testConfigClass", "configClass"));
+
+        assertThat(underTest.appendStateEvent(18L, 4L, 1L, "1_button", "user1")).isTrue();
+        assertThat(underTest.appendStateEvent(18L, 4L, 1L, "2_button", "user2")).isFalse();
+        assertThat(underTest.appendStateEvent(18L, 4L, 2L, "2_button", null)).isTrue();
+        assertThat(underTest.getStateEvents(18L, 4L, 0L)).containsExactly(
+                new StateEventDTO(1L, "1_button", "user1"),
+                new StateEventDTO(2L, "2_button", null));
+
+        underTest.snapshotState(18L, 4L, 2L, "testStateClass", "state2");
+
+        assertThat(underTest.getDataForMessage(18L, 4L).map(MessageDataDTO::getVersion)).contains(2L);
+        assertThat(underTest.getStateEvents(18L, 4L, 2L)).isEmpty();
+        //the sequence is not newer than the snapshot
+        assertThat(underTest.appendStateEvent(18L, 4L, 2L, "3_button", "user1")).isFalse();
+        assertThat(underTest.appendStateEvent(18L, 4L, 1L, "3_button", "user1")).isFalse();
+        assertThat(underTest.appendStateEvent(18L, 5L, 1L, "3_button", "user1")).isFalse();
+
+        underTest.deleteDataForMessage(18L, 4L);
+
+        assertThat(underTest.getStateEvents(18L, 4L, 0L)).isEmpty();
+    }
+
+    @Test
+    void batchedWrites_keepOrder() {
+        MessageDataDAOImpl batchingUnderTest = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null, 10, Duration.ofMillis(5));
+
+        batchingUnderTest.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "configClass"));
+        batchingUnderTest.updateCommandConfigOfMessage(2L, 4L, 0L, 1L, "testStateClass", "state1");
+        batchingUnderTest.updateCommandConfigOfMessage(2L, 4L, 1L, 2L, "testStateClass", "state2");
+
+        assertThat(batchingUnderTest.getDataForMessage(2L, 4L).map(MessageDataDTO::getStateData)).contains("state2");
+
+        batchingUnderTest.deleteDataForMessage(2L, 4L);
+
+        assertThat(batchingUnderTest.getDataForMessage(2L, 4L)).isEmpty();
+    }
+
+    @Test
+    void archiveAndRehydrate() {
+        MessageDataDAOImpl archiveUnderTest = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        UUID configUUID = UUID.randomUUID();
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 19L, 4L, "testCommand", "testConfigClass", "configClass"));
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 19L, 5L, "testCommand", "testConfigClass", "configClass"));
+        archiveUnderTest.updateCommandConfigOfMessage(19L, 4L, 0L, 1L, "testStateClass", "state");
+        LocalDateTime threshold = LocalDateTime.now().plusMinutes(1);
+
+        assertThat(archiveUnderTest.archiveMessagesNotAccessedSince(archiveUnderTest.getArchiveCandidates(threshold, null, 10), threshold)).hasSize(2);
+        assertThat(archiveUnderTest.getArchiveCandidates(threshold, null, 10)).isEmpty();
+        assertThat(archiveUnderTest.getAllMessageIdsForConfig(configUUID)).containsExactlyInAnyOrder(4L, 5L);
+        assertThat(archiveUnderTest.getAllGuildIds()).containsExactly(1L);
+
+        assertThat(archiveUnderTest.getDataForMessage(19L, 4L)).contains(new MessageDataDTO(configUUID, 1L, 19L, 4L, "testCommand", "testConfigClass", "configClass", "testStateClass", "state", 1L));
+        //the rehydrated message is in the hot table again
+        assertThat(archiveUnderTest.getArchiveCandidates(threshold, null, 10)).containsExactly(new MessageDataDAOImpl.StoredMessage(configUUID, 19L, 4L));
+
+        archiveUnderTest.deleteDataForMessage(19L, 5L);
+
+        assertThat(archiveUnderTest.getDataForMessage(19L, 5L)).isEmpty();
+        assertThat(archiveUnderTest.getAllMessageIdsForConfig(configUUID)).containsExactly(4L);
+    }
+
+    @Test
+    void rehydrate_archivedBeforeTheStart() {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID();
+        MessageDataDAOImpl archiveUnderTest = new MessageDataDAOImpl(url, null, null);
+        UUID configUUID = UUID.randomUUID();
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 19L, 4L, "testCommand", "testConfigClass", "configClass"));
+        LocalDateTime threshold = LocalDateTime.now().plusMinutes(1);
+        assertThat(archiveUnderTest.archiveMessagesNotAccessedSince(archiveUnderTest.getArchiveCandidates(threshold, null, 10), threshold)).hasSize(1);
+
+        MessageDataDAOImpl restartedUnderTest = new MessageDataDAOImpl(url, null, null);
+
+        assertThat(restartedUnderTest.getDataForMessage(19L, 5L)).isEmpty();
+        assertThat(restartedUnderTest.getDataForMessage(19L, 4L)).contains(new MessageDataDTO(configUUID, 1L, 19L, 4L, "testCommand", "testConfigClass", "configClass"));
+    }
+
+    @Test
+    void getArchiveCandidates_pagedByKey() {
+        MessageDataDAOImpl archiveUnderTest = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        UUID configUUID = UUID.randomUUID();
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 20L, 5L, "testCommand", "testConfigClass", "configClass"));
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 19L, 6L, "testCommand", "testConfigClass", "configClass"));
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 19L, 4L, "testCommand", "testConfigClass", "configClass"));
+        LocalDateTime threshold = LocalDateTime.now().plusMinutes(1);
+
+        List<MessageDataDAOImpl.StoredMessage> firstPage = archiveUnderTest.getArchiveCandidates(threshold, null, 2);
+
+        assertThat(firstPage).containsExactly(new MessageDataDAOImpl.StoredMessage(configUUID, 19L, 4L), new MessageDataDAOImpl.StoredMessage(configUUID, 19L, 6L));
+        assertThat(archiveUnderTest.getArchiveCandidates(threshold, firstPage.get(1), 2)).containsExactly(new MessageDataDAOImpl.StoredMessage(configUUID, 20L, 5L));
+    }
+
+    @Test
+    void archive_messageWithStateEventsIsKept() {
+        MessageDataDAOImpl archiveUnderTest = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+        UUID configUUID = UUID.randomUUID();
+        archiveUnderTest.saveMessageData(new MessageDataDTO(configUUID, 1L, 19L, 6L, "testCommand", "testConfigClass", "configClass"));
+        archiveUnderTest.appendStateEvent(19L, 6L, 1L, "1_button", "user1");
+        LocalDateTime threshold = LocalDateTime.now().plusMinutes(1);
+
+        assertThat(archiveUnderTest.getArchiveCandidates(threshold, null, 10)).isEmpty();
+        assertThat(archiveUnderTest.archiveMessagesNotAccessedSince(List.of(new MessageDataDAOImpl.StoredMessage(configUUID, 19L, 6L)), threshold)).isEmpty();
+        assertThat(archiveUnderTest.getStateEvents(19L, 6L, 0L)).hasSize(1);
+    }
+
+    private boolean legacyTableExists(Connection connection) throws SQLException {
+        ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'MESSAGE_DATA_V1'");
+        resultSet.next();
+        return resultSet.getInt(1) > 0;
+    }
+
+    private Timestamp getCreationDate(long channelId, long messageId) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:" + this.getClass().getSimpleName());
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT CREATION_DATE FROM MESSAGE_DATA WHERE CHANNEL_ID = ? AND MESSAGE_ID = ?")) {
+            preparedStatement.setLong(1, channelId);
+            preparedStatement.setLong(2, messageId);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            resultSet.next();
+            return resultSet.getTimestamp(1);
+        }
+    }
+
+    private long countConfigs(UUID configId) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:" + this.getClass().getSimpleName());
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM MESSAGE_CONFIG WHERE CONFIG_ID = ?")) {
+            preparedStatement.setObject(1, configId);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
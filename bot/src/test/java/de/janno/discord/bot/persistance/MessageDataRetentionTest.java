@@ -0,0 +1,86 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDataRetentionTest {
+
+    MessageDataDAOImpl messageDataDAO = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+
+    @Test
+    void run_deleteNotAccessed() throws InterruptedException {
+        MessageDataRetention underTest = new MessageDataRetention(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ofDays(1), LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.run()).isEqualTo(0);
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isPresent();
+    }
+
+    @Test
+    void run_deleteOld() throws InterruptedException {
+        MessageDataRetention underTest = new MessageDataRetention(messageDataDAO, MessageDataCacheInvalidation.NONE, Duration.ZERO, LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 3L, 6L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.run()).isEqualTo(3);
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isEmpty();
+        assertThat(messageDataDAO.getDataForMessage(3L, 6L)).isEmpty();
+    }
+
+    @Test
+    void run_deletedMessagesInvalidatedInCache() throws InterruptedException {
+        CachingMessageDataDAO cachingMessageDataDAO = new CachingMessageDataDAO(messageDataDAO, 10, Duration.ofHours(1), Duration.ofHours(1));
+        MessageDataRetention underTest = new MessageDataRetention(messageDataDAO, cachingMessageDataDAO, Duration.ZERO, LocalTime.MIDNIGHT, 1, Duration.ZERO, Duration.ofMinutes(1));
+        cachingMessageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+
+        assertThat(underTest.run()).isEqualTo(1);
+        assertThat(cachingMessageDataDAO.getDataForMessage(2L, 4L)).isEmpty();
+    }
+
+    @Test
+    void deleteMessagesNotAccessedSince_keepMarkedAsAccessed() {
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "config"));
+        LocalDateTime threshold = LocalDateTime.now().plusMinutes(1);
+        List<MessageDataDAOImpl.StoredMessage> candidates = messageDataDAO.getMessagesNotAccessedSince(threshold, null, 10);
+
+        messageDataDAO.markAsAccessed(2L, 4L);
+
+        assertThat(messageDataDAO.deleteMessagesNotAccessedSince(candidates, threshold)).containsExactly(candidates.get(1));
+        assertThat(messageDataDAO.getDataForMessage(2L, 4L)).isPresent();
+        assertThat(messageDataDAO.getDataForMessage(2L, 5L)).isEmpty();
+    }
+
+    @Test
+    void getMessagesNotAccessedSince_pagedByKey() {
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 5L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 3L, 1L, "testCommand", "testConfigClass", "config"));
+        LocalDateTime threshold = LocalDateTime.now().plusMinutes(1);
+
+        List<MessageDataDAOImpl.StoredMessage> firstPage = messageDataDAO.getMessagesNotAccessedSince(threshold, null, 2);
+        List<MessageDataDAOImpl.StoredMessage> secondPage = messageDataDAO.getMessagesNotAccessedSince(threshold, firstPage.get(1), 2);
+
+        assertThat(firstPage).extracting(MessageDataDAOImpl.StoredMessage::getMessageId).containsExactly(4L, 5L);
+        assertThat(secondPage).extracting(MessageDataDAOImpl.StoredMessage::getMessageId).containsExactly(1L);
+    }
+
+    @Test
+    void writeLastAccess_accessAfterWriteIsWrittenAgain() {
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.markAsAccessed(2L, 4L);
+
+        assertThat(messageDataDAO.writeLastAccess()).isEqualTo(1);
+        messageDataDAO.markAsAccessed(2L, 4L);
+        assertThat(messageDataDAO.writeLastAccess()).isEqualTo(1);
+        assertThat(messageDataDAO.writeLastAccess()).isZero();
+    }
+}
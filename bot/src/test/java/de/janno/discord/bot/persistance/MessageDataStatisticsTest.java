@@ -0,0 +1,70 @@
+package de.janno.discord.bot.persistance;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDataStatisticsTest {
+
+    MessageDataStatistics underTest = new MessageDataStatistics();
+
+    @Test
+    void rowAdded() {
+        underTest.rowAdded(1L, 10L);
+        underTest.rowAdded(1L, 10L);
+        underTest.rowAdded(2L, 10L);
+        underTest.rowAdded(3L, 11L);
+        underTest.rowAdded(4L, null);
+
+        assertThat(underTest.getChannelCount()).isEqualTo(4);
+        assertThat(underTest.getGuildCount()).isEqualTo(2);
+        assertThat(underTest.getChannelsWithoutGuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void rowsRemoved() {
+        underTest.rowAdded(1L, 10L);
+        underTest.rowAdded(1L, 10L);
+        underTest.rowAdded(2L, null);
+
+        underTest.rowsRemoved(1L, 1);
+        assertThat(underTest.getChannelCount()).isEqualTo(2);
+        assertThat(underTest.getGuildCount()).isEqualTo(1);
+
+        underTest.rowsRemoved(1L, 1);
+        underTest.rowsRemoved(2L, 1);
+        assertThat(underTest.getChannelCount()).isEqualTo(0);
+        assertThat(underTest.getGuildCount()).isEqualTo(0);
+        assertThat(underTest.getChannelsWithoutGuildCount()).isEqualTo(0);
+    }
+
+    @Test
+    void channelRemoved() {
+        underTest.rowAdded(1L, 10L);
+        underTest.rowAdded(2L, 10L);
+
+        underTest.channelRemoved(1L);
+
+        assertThat(underTest.getChannelCount()).isEqualTo(1);
+        assertThat(underTest.getGuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void load() throws SQLException {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID();
+        MessageDataDAOImpl messageDataDAO = new MessageDataDAOImpl(url, null, null);
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 10L, 1L, 2L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 10L, 2L, 3L, "testCommand", "testConfigClass", "config"));
+        messageDataDAO.saveMessageData(new MessageDataDTO(UUID.randomUUID(), null, 3L, 4L, "testCommand", "testConfigClass", "config"));
+
+        underTest.load(JdbcConnectionPool.create(url, null, null));
+
+        assertThat(underTest.getChannelCount()).isEqualTo(3);
+        assertThat(underTest.getGuildCount()).isEqualTo(1);
+        assertThat(underTest.getChannelsWithoutGuildCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,46 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDataTransferTest {
+
+    @Test
+    void exportAndImport() throws Exception {
+        String sourceUrl = "jdbc:h2:mem:" + UUID.randomUUID();
+        MessageDataDAOImpl source = new MessageDataDAOImpl(sourceUrl, null, null);
+        UUID configUUID = UUID.randomUUID();
+        source.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        source.saveMessageData(new MessageDataDTO(configUUID, 1L, 2L, 5L, "testCommand", "testConfigClass", "config", "testStateClass", "state", 3L));
+        source.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 3L, 6L, "testCommand", "testConfigClass", "config2"));
+        source.appendStateEvent(2L, 4L, 1L, "1_button", "user");
+        MessageDataTransfer underTest = new MessageDataTransfer(2);
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        long exportedRows;
+        try (Connection connection = DriverManager.getConnection(sourceUrl)) {
+            exportedRows = underTest.exportData(connection, exported);
+        }
+
+        String targetUrl = "jdbc:h2:mem:" + UUID.randomUUID();
+        MessageDataDAOImpl target = new MessageDataDAOImpl(targetUrl, null, null);
+        long importedRows;
+        try (Connection connection = DriverManager.getConnection(targetUrl)) {
+            importedRows = underTest.importData(connection, new ByteArrayInputStream(exported.toByteArray()));
+        }
+
+        assertThat(exportedRows).isEqualTo(6);
+        assertThat(importedRows).isEqualTo(6);
+        assertThat(target.getDataForMessage(2L, 4L)).contains(new MessageDataDTO(configUUID, 1L, 2L, 4L, "testCommand", "testConfigClass", "config"));
+        assertThat(target.getDataForMessage(2L, 5L)).contains(new MessageDataDTO(configUUID, 1L, 2L, 5L, "testCommand", "testConfigClass", "config", "testStateClass", "state", 3L));
+        assertThat(target.getAllMessageIdsForConfig(configUUID)).containsExactlyInAnyOrder(4L, 5L);
+        assertThat(target.getStateEvents(2L, 4L, 0L)).containsExactly(new StateEventDTO(1L, "1_button", "user"));
+    }
+}
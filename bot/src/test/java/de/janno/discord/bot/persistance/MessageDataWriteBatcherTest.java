@@ -0,0 +1,78 @@
+package de.janno.discord.bot.persistance;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MessageDataWriteBatcherTest {
+
+    JdbcConnectionPool dataSource;
+    MessageDataWriteBatcher underTest;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:" + UUID.randomUUID(), "", "");
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().execute("CREATE TABLE TEST_DATA (ID BIGINT PRIMARY KEY)");
+        }
+        underTest = new MessageDataWriteBatcher(dataSource, 10, Duration.ofMillis(5));
+    }
+
+    @Test
+    void execute_concurrentWithShutdown_allStatementsCompleted() throws Exception {
+        List<CompletableFuture<Integer>> results = IntStream.range(0, 100)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> underTest.execute("INSERT INTO TEST_DATA (ID) VALUES (?)", ps -> ps.setLong(1, i))))
+                .toList();
+        underTest.shutdown();
+
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get();
+        assertThat(countRows()).isEqualTo(100);
+    }
+
+    @Test
+    void execute_afterShutdown_executedDirectly() throws Exception {
+        underTest.shutdown();
+
+        assertThat(underTest.execute("INSERT INTO TEST_DATA (ID) VALUES (?)", ps -> ps.setLong(1, 1L))).isEqualTo(1);
+        assertThat(countRows()).isEqualTo(1);
+    }
+
+    @Test
+    void execute_timedOutBeforeExecution_notCommitted() throws Exception {
+        MessageDataWriteBatcher slowUnderTest = new MessageDataWriteBatcher(dataSource, 10, Duration.ofMillis(50), Duration.ofMillis(500));
+        CountDownLatch timedOut = new CountDownLatch(1);
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> slowUnderTest.execute("INSERT INTO TEST_DATA (ID) VALUES (?)", ps -> {
+            ps.setLong(1, 1L);
+            Uninterruptibles.awaitUninterruptibly(timedOut);
+        }));
+
+        assertThatThrownBy(() -> slowUnderTest.execute("INSERT INTO TEST_DATA (ID) VALUES (?)", ps -> ps.setLong(1, 2L)))
+                .hasMessage("Write statement was not committed in time");
+        timedOut.countDown();
+
+        //the first statement was executed before its wait time was over, its caller waits for the commit
+        assertThat(first.get()).isEqualTo(1);
+        assertThat(countRows()).isEqualTo(1);
+    }
+
+    private long countRows() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM TEST_DATA")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.janno.discord.bot.persistance;
+
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReactiveMessageDataDAOImplTest {
+
+    MessageDataDAOImpl delegate = new MessageDataDAOImpl("jdbc:h2:mem:" + UUID.randomUUID(), null, null);
+    ReactiveMessageDataDAOImpl underTest = new ReactiveMessageDataDAOImpl(delegate);
+
+    @Test
+    void saveAndGet() {
+        UUID uuid = UUID.randomUUID();
+        MessageDataDTO messageData = new MessageDataDTO(uuid, 1L, 2L, 3L, "testCommand", "testConfigClass", "configClass");
+
+        StepVerifier.create(underTest.saveMessageData(messageData)
+                        .then(underTest.inUnitOfWork(() -> delegate.getDataForMessage(2L, 3L).orElse(null))))
+                .expectNext(messageData)
+                .verifyComplete();
+        StepVerifier.create(underTest.inUnitOfWork(() -> delegate.getDataForMessage(2L, 4L).orElse(null)))
+                .verifyComplete();
+    }
+
+    @Test
+    void inUnitOfWork_runsOnDatabaseScheduler() {
+        StepVerifier.create(underTest.inUnitOfWork(() -> Thread.currentThread().getName()))
+                .assertNext(threadName -> assertThat(threadName).startsWith("message-data"))
+                .verifyComplete();
+    }
+
+    @Test
+    void deleteDataForMessages() {
+        delegate.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 5L, 6L, "testCommand", "testConfigClass", "configClass"));
+        delegate.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 5L, 7L, "testCommand", "testConfigClass", "configClass"));
+
+        StepVerifier.create(underTest.deleteDataForMessages(5L, List.of(6L)))
+                .verifyComplete();
+
+        assertThat(delegate.getDataForMessage(5L, 6L)).isEmpty();
+        assertThat(delegate.getDataForMessage(5L, 7L)).isPresent();
+    }
+
+    @Test
+    void deleteDataForChannel() {
+        delegate.saveMessageData(new MessageDataDTO(UUID.randomUUID(), 1L, 5L, 6L, "testCommand", "testConfigClass", "configClass"));
+
+        StepVerifier.create(underTest.deleteDataForChannel(5L))
+                .assertNext(messageIds -> assertThat(messageIds).containsExactly(6L))
+                .verifyComplete();
+    }
+}
@@ -5,5 +5,5 @@ import de.janno.discord.connector.api.message.MessageDefinition;
 import java.util.List;
 
 public interface DiscordConnector {
-    void start(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition) throws Exception;
+    void start(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition, GuildMembershipListener guildMembershipListener) throws Exception;
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package de.janno.discord.connector.api;
+
+import lombok.NonNull;
+
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Is informed when the bot joins or leaves a guild, so the data of guilds the bot is no longer in can be removed.
+ */
+public interface GuildMembershipListener {
+
+    GuildMembershipListener NONE = new GuildMembershipListener() {
+        @Override
+        public void guildJoined(long guildId) {
+        }
+
+        @Override
+        public void guildLeft(long guildId) {
+        }
+
+        @Override
+        public void allGuildsReady(@NonNull Supplier<Set<Long>> currentGuildIds) {
+        }
+    };
+
+    void guildJoined(long guildId);
+
+    void guildLeft(long guildId);
+
+    /**
+     * Called once after all shards are ready
+     *
+     * @param currentGuildIds returns the ids of all guilds the bot is currently in, including guilds that are temporarily unavailable
+     */
+    void allGuildsReady(@NonNull Supplier<Set<Long>> currentGuildIds);
+}
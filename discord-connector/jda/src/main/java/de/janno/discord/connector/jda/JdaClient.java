@@ -1,8 +1,10 @@
 package de.janno.discord.connector.jda;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
 import de.janno.discord.connector.api.BottomCustomIdUtils;
 import de.janno.discord.connector.api.ComponentInteractEventHandler;
+import de.janno.discord.connector.api.GuildMembershipListener;
 import de.janno.discord.connector.api.Requester;
 import de.janno.discord.connector.api.SlashCommand;
 import de.janno.discord.connector.api.message.MessageDefinition;
@@ -35,13 +37,14 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
 
 @Slf4j
 public class JdaClient {
 
     public static final Duration START_UP_BUFFER = Duration.of(5, ChronoUnit.MINUTES);
 
-    public void start(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition) throws LoginException {
+    public void start(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition, GuildMembershipListener guildMembershipListener) throws LoginException {
         LocalDateTime startTimePlusBuffer = LocalDateTime.now().plus(START_UP_BUFFER);
         Scheduler scheduler = Schedulers.boundedElastic();
         Set<Long> botInGuildIdSet = new ConcurrentSkipListSet<>();
@@ -58,6 +61,7 @@ public class JdaClient {
 
                             @Override
                             public void onGuildJoin(@NonNull GuildJoinEvent event) {
+                                guildMembershipListener.guildJoined(event.getGuild().getIdLong());
                                 if (!botInGuildIdSet.contains(event.getGuild().getIdLong())) {
                                     log.info("Bot started in guild: name='{}', memberCount={}", event.getGuild().getName(),
                                             event.getGuild().getMemberCount());
@@ -88,6 +92,7 @@ public class JdaClient {
                                             event.getGuild().getMemberCount());
                                     botInGuildIdSet.remove(event.getGuild().getIdLong());
                                 }
+                                guildMembershipListener.guildLeft(event.getGuild().getIdLong());
                             }
 
                             @Override
@@ -172,8 +177,18 @@ public class JdaClient {
             }
         });
 
+        guildMembershipListener.allGuildsReady(() -> getCurrentGuildIds(shardManager, botInGuildIdSet));
+
         SlashCommandRegistry.builder()
                 .addSlashCommands(commands)
                 .registerSlashCommands(shardManager.getShards().get(0), disableCommandUpdate);
     }
+
+    private static Set<Long> getCurrentGuildIds(ShardManager shardManager, Set<Long> botInGuildIdSet) {
+        //the guilds of an outage have no ready event, but the bot is still in them
+        return Stream.concat(botInGuildIdSet.stream(), shardManager.getShards().stream()
+                        .flatMap(jda -> jda.getUnavailableGuilds().stream())
+                        .map(Long::parseLong))
+                .collect(ImmutableSet.toImmutableSet());
+    }
 }
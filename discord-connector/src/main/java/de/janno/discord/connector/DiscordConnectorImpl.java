@@ -1,6 +1,7 @@
 package de.janno.discord.connector;
 
 import de.janno.discord.connector.api.DiscordConnector;
+import de.janno.discord.connector.api.GuildMembershipListener;
 import de.janno.discord.connector.api.SlashCommand;
 import de.janno.discord.connector.api.message.MessageDefinition;
 import de.janno.discord.connector.jda.JdaClient;
@@ -9,11 +10,15 @@ import java.util.List;
 
 public class DiscordConnectorImpl implements DiscordConnector {
     public static void createAndStart(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition) throws Exception {
-        new DiscordConnectorImpl().start(token, disableCommandUpdate, commands, welcomeMessageDefinition);
+        createAndStart(token, disableCommandUpdate, commands, welcomeMessageDefinition, GuildMembershipListener.NONE);
+    }
+
+    public static void createAndStart(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition, GuildMembershipListener guildMembershipListener) throws Exception {
+        new DiscordConnectorImpl().start(token, disableCommandUpdate, commands, welcomeMessageDefinition, guildMembershipListener);
     }
 
     @Override
-    public void start(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition) throws Exception {
-        new JdaClient().start(token, disableCommandUpdate, commands, welcomeMessageDefinition);
+    public void start(String token, boolean disableCommandUpdate, List<SlashCommand> commands, MessageDefinition welcomeMessageDefinition, GuildMembershipListener guildMembershipListener) throws Exception {
+        new JdaClient().start(token, disableCommandUpdate, commands, welcomeMessageDefinition, guildMembershipListener);
     }
 }